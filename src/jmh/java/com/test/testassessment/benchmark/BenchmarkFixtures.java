@@ -0,0 +1,164 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.audit.TokenAuditLog;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserCredentials;
+import com.test.testassessment.replication.NoTokenReplication;
+import com.test.testassessment.repository.UserRepository;
+import com.test.testassessment.security.Argon2PasswordHasher;
+import com.test.testassessment.security.PasswordHasher;
+import com.test.testassessment.security.PasswordHashing;
+import com.test.testassessment.security.Pbkdf2PasswordHasher;
+import com.test.testassessment.security.ScryptPasswordHasher;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.Sha256PasswordHasher;
+import com.test.testassessment.security.TokenSigner;
+import com.test.testassessment.service.impl.TokenServiceImpl;
+import com.test.testassessment.store.ConcurrentTokenStore;
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import com.test.testassessment.util.CachedClock;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Builds the services under benchmark without a Spring context. The user repository is an
+ * in-memory map, so the numbers show the cost of the services themselves rather than of H2.
+ */
+final class BenchmarkFixtures {
+
+    static final String PASSWORD = "SomePass";
+    static final String TOKEN_DURATION_MINUTES = "5";
+    static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+    static final Clock CLOCK = new CachedClock(1);
+    static final int TOKEN_STORE_CAPACITY = 1 << 21;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Every login opens a session, so the store is bounded for benchmarks that log in on every
+     * invocation. The oldest sessions are evicted once it is full.
+     */
+    static TokenStore tokenStore() {
+        return new ConcurrentTokenStore(TOKEN_STORE_CAPACITY);
+    }
+
+    /**
+     * The registry the application exports to, publishing the same percentiles, so benchmarks
+     * include the cost of its metrics.
+     */
+    static MeterRegistry meterRegistry() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder().percentiles(PERCENTILES).build().merge(config);
+            }
+        });
+        return registry;
+    }
+
+    static TokenServiceImpl tokenService(TokenStore tokenStore) {
+        return tokenService(tokenStore, new TokenValidationMetrics(meterRegistry(), 64));
+    }
+
+    static TokenServiceImpl tokenService(TokenStore tokenStore, TokenValidationMetrics validationMetrics) {
+        TokenServiceImpl tokenService = new TokenServiceImpl(tokenStore, new RevocationList(1024), new TokenSigner(""), secureRandomPool(), validationMetrics, new TokenAuditLog(CLOCK, 1, 100), new NoTokenReplication(), CLOCK);
+        ReflectionTestUtils.setField(tokenService, "tokenDuration", TOKEN_DURATION_MINUTES);
+        return tokenService;
+    }
+
+    /**
+     * Password hashing with every algorithm available and the given one configured, with the
+     * application's default costs.
+     */
+    static PasswordHashing passwordHashing(String algorithm) {
+        return new PasswordHashing(passwordHashers(), secureRandomPool(), meterRegistry(), algorithm, 0, 256);
+    }
+
+    static SecureRandomPool secureRandomPool() {
+        return new SecureRandomPool(0);
+    }
+
+    static List<PasswordHasher> passwordHashers() {
+        return Arrays.asList(new Sha256PasswordHasher(), new Pbkdf2PasswordHasher(210000), new ScryptPasswordHasher(16384, 8, 1), new Argon2PasswordHasher(19456, 2, 1));
+    }
+
+    static User user(int number) {
+        User user = new User();
+        user.setId(String.format("00000000-0000-4000-8000-%012d", number));
+        user.setUserName("user" + number);
+        user.setFullName("User " + number);
+        user.setPassword(PASSWORD);
+        return user;
+    }
+
+    static UserRepository userRepository(Map<String, User> users) {
+        return (UserRepository) Proxy.newProxyInstance(UserRepository.class.getClassLoader(), new Class<?>[]{UserRepository.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findById":
+                    return Optional.ofNullable(users.get((String) args[0]));
+                case "findCredentialsById":
+                    return Optional.ofNullable(users.get((String) args[0]))
+                            .map(found -> new UserCredentials(found.getId(), found.getUserName(), found.getSalt(), found.getPassword()));
+                case "updatePassword":
+                    User existing = users.get((String) args[0]);
+                    if (existing == null) {
+                        return 0;
+                    }
+                    existing.setPassword((String) args[1]);
+                    return 1;
+                case "save":
+                    User user = (User) args[0];
+                    users.put(user.getId(), user);
+                    return user;
+                case "findAll":
+                    return new ArrayList<>(users.values());
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryUserRepository";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Walks the fixtures in a fixed but scattered order, starting at a different place for every
+     * thread, so threads do not all hit the same entries at once.
+     */
+    static final class Cursor {
+
+        private static final int STEP = 7919;
+        private int position;
+
+        Cursor(int start) {
+            this.position = start;
+        }
+
+        int next(int bound) {
+            position = (position + STEP) % bound;
+            return position;
+        }
+
+    }
+
+}
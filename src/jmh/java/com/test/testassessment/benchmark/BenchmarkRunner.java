@@ -0,0 +1,64 @@
+package com.test.testassessment.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks once per configured thread count, reporting throughput in ops/s, average
+ * time in ns/op and, through the GC profiler, the bytes allocated per operation. Every run writes
+ * a JSON result file named after its mode and thread count into jmh.output.
+ * <p>
+ * Iterations last jmh.iterationSeconds rather than JMH's 10 seconds, so that enough forks and
+ * iterations to make the error bounds meaningful still fit in a run of reasonable length.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", ".*Benchmark.*");
+        File output = new File(System.getProperty("jmh.output", "target/jmh"));
+        int warmupIterations = Integer.getInteger("jmh.warmupIterations", 3);
+        int measurementIterations = Integer.getInteger("jmh.measurementIterations", 5);
+        int forks = Integer.getInteger("jmh.forks", 1);
+        TimeValue iterationTime = TimeValue.seconds(Integer.getInteger("jmh.iterationSeconds", 1));
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IllegalStateException("Could not create " + output);
+        }
+        for (String threads : System.getProperty("jmh.threads", "1,4").split(",")) {
+            int threadCount = Integer.parseInt(threads.trim());
+            run(include, Mode.Throughput, TimeUnit.SECONDS, threadCount, warmupIterations, measurementIterations, iterationTime, forks, output);
+            run(include, Mode.AverageTime, TimeUnit.NANOSECONDS, threadCount, warmupIterations, measurementIterations, iterationTime, forks, output);
+        }
+    }
+
+    private static void run(String include, Mode mode, TimeUnit timeUnit, int threads, int warmupIterations,
+                            int measurementIterations, TimeValue iterationTime, int forks, File output) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(include)
+                .mode(mode)
+                .timeUnit(timeUnit)
+                .threads(threads)
+                .warmupIterations(warmupIterations)
+                .warmupTime(iterationTime)
+                .measurementIterations(measurementIterations)
+                .measurementTime(iterationTime)
+                .forks(forks)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(output, mode.shortLabel() + "-" + threads + "-threads.json").getPath())
+                .build();
+        new Runner(options).run();
+    }
+
+}
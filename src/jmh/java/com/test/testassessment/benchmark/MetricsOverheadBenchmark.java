@@ -0,0 +1,77 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.impl.TokenServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures what the token validation metrics add to a validation. {@link #recordValidation}
+ * is the instrumentation on its own, to be read against {@link #isTokenValid}, which includes
+ * it. A composite registry with no registries behind it turns every meter into a no-op, so
+ * {@code noop} shows the cost of the counters, and {@code prometheus} adds the sampled timer
+ * with the percentiles the application publishes.
+ */
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    private static final int USERS = 100000;
+
+    @Param({"noop", "prometheus"})
+    public String registry;
+
+    @Param({"64", "1"})
+    public int sampling;
+
+    private TokenValidationMetrics validationMetrics;
+    private TokenServiceImpl tokenService;
+    private User[] users;
+    private Token[] tokens;
+
+    @Setup
+    public void setUp() {
+        MeterRegistry meterRegistry = "noop".equals(registry) ? new CompositeMeterRegistry() : BenchmarkFixtures.meterRegistry();
+        validationMetrics = new TokenValidationMetrics(meterRegistry, sampling);
+        tokenService = BenchmarkFixtures.tokenService(BenchmarkFixtures.tokenStore(), validationMetrics);
+        users = new User[USERS];
+        tokens = new Token[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = BenchmarkFixtures.user(i);
+            tokens[i] = tokenService.generateToken(users[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        BenchmarkFixtures.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            cursor = new BenchmarkFixtures.Cursor(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+        }
+
+    }
+
+    @Benchmark
+    public void recordValidation() {
+        validationMetrics.record(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.VALID, validationMetrics.start());
+    }
+
+    @Benchmark
+    public boolean isTokenValid(ThreadState state) {
+        int index = state.cursor.next(USERS);
+        return tokenService.isTokenValid(users[index].getId(), tokens[index]);
+    }
+
+}
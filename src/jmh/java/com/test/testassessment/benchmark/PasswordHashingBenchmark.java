@@ -0,0 +1,39 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.security.PasswordHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The cost of one hash with each algorithm at the application's default parameters, which is
+ * what a login or user creation pays on top of the rest of the request.
+ */
+@State(Scope.Benchmark)
+public class PasswordHashingBenchmark {
+
+    private static final byte[] SALT = "pJ1bn9Ts0jcdZ7rWZ4tG6VQ1ebq4tUz2pB3xVHOE8sA=".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"sha256", "pbkdf2-sha256", "scrypt", "argon2id"})
+    public String algorithm;
+
+    private PasswordHasher hasher;
+
+    @Setup
+    public void setUp() {
+        hasher = BenchmarkFixtures.passwordHashers().stream()
+                .filter(passwordHasher -> passwordHasher.getAlgorithm().equals(algorithm))
+                .findFirst()
+                .orElseThrow(IllegalArgumentException::new);
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash(BenchmarkFixtures.PASSWORD, SALT);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.security.PasswordHashing;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.Sha256PasswordHasher;
+import com.test.testassessment.util.RandomIdGenerator;
+import com.test.testassessment.util.TimeOrderedIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Salt and id generation for a new user, before and after the {@link SecureRandomPool}.
+ */
+@State(Scope.Benchmark)
+public class RandomGenerationBenchmark {
+
+    private PasswordHashing passwordHashing;
+    private RandomIdGenerator randomIdGenerator;
+    private TimeOrderedIdGenerator timeOrderedIdGenerator;
+
+    @Setup
+    public void setUp() {
+        SecureRandomPool randomPool = BenchmarkFixtures.secureRandomPool();
+        passwordHashing = BenchmarkFixtures.passwordHashing(Sha256PasswordHasher.ALGORITHM);
+        randomIdGenerator = new RandomIdGenerator(randomPool);
+        timeOrderedIdGenerator = new TimeOrderedIdGenerator(randomPool);
+    }
+
+    /**
+     * What UserServiceImpl did before the pool: a new generator for every salt.
+     */
+    @Benchmark
+    public String saltFromNewSecureRandom() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return new String(Base64.getEncoder().encode(bytes));
+    }
+
+    @Benchmark
+    public String saltFromPool() {
+        return passwordHashing.generateSalt();
+    }
+
+    @Benchmark
+    public String randomUUID() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String randomIdFromPool() {
+        return randomIdGenerator.generateId();
+    }
+
+    @Benchmark
+    public String timeOrderedId() {
+        return timeOrderedIdGenerator.generateId();
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.test.testassessment.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.test.testassessment.util.DataResponseBodies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@code {"data":...}} bodies of the user routes, before and after {@link DataResponseBodies}.
+ * Each benchmark ends with the bytes written to the response.
+ */
+@State(Scope.Benchmark)
+public class ResponseBodyBenchmark {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private String token;
+
+    @Setup
+    public void setUp() {
+        // as long as a JSON token as issued
+        byte[] bytes = new byte[123];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        token = Base64.getEncoder().encodeToString(bytes);
+    }
+
+    /**
+     * What UserServiceImpl.buildResponse did for every validation and revocation, twice: a tree
+     * serialized to a String, then encoded by the message converter.
+     */
+    @Benchmark
+    public byte[] trueFromObjectNode() throws JsonProcessingException {
+        ObjectNode data = mapper.createObjectNode();
+        data.put("data", String.valueOf(true));
+        return mapper.writeValueAsString(data).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] trueConstant() {
+        return DataResponseBodies.ofTrue();
+    }
+
+    @Benchmark
+    public byte[] tokenFromObjectNode() throws JsonProcessingException {
+        ObjectNode data = mapper.createObjectNode();
+        data.put("data", token);
+        return mapper.writeValueAsString(data).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] tokenFromGenerator() {
+        return DataResponseBodies.of(token);
+    }
+
+}
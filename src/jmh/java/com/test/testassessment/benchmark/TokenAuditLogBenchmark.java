@@ -0,0 +1,125 @@
+package com.test.testassessment.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.test.testassessment.audit.TokenAuditLog;
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.impl.TokenServiceImpl;
+import com.test.testassessment.store.TokenStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Issues and revokes tokens with the audit log off and on. Lines are formatted and encoded as
+ * they would be for a file, then discarded, so {@code DEBUG} includes the whole cost of logging
+ * an event. Both should be independent of the cache size.
+ * <p>
+ * Every session opened is filed under its expiry until it expires, even once closed, so the
+ * store is built again for each iteration rather than growing for as long as the trial runs.
+ */
+@State(Scope.Benchmark)
+public class TokenAuditLogBenchmark {
+
+    @Param({"1000", "100000"})
+    public int cacheSize;
+
+    @Param({"INFO", "DEBUG"})
+    public String level;
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(TokenAuditLog.class);
+    private OutputStreamAppender<ILoggingEvent> appender;
+    private TokenStore tokenStore;
+    private TokenServiceImpl tokenService;
+    private User[] users;
+    private Token[] tokens;
+
+    @Setup
+    public void setUp() {
+        LoggerContext context = logger.getLoggerContext();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d %-5level [%thread] %logger{36} - %msg%n");
+        encoder.start();
+        appender = new OutputStreamAppender<>();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        appender.start();
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        logger.setLevel(Level.toLevel(level));
+    }
+
+    @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+    public void createTokens() {
+        tokenStore = BenchmarkFixtures.tokenStore();
+        tokenService = BenchmarkFixtures.tokenService(tokenStore);
+        users = new User[cacheSize];
+        tokens = new Token[cacheSize];
+        for (int i = 0; i < cacheSize; i++) {
+            users[i] = BenchmarkFixtures.user(i);
+            tokens[i] = tokenService.generateToken(users[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.detachAppender(appender);
+        logger.setAdditive(true);
+        logger.setLevel(null);
+        appender.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        BenchmarkFixtures.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            cursor = new BenchmarkFixtures.Cursor(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+        }
+
+    }
+
+    /**
+     * Closes the session straight after opening it so the store keeps its size.
+     */
+    @Benchmark
+    public Token generateToken(ThreadState state) {
+        User user = users[state.cursor.next(cacheSize)];
+        Token token = tokenService.generateToken(user);
+        tokenStore.remove(token.getId(), user.getId());
+        return token;
+    }
+
+    @Benchmark
+    public boolean revokeToken(ThreadState state) {
+        int index = state.cursor.next(cacheSize);
+        boolean revoked = tokenService.revokeToken(users[index].getId(), tokens[index]);
+        tokenStore.put(tokens[index].getId(), users[index].getId(), tokens[index].getExpiresAt());
+        return revoked;
+    }
+
+}
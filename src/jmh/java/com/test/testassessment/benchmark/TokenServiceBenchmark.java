@@ -0,0 +1,78 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.impl.TokenServiceImpl;
+import com.test.testassessment.store.TokenStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+@State(Scope.Benchmark)
+public class TokenServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int cacheSize;
+
+    private TokenStore tokenStore;
+    private TokenServiceImpl tokenService;
+    private User[] users;
+    private Token[] tokens;
+
+    @Setup
+    public void setUp() {
+        tokenStore = BenchmarkFixtures.tokenStore();
+        tokenService = BenchmarkFixtures.tokenService(tokenStore);
+        users = new User[cacheSize];
+        tokens = new Token[cacheSize];
+        for (int i = 0; i < cacheSize; i++) {
+            users[i] = BenchmarkFixtures.user(i);
+            tokens[i] = tokenService.generateToken(users[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        BenchmarkFixtures.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            cursor = new BenchmarkFixtures.Cursor(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+        }
+
+    }
+
+    /**
+     * Closes the session straight after opening it so the store keeps its size.
+     */
+    @Benchmark
+    public Token generateToken(ThreadState state) {
+        User user = users[state.cursor.next(cacheSize)];
+        Token token = tokenService.generateToken(user);
+        tokenStore.remove(token.getId(), user.getId());
+        return token;
+    }
+
+    @Benchmark
+    public boolean isTokenValid(ThreadState state) {
+        int index = state.cursor.next(cacheSize);
+        return tokenService.isTokenValid(users[index].getId(), tokens[index]);
+    }
+
+    /**
+     * Puts the token back straight after revoking it so every invocation revokes a live token.
+     */
+    @Benchmark
+    public boolean revokeToken(ThreadState state) {
+        int index = state.cursor.next(cacheSize);
+        boolean revoked = tokenService.revokeToken(users[index].getId(), tokens[index]);
+        tokenStore.put(tokens[index].getId(), users[index].getId(), tokens[index].getExpiresAt());
+        return revoked;
+    }
+
+}
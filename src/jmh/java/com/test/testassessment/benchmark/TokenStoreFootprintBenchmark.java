@@ -0,0 +1,116 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.store.ConcurrentTokenStore;
+import com.test.testassessment.store.OffHeapTokenStore;
+import com.test.testassessment.store.TokenStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the on-heap and off-heap token stores holding the same sessions, ten per user.
+ * {@link #fullGc} times a full collection with the store live, which is what grows with the number
+ * of on-heap sessions, and reports the heap and direct memory left in use after it as the
+ * {@code heapBytes} and {@code directBytes} counters. Token ids are derived from the session index
+ * so that the benchmark itself keeps no per-session objects alive.
+ */
+@State(Scope.Benchmark)
+public class TokenStoreFootprintBenchmark {
+
+    private static final int SESSIONS_PER_USER = 10;
+
+    @Param({"heap", "off-heap"})
+    public String store;
+
+    @Param({"1000000"})
+    public int sessions;
+
+    private TokenStore tokenStore;
+    private String[] userIds;
+
+    @Setup
+    public void setUp() {
+        tokenStore = "heap".equals(store) ? new ConcurrentTokenStore(sessions) : new OffHeapTokenStore(sessions);
+        userIds = new String[Math.max(1, sessions / SESSIONS_PER_USER)];
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = BenchmarkFixtures.user(i).getId();
+        }
+        long expiresAt = BenchmarkFixtures.CLOCK.millis() + TimeUnit.MINUTES.toMillis(Long.parseLong(BenchmarkFixtures.TOKEN_DURATION_MINUTES));
+        for (int i = 0; i < sessions; i++) {
+            tokenStore.put(tokenId(i), userIds[i % userIds.length], expiresAt);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        BenchmarkFixtures.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            cursor = new BenchmarkFixtures.Cursor(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+        }
+
+    }
+
+    /**
+     * Memory in use after the last collection of the iteration, in bytes. Being events, the
+     * counters are summed over the measurement iterations in the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        public long heapBytes;
+        public long directBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heapBytes = 0;
+            directBytes = 0;
+        }
+
+        void record() {
+            heapBytes = memory.getHeapMemoryUsage().getUsed();
+            directBytes = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if ("direct".equals(pool.getName())) {
+                    directBytes = pool.getMemoryUsed();
+                }
+            }
+        }
+
+    }
+
+    @Benchmark
+    public long getExpiresAt(ThreadState state) {
+        int index = state.cursor.next(sessions);
+        return tokenStore.getExpiresAt(tokenId(index), userIds[index % userIds.length]);
+    }
+
+    @Benchmark
+    public void fullGc(Footprint footprint) {
+        System.gc();
+        footprint.record();
+    }
+
+    /**
+     * A bijection of the index, so ids are distinct and spread like random ones, and never 0.
+     */
+    private static long tokenId(int index) {
+        long id = (index + 1L) * 0x9E3779B97F4A7C15L;
+        return id ^ (id >>> 29);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.test.testassessment.benchmark;
+
+import com.test.testassessment.model.User;
+import com.test.testassessment.security.Sha256PasswordHasher;
+import com.test.testassessment.service.impl.AuthorizationHeaderCache;
+import com.test.testassessment.service.impl.UserServiceImpl;
+import com.test.testassessment.util.RandomIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+    private static final String TRUE = String.valueOf(true);
+
+    @Param({"1000", "100000"})
+    public int cacheSize;
+
+    @Param({"0", "10000"})
+    public int headerCacheSize;
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Set<String> seededUserIds = new HashSet<>();
+    private final AtomicInteger newUsers = new AtomicInteger();
+    private UserServiceImpl userService;
+    private String[] userIds;
+    private String[] tokens;
+
+    @Setup
+    public void setUp() {
+        // the original hash, so the results stay comparable with the baseline; see PasswordHashingBenchmark
+        userService = new UserServiceImpl(BenchmarkFixtures.userRepository(users), BenchmarkFixtures.tokenService(BenchmarkFixtures.tokenStore()),
+                BenchmarkFixtures.passwordHashing(Sha256PasswordHasher.ALGORITHM), new RandomIdGenerator(BenchmarkFixtures.secureRandomPool()),
+                new AuthorizationHeaderCache(new SimpleMeterRegistry(), headerCacheSize));
+        userIds = new String[cacheSize];
+        tokens = new String[cacheSize];
+        for (int i = 0; i < cacheSize; i++) {
+            User user = BenchmarkFixtures.user(i);
+            String password = user.getPassword();
+            userIds[i] = userService.saveUser(user).getId();
+            tokens[i] = userService.authenticateUserByIdAndPassword(userIds[i], password);
+        }
+        seededUserIds.addAll(users.keySet());
+    }
+
+    /**
+     * Drops the users created by {@link #saveUser()} so the repository does not grow across iterations.
+     */
+    @TearDown(Level.Iteration)
+    public void removeNewUsers() {
+        users.keySet().retainAll(seededUserIds);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        BenchmarkFixtures.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            cursor = new BenchmarkFixtures.Cursor(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE / 2));
+        }
+
+    }
+
+    @Benchmark
+    public boolean validateToken(ThreadState state) {
+        int index = state.cursor.next(cacheSize);
+        return userService.validateToken(userIds[index], tokens[index]);
+    }
+
+    @Benchmark
+    public String authenticateUserByIdAndPassword(ThreadState state) {
+        return userService.authenticateUserByIdAndPassword(userIds[state.cursor.next(cacheSize)], BenchmarkFixtures.PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] buildResponse() {
+        return userService.buildResponse(TRUE);
+    }
+
+    @Benchmark
+    public User saveUser() {
+        return userService.saveUser(BenchmarkFixtures.user(cacheSize + newUsers.incrementAndGet()));
+    }
+
+}
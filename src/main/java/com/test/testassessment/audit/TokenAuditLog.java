@@ -0,0 +1,168 @@
+package com.test.testassessment.audit;
+
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.SignedToken;
+import com.test.testassessment.model.Token;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs token events one line per event, as {@code key=value} pairs naming the user whose tokens
+ * changed. Token contents and JSON token ids are never logged.
+ * <p>
+ * Events are logged at DEBUG on this class's logger, so they are switched on with
+ * {@code logging.level.com.test.testassessment.audit.TokenAuditLog=DEBUG}. While it is off,
+ * an event costs one level check. While it is on, one event in
+ * {@code test.assessment.audit.token.sampling} is kept and at most
+ * {@code test.assessment.audit.token.max.per.second} are written per second. Events dropped by
+ * the rate limit are counted and reported by an {@code event=suppressed} line once the next
+ * second starts.
+ */
+@Component
+public class TokenAuditLog {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenAuditLog.class);
+    private static final long WINDOW_MILLIS = 1000;
+    private static final int MAX_VALUE_LENGTH = 64;
+    private final int sampling;
+    private final int maxPerSecond;
+    private final AtomicLong window = new AtomicLong(); // second << 32 | events written in it
+    private final LongAdder suppressed = new LongAdder();
+    private final Clock clock;
+
+    public TokenAuditLog(Clock clock,
+                         @Value("${test.assessment.audit.token.sampling:1}") int sampling,
+                         @Value("${test.assessment.audit.token.max.per.second:100}") int maxPerSecond) {
+        this.sampling = Math.max(1, sampling);
+        this.maxPerSecond = Math.max(1, maxPerSecond);
+        this.clock = clock;
+    }
+
+    public void issued(String userId, Token token) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=issued format=json user={} expiresAt={}", sanitize(userId), Instant.ofEpochMilli(token.getExpiresAt()));
+        }
+    }
+
+    public void issued(SignedToken token) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=issued format=signed user={} tokenId={} expiresAt={}", sanitize(token.getUserId()), token.getId(),
+                    Instant.ofEpochSecond(token.getExpiresAt()));
+        }
+    }
+
+    public void revoked(String userId) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=revoked format=json user={}", sanitize(userId));
+        }
+    }
+
+    public void revoked(SignedToken token) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=revoked format=signed user={} tokenId={}", sanitize(token.getUserId()), token.getId());
+        }
+    }
+
+    /**
+     * Every token of the user was revoked, in either format.
+     */
+    public void revokedAll(String userId) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=revoked-all user={}", sanitize(userId));
+        }
+    }
+
+    /**
+     * @param userId the user the token was presented for, null if any user was accepted
+     */
+    public void rejected(TokenValidationMetrics.Format format, String userId, TokenValidationOutcome outcome) {
+        if (log.isDebugEnabled() && tryAcquire()) {
+            log.debug("event=rejected format={} user={} reason={}", format.name().toLowerCase(), sanitize(userId), outcome.getTagValue());
+        }
+    }
+
+    /**
+     * Tokens of a batch were rejected, logged as one event counting them by reason, since the
+     * users they were presented for are given by the caller and may be arbitrary.
+     */
+    public void rejected(TokenValidationCounts counts) {
+        if (counts.getRejected() > 0 && log.isDebugEnabled() && tryAcquire()) {
+            StringBuilder reasons = new StringBuilder();
+            for (TokenValidationOutcome outcome : TokenValidationOutcome.values()) {
+                int count = counts.get(outcome);
+                if (outcome != TokenValidationOutcome.VALID && count > 0) {
+                    reasons.append(reasons.length() == 0 ? "" : ",").append(outcome.getTagValue()).append(':').append(count);
+                }
+            }
+            log.debug("event=rejected-batch size={} rejected={} reasons={}", counts.getTotal(), counts.getRejected(), reasons);
+        }
+    }
+
+    /**
+     * Samples the event, then takes one of the current second's permits.
+     */
+    private boolean tryAcquire() {
+        if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return false;
+        }
+        long second = clock.millis() / WINDOW_MILLIS;
+        while (true) {
+            long current = window.get();
+            if (current >>> 32 != second) {
+                if (window.compareAndSet(current, second << 32 | 1)) {
+                    reportSuppressed();
+                    return true;
+                }
+            } else if ((int) current >= maxPerSecond) {
+                suppressed.increment();
+                return false;
+            } else if (window.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void reportSuppressed() {
+        long count = suppressed.sumThenReset();
+        if (count > 0) {
+            log.debug("event=suppressed count={} maxPerSecond={}", count, maxPerSecond);
+        }
+    }
+
+    /**
+     * User ids come from the request path, so they are cut short and stripped of anything that
+     * could break the line or the key=value format.
+     */
+    private static String sanitize(String value) {
+        if (value == null) {
+            return null;
+        }
+        int length = Math.min(value.length(), MAX_VALUE_LENGTH);
+        StringBuilder sanitized = null;
+        for (int i = 0; i < length; i++) {
+            char character = value.charAt(i);
+            boolean safe = character > ' ' && character < 0x7F && character != '=';
+            if (!safe && sanitized == null) {
+                sanitized = new StringBuilder(length).append(value, 0, i);
+            }
+            if (sanitized != null) {
+                sanitized.append(safe ? character : '_');
+            }
+        }
+        if (sanitized != null) {
+            return sanitized.toString();
+        }
+        return length < value.length() ? value.substring(0, length) : value;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.test.testassessment.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the routes that hash a password to a pool of request threads and frees the servlet thread
+ * straight away, so slow logins cannot take every servlet thread from the routes that only check
+ * a token. Picked with {@code test.assessment.controller.execution=async}.
+ * <p>
+ * Hashes still run on the hashing threads of {@link com.test.testassessment.security.PasswordHashing}.
+ * The request threads do the repository work and wait for their hash, so there are
+ * {@code test.assessment.controller.threads} of them, with a queue of
+ * {@code test.assessment.controller.queue.capacity}. When it is full, requests get HTTP 503 as
+ * when hashing is saturated. With {@code test.assessment.controller.virtual.threads=true} a
+ * virtual thread is started per request instead, which needs Java 21, and only the hashing queue
+ * bounds the requests in flight.
+ */
+@RestController
+@ConditionalOnProperty(name = UserController.EXECUTION_PROPERTY, havingValue = "async")
+public class AsyncUserController extends UserController implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncUserController.class);
+    private final ExecutorService executor;
+
+    public AsyncUserController(UserService userService,
+                               ObjectMapper objectMapper,
+                               MeterRegistry registry,
+                               @Value("${test.assessment.controller.threads:16}") int threads,
+                               @Value("${test.assessment.controller.queue.capacity:1024}") int queueCapacity,
+                               @Value("${test.assessment.controller.virtual.threads:false}") boolean virtualThreads) {
+        super(userService, objectMapper);
+        if (virtualThreads) {
+            this.executor = newVirtualThreadPerTaskExecutor();
+            log.info("Serving password routes on virtual threads");
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "user-requests-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            new ExecutorServiceMetrics(executor, "user-requests", Tags.empty()).bindTo(registry);
+            log.info("Serving password routes on {} threads", threads);
+        }
+    }
+
+    @PostMapping("/users")
+    public CompletableFuture<ResponseEntity<User>> addUser(@RequestBody User user) {
+        log.debug("Adding user {}", user);
+        return CompletableFuture.supplyAsync(() -> saveUser(user), executor);
+    }
+
+    @PutMapping("/users/{id}")
+    public CompletableFuture<ResponseEntity<User>> updateUser(@PathVariable String id, @RequestBody User user, TokenPrincipal principal) {
+        log.debug("Updating user {}", id);
+        return CompletableFuture.supplyAsync(() -> saveUpdatedUser(id, user), executor);
+    }
+
+    @PostMapping("/users/{id}/token")
+    public CompletableFuture<ResponseEntity<byte[]>> getTokenForUser(@PathVariable String id, @RequestBody User user) {
+        log.debug("Getting token for user id {}", id);
+        return CompletableFuture.supplyAsync(() -> issueToken(id, user), executor);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Looked up by reflection, the application is built for Java 8.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on " + System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.test.testassessment.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Hashes passwords on the request thread, which waits for a hashing thread and the database.
+ * The default, {@code test.assessment.controller.execution=blocking}.
+ */
+@RestController
+@ConditionalOnProperty(name = UserController.EXECUTION_PROPERTY, havingValue = "blocking", matchIfMissing = true)
+public class BlockingUserController extends UserController {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingUserController.class);
+
+    public BlockingUserController(UserService userService, ObjectMapper objectMapper) {
+        super(userService, objectMapper);
+    }
+
+    @PostMapping("/users")
+    public ResponseEntity<User> addUser(@RequestBody User user) {
+        log.debug("Adding user {}", user);
+        return saveUser(user);
+    }
+
+    @PutMapping("/users/{id}")
+    public ResponseEntity<User> updateUser(@PathVariable String id, @RequestBody User user, TokenPrincipal principal) {
+        log.debug("Updating user {}", id);
+        return saveUpdatedUser(id, user);
+    }
+
+    @PostMapping("/users/{id}/token")
+    public ResponseEntity<byte[]> getTokenForUser(@PathVariable String id, @RequestBody User user) {
+        log.debug("Getting token for user id {}", id);
+        return issueToken(id, user);
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.test.testassessment.controller;
+
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.service.UserService;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Authenticates the routes taking a {@link TokenPrincipal}: the {@code Authorization} header is
+ * decoded and validated once, against the user named by the {@code id} path variable if there is
+ * one, and the resulting principal is passed to the route. Requests without the header get HTTP
+ * 400, and requests with a token that is not valid get HTTP 401, without reaching the route.
+ */
+class TokenAuthenticationInterceptor implements HandlerInterceptor, HandlerMethodArgumentResolver {
+
+    private static final String PRINCIPAL_ATTRIBUTE = TokenPrincipal.class.getName();
+    private static final String USER_ID_VARIABLE = "id";
+    private final UserService userService;
+
+    TokenAuthenticationInterceptor(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod) || !takesPrincipal((HandlerMethod) handler)) {
+            return true;
+        }
+        if (request.getAttribute(PRINCIPAL_ATTRIBUTE) != null) {
+            // dispatched again to write the result of an asynchronous route
+            return true;
+        }
+        String token = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (token == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String userId = pathVariables == null ? null : pathVariables.get(USER_ID_VARIABLE); // no RBAC when no user is named
+        TokenPrincipal principal = userService.authenticate(userId, token);
+        if (principal == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return false;
+        }
+        request.setAttribute(PRINCIPAL_ATTRIBUTE, principal);
+        return true;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.getParameterType() == TokenPrincipal.class;
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        return webRequest.getAttribute(PRINCIPAL_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    private boolean takesPrincipal(HandlerMethod handler) {
+        for (MethodParameter parameter : handler.getMethodParameters()) {
+            if (supportsParameter(parameter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.test.testassessment.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import com.test.testassessment.model.TokenCheck;
+import com.test.testassessment.service.BatchTooLargeException;
+import com.test.testassessment.service.UserService;
+import com.test.testassessment.store.PartitionUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Validates tokens in batches, for gateways that would otherwise call
+ * {@code /users/{id}/validate-token} once per request they let through.
+ */
+@RestController
+public class TokenController {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenController.class);
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+
+    public TokenController(UserService userService, ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads a JSON array of {@link TokenCheck} and answers whether each token is valid, as a JSON
+     * array of booleans in the same order. Checks are read and validated one at a time, without
+     * building a tree of the request. Batches of more than {@link UserService#MAX_BATCH_SIZE}
+     * checks are refused with 413.
+     */
+    @PostMapping(value = "/tokens/validate-batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<Boolean>> validateTokens(InputStream body) throws IOException {
+        log.debug("Validating a batch of tokens");
+        try (MappingIterator<TokenCheck> checks = objectMapper.readerFor(TokenCheck.class).readValues(body)) {
+            return new ResponseEntity<>(userService.validateTokens(checks), HttpStatus.ACCEPTED);
+        }
+    }
+
+    /**
+     * As {@link #validateTokens(InputStream)}, answering with a bitmap instead: bit {@code i % 8}
+     * of byte {@code i / 8}, counting from the least significant bit, is set if token {@code i}
+     * is valid.
+     */
+    @PostMapping(value = "/tokens/validate-batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> validateTokensToBitmap(InputStream body) throws IOException {
+        log.debug("Validating a batch of tokens into a bitmap");
+        List<Boolean> results;
+        try (MappingIterator<TokenCheck> checks = objectMapper.readerFor(TokenCheck.class).readValues(body)) {
+            results = userService.validateTokens(checks);
+        }
+        byte[] bitmap = new byte[(results.size() + 7) / 8];
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i)) {
+                bitmap[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        return new ResponseEntity<>(bitmap, HttpStatus.ACCEPTED);
+    }
+
+    @ExceptionHandler({JsonProcessingException.class, RuntimeJsonMappingException.class})
+    public ResponseEntity<String> unreadableBatch(Exception e) {
+        log.debug("Could not read a batch of tokens", e);
+        return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(BatchTooLargeException.class)
+    public ResponseEntity<String> batchTooLarge(BatchTooLargeException e) {
+        log.debug("Rejecting a batch of tokens: {}", e.getMessage());
+        return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @ExceptionHandler(PartitionUnavailableException.class)
+    public ResponseEntity<String> partitionUnavailable(PartitionUnavailableException e) {
+        log.warn("Rejecting a batch of tokens: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+    }
+
+}
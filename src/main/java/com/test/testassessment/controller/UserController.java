@@ -1,53 +1,182 @@
 package com.test.testassessment.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.test.testassessment.model.TokenPrincipal;
 import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserImportResult;
+import com.test.testassessment.service.BatchTooLargeException;
 import com.test.testassessment.service.UserService;
 import com.test.testassessment.service.impl.UserServiceImpl;
+import com.test.testassessment.store.PartitionUnavailableException;
+import com.test.testassessment.util.DataResponseBodies;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
-@RestController
-public class UserController {
+/**
+ * The routes served the same way in every execution mode. The routes that hash a password,
+ * creating and updating a user and issuing a token, are served by {@link BlockingUserController}
+ * on the request thread, or by {@link AsyncUserController} off it when
+ * {@code test.assessment.controller.execution=async}.
+ * <p>
+ * Routes taking a {@link TokenPrincipal} need a valid token in the {@code Authorization} header,
+ * which is decoded and validated once before the route is called, see
+ * {@link TokenAuthenticationInterceptor}.
+ */
+public abstract class UserController {
+
+    public static final String EXECUTION_PROPERTY = "test.assessment.controller.execution";
 
     private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
-    private final UserService userService;
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final String NDJSON_SEPARATOR = "\n";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    protected final UserService userService;
+    private final ObjectMapper objectMapper;
 
 
-    public UserController(UserService userService) {
+    protected UserController(UserService userService, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping(value = "/users", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<User>> getUsers(TokenPrincipal principal,
+                                               @RequestParam(name = "after", required = false) String after,
+                                               @RequestParam(name = "limit", defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        log.debug("Getting users after {}", after);
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<User> users = userService.getUsers(after, pageSize);
+        HttpHeaders headers = new HttpHeaders();
+        if (users.size() == pageSize) {
+            String nextPage = UriComponentsBuilder.fromPath("/users")
+                    .queryParam("after", users.get(users.size() - 1).getId())
+                    .queryParam("limit", pageSize)
+                    .encode()
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(users, headers, HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * Streams every user as newline delimited JSON. Users are written as they are read from the
+     * database, so memory use does not depend on the number of users.
+     */
+    @GetMapping(value = "/users", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsers(TokenPrincipal principal) {
+        log.debug("Streaming all users");
+        StreamingResponseBody body = outputStream -> {
+            SequenceWriter writer = objectMapper.writer()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .withRootValueSeparator(NDJSON_SEPARATOR)
+                    .writeValues(outputStream);
+            userService.forEachUser(user -> {
+                try {
+                    writer.write(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.close();
+            outputStream.write(NDJSON_SEPARATOR.getBytes(StandardCharsets.UTF_8));
+        };
+        return ResponseEntity.status(HttpStatus.ACCEPTED).contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Creates the users sent as a JSON array or as newline delimited JSON. Records are read from
+     * the request without building a tree of it. Batches of more than
+     * {@link UserService#MAX_BATCH_SIZE} records are refused with 413.
+     */
+    @PostMapping(value = "/users/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE})
+    public ResponseEntity<List<UserImportResult>> addUsers(InputStream body) throws IOException {
+        log.debug("Adding a batch of users");
+        try (MappingIterator<User> users = objectMapper.readerFor(User.class).readValues(body)) {
+            return new ResponseEntity<>(userService.saveUsers(users), HttpStatus.ACCEPTED);
+        }
+    }
+
+    @PostMapping("/users/{id}/validate-token")
+    public ResponseEntity<byte[]> validateTokenForUser(@PathVariable String id, TokenPrincipal principal) {
+        log.debug("Validating token for user id {}", id);
+        return accepted(DataResponseBodies.ofTrue());
     }
 
-    @GetMapping("/users")
-    public ResponseEntity<List<User>> getUsers(@RequestHeader(name = "Authorization") String token) {
-        log.debug("Getting all users");
-        if (userService.validateToken(null, token)) { // nulling userId since there is no RBAC in this version
-            return new ResponseEntity<>(userService.getAllUsers(), HttpStatus.ACCEPTED);
-        } else {
+    @PostMapping("/users/{id}/revoke-token")
+    public ResponseEntity<byte[]> revokeTokenForUser(@PathVariable String id, TokenPrincipal principal) {
+        log.debug("Revoking token for user id {}", id);
+        if (!userService.revokeToken(principal)) {
             return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
         }
+        return accepted(DataResponseBodies.ofTrue());
     }
 
-    @PostMapping("/users")
-    public ResponseEntity<User> addUser(@RequestBody User user) {
-        log.debug("Adding user {}", user);
+    @PostMapping("/users/{id}/revoke-all-tokens")
+    public ResponseEntity<byte[]> revokeAllTokensForUser(@PathVariable String id, TokenPrincipal principal) {
+        log.debug("Revoking all tokens for user id {}", id);
+        userService.revokeAllTokens(id);
+        return accepted(DataResponseBodies.ofTrue());
+    }
+
+    @ExceptionHandler(BatchTooLargeException.class)
+    public ResponseEntity<String> batchTooLarge(BatchTooLargeException e) {
+        log.debug("Rejecting a batch of users: {}", e.getMessage());
+        return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    /**
+     * Password hashing is saturated, see {@link com.test.testassessment.security.PasswordHashing},
+     * or so are the request threads of {@link AsyncUserController}.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> hashingSaturated(RejectedExecutionException e) {
+        log.warn("Rejecting request, password hashing or the request threads are saturated");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+    }
+
+    /**
+     * No member of the cluster holding the user's sessions could be reached, see
+     * {@link com.test.testassessment.store.PartitionedTokenStore}.
+     */
+    @ExceptionHandler(PartitionUnavailableException.class)
+    public ResponseEntity<String> partitionUnavailable(PartitionUnavailableException e) {
+        log.warn("Rejecting request: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+    }
+
+    /**
+     * The work of {@code POST /users}, done on the request thread or off it by the subclass.
+     */
+    protected ResponseEntity<User> saveUser(User user) {
         User userToReturn = userService.saveUser(user);
-        if (user != null) {
+        if (userToReturn != null) {
             return new ResponseEntity<>(userToReturn, HttpStatus.ACCEPTED);
         }
         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @PutMapping("/users/{id}")
-    public ResponseEntity<User> updateUser(@PathVariable String id, @RequestBody User user, @RequestHeader(name = "Authorization") String token) {
-        log.debug("Updating user {}", id);
-        if (!userService.validateToken(id, token)) {
-            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
-        }
+    /**
+     * The work of {@code PUT /users/{id}}.
+     */
+    protected ResponseEntity<User> saveUpdatedUser(String id, User user) {
         User updateResult = userService.updateUser(id, user);
         if (updateResult != null) {
             return new ResponseEntity<>(updateResult, HttpStatus.ACCEPTED);
@@ -55,49 +184,22 @@ public class UserController {
         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @PostMapping("/users/{id}/token")
-    public ResponseEntity<String> getTokenForUser(@PathVariable String id, @RequestBody User user) {
-        log.debug("Getting token for user id {}", id);
+    /**
+     * The work of {@code POST /users/{id}/token}.
+     */
+    protected ResponseEntity<byte[]> issueToken(String id, User user) {
         String tokenInBase64 = userService.authenticateUserByIdAndPassword(id, user.getPassword());
         if (tokenInBase64 != null) {
-            return new ResponseEntity<>(userService.buildResponse(tokenInBase64), HttpStatus.ACCEPTED);
-        } else {
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            return accepted(DataResponseBodies.of(tokenInBase64));
         }
+        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @PostMapping("/users/{id}/validate-token")
-    public ResponseEntity<String> validateTokenForUser(@PathVariable String id, @RequestHeader(name = "Authorization") String token) {
-        log.debug("Validating token for user id {}", id);
-        boolean response = userService.validateToken(id, token);
-        if (response == true) {
-            if (userService.buildResponse(String.valueOf(true)) != null) {
-                return new ResponseEntity<>(userService.buildResponse(String.valueOf(true)), HttpStatus.ACCEPTED);
-            } else {
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-            }
-        } else {
-            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
-        }
-
-    }
-
-    @PostMapping("/users/{id}/revoke-token")
-    public ResponseEntity<String> revokeTokenForUser(@PathVariable String id, @RequestHeader(name = "Authorization") String token) {
-        log.debug("Revoking token for user id {}", id);
-        if (!userService.validateToken(id, token)) {
-            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
-        }
-        boolean response = userService.revokeToken(id, token);
-        if (response == true) {
-            if (userService.buildResponse(String.valueOf(true)) != null) {
-                return new ResponseEntity<>(userService.buildResponse(String.valueOf(true)), HttpStatus.ACCEPTED);
-            } else {
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-            }
-        } else {
-            return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
-        }
+    /**
+     * @param body a {@code {"data":...}} body written by {@link DataResponseBodies}
+     */
+    protected static ResponseEntity<byte[]> accepted(byte[] body) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
 }
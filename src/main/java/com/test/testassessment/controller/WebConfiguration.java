@@ -0,0 +1,30 @@
+package com.test.testassessment.controller;
+
+import com.test.testassessment.service.UserService;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final TokenAuthenticationInterceptor tokenAuthentication;
+
+    public WebConfiguration(UserService userService) {
+        this.tokenAuthentication = new TokenAuthenticationInterceptor(userService);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(tokenAuthentication);
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(tokenAuthentication);
+    }
+
+}
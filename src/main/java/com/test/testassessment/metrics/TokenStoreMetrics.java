@@ -0,0 +1,74 @@
+package com.test.testassessment.metrics;
+
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import com.test.testassessment.store.TokenStoreSweeper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the state of the {@link TokenStore}, the {@link RevocationList} and the
+ * {@link TokenStoreSweeper}. Everything is read when the registry is scraped, nothing is added
+ * to the request path.
+ */
+@Component
+public class TokenStoreMetrics implements MeterBinder {
+
+    private final TokenStore tokenStore;
+    private final RevocationList revocationList;
+    private final TokenStoreSweeper sweeper;
+    private final Clock clock;
+
+    public TokenStoreMetrics(TokenStore tokenStore, RevocationList revocationList, TokenStoreSweeper sweeper, Clock clock) {
+        this.tokenStore = tokenStore;
+        this.revocationList = revocationList;
+        this.sweeper = sweeper;
+        this.clock = clock;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("token.store.size", tokenStore, TokenStore::size)
+                .description("Sessions currently held")
+                .register(registry);
+        Gauge.builder("token.store.expired", tokenStore, store -> store.countExpired(clock.millis()))
+                .description("Sessions that expired but were not swept yet")
+                .register(registry);
+        FunctionCounter.builder("token.store.expirations", tokenStore, TokenStore::getExpiredCount)
+                .description("Expired sessions removed by the sweeper")
+                .register(registry);
+        FunctionCounter.builder("token.store.evictions", tokenStore, TokenStore::getEvictedCount)
+                .description("Unexpired sessions evicted because the store was full")
+                .register(registry);
+        Gauge.builder("token.revocations.size", revocationList, RevocationList::size)
+                .description("Revoked signed tokens and users whose signed tokens have not expired yet")
+                .register(registry);
+        Gauge.builder("token.revocations.filter.bytes", revocationList, RevocationList::getFilterBytes)
+                .description("Memory taken by the filter in front of the revoked signed tokens")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("token.revocations.filter.expected.false.positive.rate", revocationList, RevocationList::getExpectedFalsePositiveRate)
+                .description("Expected share of unrevoked signed tokens the filter cannot clear alone")
+                .register(registry);
+        FunctionCounter.builder("token.revocations.filter.positives", revocationList, RevocationList::getFilterPositives)
+                .description("Signed token checks the filter could not clear alone")
+                .register(registry);
+        FunctionCounter.builder("token.revocations.filter.false.positives", revocationList, RevocationList::getFalsePositives)
+                .description("Signed token checks the filter could not clear alone for tokens that were not revoked")
+                .register(registry);
+        FunctionCounter.builder("token.revocations.filter.rebuilds", revocationList, RevocationList::getFilterRebuilds)
+                .description("Rebuilds of the filter in front of the revoked signed tokens")
+                .register(registry);
+        FunctionTimer.builder("token.store.sweeps", sweeper, TokenStoreSweeper::getSweepCount, TokenStoreSweeper::getTotalSweepNanos, TimeUnit.NANOSECONDS)
+                .description("Runs of the expired token sweeper")
+                .register(registry);
+    }
+
+}
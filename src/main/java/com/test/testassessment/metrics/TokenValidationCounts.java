@@ -0,0 +1,44 @@
+package com.test.testassessment.metrics;
+
+/**
+ * The outcomes of a batch of token validations, counted by format and outcome, so that the batch
+ * is recorded and audited once rather than once per token. Used by a single thread, one per batch.
+ */
+public class TokenValidationCounts {
+
+    private final int[][] counts = new int[TokenValidationMetrics.Format.values().length][TokenValidationOutcome.values().length];
+    private int total;
+    private int rejected;
+
+    public void add(TokenValidationMetrics.Format format, TokenValidationOutcome outcome) {
+        counts[format.ordinal()][outcome.ordinal()]++;
+        total++;
+        if (outcome != TokenValidationOutcome.VALID) {
+            rejected++;
+        }
+    }
+
+    public int get(TokenValidationMetrics.Format format, TokenValidationOutcome outcome) {
+        return counts[format.ordinal()][outcome.ordinal()];
+    }
+
+    /**
+     * @return the tokens rejected for that reason, in either format
+     */
+    public int get(TokenValidationOutcome outcome) {
+        int count = 0;
+        for (int[] formatCounts : counts) {
+            count += formatCounts[outcome.ordinal()];
+        }
+        return count;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+}
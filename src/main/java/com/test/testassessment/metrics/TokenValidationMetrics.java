@@ -0,0 +1,97 @@
+package com.test.testassessment.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts token validations by format and outcome, and times a sample of them.
+ * <p>
+ * Validating a token takes around a hundred nanoseconds, so the instrumentation has to cost a
+ * few. Outcomes are counted in {@link LongAdder}s that the registry reads when it is scraped,
+ * and only one validation in {@code test.assessment.metrics.token.validation.sampling} is timed.
+ * The {@code token.validation} timer therefore estimates the latency distribution, while the
+ * {@code token.validations} counters hold the exact number of validations. Validations done in
+ * batches are counted once per batch, and the {@code token.validation.batch.size} summary reports
+ * the size of the batches.
+ */
+@Component
+public class TokenValidationMetrics {
+
+    public enum Format {
+        JSON, SIGNED
+    }
+
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private final LongAdder[][] outcomes = new LongAdder[Format.values().length][TokenValidationOutcome.values().length];
+    private final Timer[] timers = new Timer[Format.values().length];
+    private final DistributionSummary batchSizes;
+    private final int samplingMask;
+
+    public TokenValidationMetrics(MeterRegistry registry,
+                                  @Value("${test.assessment.metrics.token.validation.sampling:64}") int sampling) {
+        int rate = Integer.highestOneBit(Math.max(1, sampling));
+        this.samplingMask = rate < sampling ? (rate << 1) - 1 : rate - 1;
+        for (Format format : Format.values()) {
+            String formatTag = format.name().toLowerCase();
+            for (TokenValidationOutcome outcome : TokenValidationOutcome.values()) {
+                LongAdder count = new LongAdder();
+                outcomes[format.ordinal()][outcome.ordinal()] = count;
+                FunctionCounter.builder("token.validations", count, LongAdder::sum)
+                        .description("Tokens validated, by format and outcome")
+                        .tag("format", formatTag)
+                        .tag("outcome", outcome.getTagValue())
+                        .register(registry);
+            }
+            timers[format.ordinal()] = Timer.builder("token.validation")
+                    .description("Time taken to validate a sample of tokens")
+                    .tag("format", formatTag)
+                    .register(registry);
+        }
+        this.batchSizes = DistributionSummary.builder("token.validation.batch.size")
+                .description("Tokens validated per batch")
+                .register(registry);
+    }
+
+    /**
+     * @return the value to pass back to {@link #record}, the current time if this validation is
+     * sampled
+     */
+    public long start() {
+        return (ThreadLocalRandom.current().nextInt() & samplingMask) == 0 ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    public void record(Format format, TokenValidationOutcome outcome, long start) {
+        outcomes[format.ordinal()][outcome.ordinal()].increment();
+        if (start != NOT_SAMPLED) {
+            timers[format.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Counts the outcomes of a batch of validations, which are not timed.
+     */
+    public void record(TokenValidationCounts counts) {
+        for (Format format : Format.values()) {
+            for (TokenValidationOutcome outcome : TokenValidationOutcome.values()) {
+                int count = counts.get(format, outcome);
+                if (count > 0) {
+                    outcomes[format.ordinal()][outcome.ordinal()].add(count);
+                }
+            }
+        }
+        batchSizes.record(counts.getTotal());
+    }
+
+    public long count(Format format, TokenValidationOutcome outcome) {
+        return outcomes[format.ordinal()][outcome.ordinal()].sum();
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.test.testassessment.metrics;
+
+/**
+ * Why a token was accepted or rejected, reported as the outcome tag of the token validation
+ * counters.
+ */
+public enum TokenValidationOutcome {
+
+    VALID,
+    /**
+     * The token could not be decoded, or its signature did not match
+     */
+    MALFORMED,
+    EXPIRED,
+    /**
+     * No token is stored for the user the token names, it was revoked or never issued
+     */
+    UNKNOWN,
+    /**
+     * The token belongs to another user than the one it was presented for
+     */
+    USER_MISMATCH,
+    /**
+     * The signed token is on the revocation list
+     */
+    REVOKED;
+
+    private final String tagValue = name().toLowerCase().replace('_', '-');
+
+    public String getTagValue() {
+        return tagValue;
+    }
+
+}
@@ -8,7 +8,8 @@ import java.util.Objects;
  * Base class for all entities that are to be persisted in the application's database
  * Kept as abstract because it bears no information other than supply metadata to the
  * database. It is your duty to ensure that the id field is a valid UUID before
- * persisting. creationDate and lastUpdated will be automatically set as needed
+ * persisting, see {@link com.test.testassessment.util.IdGenerator}. creationDate and
+ * lastUpdated will be automatically set as needed
  */
 
 @MappedSuperclass
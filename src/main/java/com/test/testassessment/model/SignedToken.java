@@ -0,0 +1,59 @@
+package com.test.testassessment.model;
+
+import java.util.Objects;
+
+/**
+ * The claims carried by a signed token. Unlike {@link Token}, a signed token can be validated
+ * without a lookup since it is authenticated by its HMAC tag.
+ */
+public class SignedToken {
+
+    private final long id;
+
+    private final String userId;
+
+    private final long expiresAt; // epoch seconds
+
+    public SignedToken(long id, String userId, long expiresAt) {
+        this.id = id;
+        this.userId = userId;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SignedToken that = (SignedToken) o;
+        return id == that.id &&
+                expiresAt == that.expiresAt &&
+                Objects.equals(userId, that.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, userId, expiresAt);
+    }
+
+    @Override
+    public String toString() {
+        return "SignedToken{" +
+                "id=" + id +
+                ", userId='" + userId + '\'' +
+                ", expiresAt=" + expiresAt +
+                '}';
+    }
+
+}
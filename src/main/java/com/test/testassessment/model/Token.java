@@ -1,23 +1,51 @@
 package com.test.testassessment.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import java.time.ZonedDateTime;
 import java.util.Objects;
 
+/**
+ * A token handed to a user, serialized to JSON as {@code {"id":...,"content":...,"expiresAt":...}}
+ * with the expiry in epoch milliseconds. The id is random and names the session the token was
+ * issued for, a user holds one session per login. Tokens issued before the expiry was kept as a
+ * number carry an {@code expiryDate} instead, as epoch seconds or an ISO-8601 date, and are still
+ * read.
+ */
 public class Token {
 
+    private long id;
+
     private String content;
 
-    private ZonedDateTime expiryDate;
+    private long expiresAt; // epoch milliseconds
 
-    public Token(String content, ZonedDateTime expiryDate) {
+    public Token(long id, String content, long expiresAt) {
+        this.id = id;
         this.content = content;
-        this.expiryDate = expiryDate;
+        this.expiresAt = expiresAt;
+    }
+
+    public Token(String content, long expiresAt) {
+        this.content = content;
+        this.expiresAt = expiresAt;
     }
 
     public Token(String content) {
         this.content = content;
     }
 
+    public Token() {
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getContent() {
         return content;
     }
@@ -26,12 +54,20 @@ public class Token {
         this.content = content;
     }
 
-    public ZonedDateTime getExpiryDate() {
-        return expiryDate;
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
     }
 
+    /**
+     * Reads the expiry of tokens serialized before {@link #expiresAt} replaced it.
+     */
+    @JsonProperty(value = "expiryDate", access = JsonProperty.Access.WRITE_ONLY)
     public void setExpiryDate(ZonedDateTime expiryDate) {
-        this.expiryDate = expiryDate;
+        this.expiresAt = expiryDate == null ? 0 : expiryDate.toInstant().toEpochMilli();
     }
 
     @Override
@@ -39,20 +75,22 @@ public class Token {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Token token = (Token) o;
-        return Objects.equals(content, token.content) &&
-                Objects.equals(expiryDate, token.expiryDate);
+        return id == token.id &&
+                expiresAt == token.expiresAt &&
+                Objects.equals(content, token.content);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(content, expiryDate);
+        return Objects.hash(id, content, expiresAt);
     }
 
     @Override
     public String toString() {
         return "Token{" +
-                "content='" + content + '\'' +
-                ", expiryDate=" + expiryDate +
+                "id=" + id +
+                ", content='" + content + '\'' +
+                ", expiresAt=" + expiresAt +
                 '}';
     }
 
@@ -0,0 +1,38 @@
+package com.test.testassessment.model;
+
+/**
+ * One token of a batch to validate, read from {@code {"userId":...,"token":...}}. The token is the
+ * value that would be sent in the {@code Authorization} header. Without a user id, the token of
+ * any user is accepted.
+ */
+public class TokenCheck {
+
+    private String userId;
+
+    private String token;
+
+    public TokenCheck(String userId, String token) {
+        this.userId = userId;
+        this.token = token;
+    }
+
+    public TokenCheck() {
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+}
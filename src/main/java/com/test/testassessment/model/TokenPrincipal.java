@@ -0,0 +1,63 @@
+package com.test.testassessment.model;
+
+/**
+ * A token sent in the {@code Authorization} header that was decoded and found valid, in either
+ * format. It is kept decoded for the rest of the request, so revoking it does not decode it again.
+ */
+public class TokenPrincipal {
+
+    private final String userId; // the user the token was checked against, null when any user was accepted
+
+    private final Token token;
+
+    private final SignedToken signedToken;
+
+    private final String authorization;
+
+    private TokenPrincipal(String userId, Token token, SignedToken signedToken, String authorization) {
+        this.userId = userId;
+        this.token = token;
+        this.signedToken = signedToken;
+        this.authorization = authorization;
+    }
+
+    public static TokenPrincipal of(String userId, Token token, String authorization) {
+        return new TokenPrincipal(userId, token, null, authorization);
+    }
+
+    public static TokenPrincipal of(String userId, SignedToken signedToken, String authorization) {
+        return new TokenPrincipal(userId, null, signedToken, authorization);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the token if it is in the JSON format, null otherwise
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * @return the token if it is in the signed format, null otherwise
+     */
+    public SignedToken getSignedToken() {
+        return signedToken;
+    }
+
+    /**
+     * @return the header the token was decoded from
+     */
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    @Override
+    public String toString() {
+        // never the token itself
+        return "TokenPrincipal{userId='" + userId + "', format=" + (signedToken != null ? "signed" : "json") + '}';
+    }
+
+}
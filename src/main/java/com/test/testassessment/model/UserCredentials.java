@@ -0,0 +1,69 @@
+package com.test.testassessment.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The fields of a {@link User} needed to authenticate them. Read by a projection rather than
+ * as an entity, so it is never attached to a persistence context and is cheap to cache.
+ */
+public class UserCredentials implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+
+    private final String userName;
+
+    private final String salt;
+
+    private final String password; // hashed
+
+    public UserCredentials(String id, String userName, String salt, String password) {
+        this.id = id;
+        this.userName = userName;
+        this.salt = salt;
+        this.password = password;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getSalt() {
+        return salt;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserCredentials that = (UserCredentials) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(userName, that.userName) &&
+                Objects.equals(salt, that.salt) &&
+                Objects.equals(password, that.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, userName, salt, password);
+    }
+
+    @Override
+    public String toString() {
+        return "UserCredentials{" +
+                "id='" + id + '\'' +
+                ", userName='" + userName + '\'' +
+                '}';
+    }
+
+}
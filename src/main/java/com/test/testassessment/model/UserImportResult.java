@@ -0,0 +1,73 @@
+package com.test.testassessment.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Objects;
+
+/**
+ * The outcome of importing one record of a batch, identified by its position in the request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserImportResult {
+
+    private final int index;
+
+    private final String id;
+
+    private final String error;
+
+    private UserImportResult(int index, String id, String error) {
+        this.index = index;
+        this.id = id;
+        this.error = error;
+    }
+
+    public static UserImportResult success(int index, String id) {
+        return new UserImportResult(index, id, null);
+    }
+
+    public static UserImportResult failure(int index, String error) {
+        return new UserImportResult(index, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserImportResult that = (UserImportResult) o;
+        return index == that.index &&
+                Objects.equals(id, that.id) &&
+                Objects.equals(error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, id, error);
+    }
+
+    @Override
+    public String toString() {
+        return "UserImportResult{" +
+                "index=" + index +
+                ", id='" + id + '\'' +
+                ", error='" + error + '\'' +
+                '}';
+    }
+
+}
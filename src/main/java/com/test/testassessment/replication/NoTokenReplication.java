@@ -0,0 +1,30 @@
+package com.test.testassessment.replication;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps tokens to this instance, so clients must be sent back to the instance that issued their
+ * token. Picked with {@code test.assessment.token.replication=none}, the default.
+ */
+@Component
+@ConditionalOnProperty(name = TokenReplication.PROPERTY, havingValue = "none", matchIfMissing = true)
+public class NoTokenReplication implements TokenReplication {
+
+    @Override
+    public void issued(long tokenId, String userId, long expiresAt) {
+    }
+
+    @Override
+    public void revoked(long tokenId, String userId, long expiresAt) {
+    }
+
+    @Override
+    public void revokedAll(String userId, long expiresAt) {
+    }
+
+    @Override
+    public void revokedSigned(long tokenId, long expiresAt) {
+    }
+
+}
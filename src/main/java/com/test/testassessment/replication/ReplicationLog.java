@@ -0,0 +1,305 @@
+package com.test.testassessment.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The token events originated by one node, numbered from 1 in the order they happened, as a ring
+ * of parallel arrays that grows up to a fixed capacity. Each event stays relevant until an instant
+ * after which applying it would change nothing: the expiry of the token it issued, or of the
+ * tokens it revoked. {@link #trim(long)} drops events from the head once that instant passed, so
+ * as long as the capacity covers the events of one token lifetime, the log holds everything a node
+ * needs to catch up with its origin. Beyond that, the oldest events are overwritten and counted.
+ * <p>
+ * Every method holds the lock of the log. Events are copied out into a {@link Batch} before being
+ * written to a peer, so a slow peer never holds it.
+ */
+final class ReplicationLog {
+
+    static final byte ISSUED = 1;
+    static final byte REVOKED = 2;
+    static final byte REVOKED_ALL = 3;
+    static final byte REVOKED_SIGNED = 4;
+
+    private static final int INITIAL_LENGTH = 1024;
+    private final int capacity;
+    private byte[] types;
+    private long[] tokenIds;
+    private String[] userIds;
+    private long[] expiresAt; // epoch milliseconds after which the event is no longer relevant
+    private long[] timestamps; // epoch milliseconds the event happened at, on its origin
+    private int mask;
+    private long firstSeq = 1; // first event held
+    private long nextSeq = 1; // next event to append
+    private long overwritten;
+    private long lastOverwrittenSeq;
+    private int waiters;
+
+    ReplicationLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Replication log capacity must be positive, was " + capacity);
+        }
+        this.capacity = Integer.highestOneBit(capacity) < capacity ? Integer.highestOneBit(capacity) << 1 : capacity;
+        allocate(Math.min(INITIAL_LENGTH, this.capacity));
+    }
+
+    /**
+     * Appends an event originated by this node.
+     *
+     * @return its sequence number
+     */
+    synchronized long append(byte type, long tokenId, String userId, long expiresAt, long timestamp) {
+        long seq = nextSeq;
+        store(seq, type, tokenId, userId, expiresAt, timestamp);
+        return seq;
+    }
+
+    /**
+     * Appends an event received from its origin, unless it is already held or older.
+     *
+     * @return false if the event was seen before
+     */
+    synchronized boolean append(long seq, byte type, long tokenId, String userId, long expiresAt, long timestamp) {
+        if (seq < nextSeq) {
+            return false;
+        }
+        if (seq > nextSeq) {
+            // the origin dropped the events in between, start over from this one
+            firstSeq = seq;
+            nextSeq = seq;
+        }
+        store(seq, type, tokenId, userId, expiresAt, timestamp);
+        return true;
+    }
+
+    /**
+     * Copies the events following the given one into the batch, as many as it holds.
+     *
+     * @return the number of events copied. The first one is {@link Batch#getFirstSeq()}, which is
+     * later than asked for when the events in between were overwritten
+     */
+    synchronized int read(long afterSeq, Batch batch) {
+        long seq = Math.max(afterSeq + 1, firstSeq);
+        int count = (int) Math.min(batch.capacity(), nextSeq - seq);
+        batch.firstSeq = seq;
+        batch.size = Math.max(count, 0);
+        for (int i = 0; i < count; i++) {
+            int index = (int) (seq + i) & mask;
+            batch.types[i] = types[index];
+            batch.tokenIds[i] = tokenIds[index];
+            batch.userIds[i] = userIds[index];
+            batch.expiresAt[i] = expiresAt[index];
+            batch.timestamps[i] = timestamps[index];
+        }
+        return batch.size;
+    }
+
+    /**
+     * Waits until an event follows the given one.
+     *
+     * @return false if none did within the timeout
+     */
+    synchronized boolean awaitAfter(long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        waiters++;
+        try {
+            long remaining = timeoutMillis;
+            while (nextSeq - 1 <= seq && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return nextSeq - 1 > seq;
+        } finally {
+            waiters--;
+        }
+    }
+
+    /**
+     * @return the sequence number of the last event appended, 0 if there was none
+     */
+    synchronized long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * @return the instant the event following the given one happened at, or -1 if it is not held
+     */
+    synchronized long timestampAfter(long seq) {
+        long next = Math.max(seq + 1, firstSeq);
+        return next < nextSeq ? timestamps[(int) next & mask] : -1;
+    }
+
+    synchronized boolean isEmpty() {
+        return firstSeq == nextSeq;
+    }
+
+    /**
+     * @return the number of events overwritten before they stopped being relevant
+     */
+    synchronized long getOverwritten() {
+        return overwritten;
+    }
+
+    /**
+     * @return the sequence number of the last event overwritten, 0 if there was none
+     */
+    synchronized long getLastOverwrittenSeq() {
+        return lastOverwrittenSeq;
+    }
+
+    /**
+     * Drops the events at the head of the log that stopped being relevant before the given instant.
+     */
+    synchronized void trim(long now) {
+        while (firstSeq < nextSeq) {
+            int index = (int) firstSeq & mask;
+            if (expiresAt[index] >= now) {
+                break;
+            }
+            userIds[index] = null;
+            firstSeq++;
+        }
+    }
+
+    private void store(long seq, byte type, long tokenId, String userId, long expiry, long timestamp) {
+        if (seq - firstSeq == types.length) {
+            if (types.length < capacity) {
+                grow();
+            } else {
+                lastOverwrittenSeq = firstSeq++;
+                overwritten++;
+            }
+        }
+        int index = (int) seq & mask;
+        types[index] = type;
+        tokenIds[index] = tokenId;
+        userIds[index] = userId;
+        expiresAt[index] = expiry;
+        timestamps[index] = timestamp;
+        nextSeq = seq + 1;
+        if (waiters > 0) {
+            notifyAll();
+        }
+    }
+
+    private void grow() {
+        byte[] oldTypes = types;
+        long[] oldTokenIds = tokenIds;
+        String[] oldUserIds = userIds;
+        long[] oldExpiresAt = expiresAt;
+        long[] oldTimestamps = timestamps;
+        int oldMask = mask;
+        allocate(oldTypes.length * 2);
+        for (long seq = firstSeq; seq < nextSeq; seq++) {
+            int from = (int) seq & oldMask;
+            int to = (int) seq & mask;
+            types[to] = oldTypes[from];
+            tokenIds[to] = oldTokenIds[from];
+            userIds[to] = oldUserIds[from];
+            expiresAt[to] = oldExpiresAt[from];
+            timestamps[to] = oldTimestamps[from];
+        }
+    }
+
+    private void allocate(int length) {
+        types = new byte[length];
+        tokenIds = new long[length];
+        userIds = new String[length];
+        expiresAt = new long[length];
+        timestamps = new long[length];
+        mask = length - 1;
+    }
+
+    /**
+     * Consecutive events of one origin, as they are sent to a peer: the origin, the sequence
+     * number of the first event and the number of events, then each event.
+     */
+    static final class Batch {
+
+        private final byte[] types;
+        private final long[] tokenIds;
+        private final String[] userIds;
+        private final long[] expiresAt;
+        private final long[] timestamps;
+        private long firstSeq;
+        private int size;
+
+        Batch(int capacity) {
+            this.types = new byte[capacity];
+            this.tokenIds = new long[capacity];
+            this.userIds = new String[capacity];
+            this.expiresAt = new long[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        int capacity() {
+            return types.length;
+        }
+
+        long getFirstSeq() {
+            return firstSeq;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte getType(int i) {
+            return types[i];
+        }
+
+        long getTokenId(int i) {
+            return tokenIds[i];
+        }
+
+        String getUserId(int i) {
+            return userIds[i];
+        }
+
+        long getExpiresAt(int i) {
+            return expiresAt[i];
+        }
+
+        long getTimestamp(int i) {
+            return timestamps[i];
+        }
+
+        void write(DataOutputStream out, long origin) throws IOException {
+            out.writeLong(origin);
+            out.writeLong(firstSeq);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeByte(types[i]);
+                out.writeLong(tokenIds[i]);
+                out.writeUTF(userIds[i] == null ? "" : userIds[i]);
+                out.writeLong(expiresAt[i]);
+                out.writeLong(timestamps[i]);
+            }
+        }
+
+        /**
+         * @return the origin of the events read
+         */
+        long read(DataInputStream in) throws IOException {
+            long origin = in.readLong();
+            firstSeq = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > types.length) {
+                throw new IOException("Replication batch of " + count + " events, at most " + types.length + " are accepted");
+            }
+            for (int i = 0; i < count; i++) {
+                types[i] = in.readByte();
+                tokenIds[i] = in.readLong();
+                String userId = in.readUTF();
+                userIds[i] = userId.isEmpty() ? null : userId;
+                expiresAt[i] = in.readLong();
+                timestamps[i] = in.readLong();
+            }
+            size = count;
+            return origin;
+        }
+
+    }
+
+}
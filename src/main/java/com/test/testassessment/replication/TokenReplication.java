@@ -0,0 +1,44 @@
+package com.test.testassessment.replication;
+
+/**
+ * Told of every token issued or revoked on this instance, so the other instances behind the
+ * same load balancer can accept and reject the same tokens. The implementation is picked with
+ * {@code test.assessment.token.replication}: {@code none} (the default) or {@code peers}, see
+ * {@link TokenReplicator}.
+ * <p>
+ * Signed tokens are validated from their own contents, so only their revocations are replicated.
+ * Instances must share the signing key for signed tokens issued by one to validate on another.
+ */
+public interface TokenReplication {
+
+    String PROPERTY = "test.assessment.token.replication";
+
+    /**
+     * A session was opened for a token in the JSON format.
+     *
+     * @param expiresAt the expiry of the session in epoch milliseconds
+     */
+    void issued(long tokenId, String userId, long expiresAt);
+
+    /**
+     * A session was closed.
+     *
+     * @param expiresAt an instant, in epoch milliseconds, by which the session expires anyway
+     */
+    void revoked(long tokenId, String userId, long expiresAt);
+
+    /**
+     * Every token of the user was revoked, in either format.
+     *
+     * @param expiresAt the instant, in epoch milliseconds, by which every token issued so far expires
+     */
+    void revokedAll(String userId, long expiresAt);
+
+    /**
+     * A signed token was revoked.
+     *
+     * @param expiresAt the expiry of the token in epoch milliseconds
+     */
+    void revokedSigned(long tokenId, long expiresAt);
+
+}
@@ -0,0 +1,614 @@
+package com.test.testassessment.replication;
+
+import com.test.testassessment.security.ClusterAuthenticator;
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replicates tokens between instances over plain TCP. Picked with
+ * {@code test.assessment.token.replication=peers}, listening on
+ * {@code test.assessment.token.replication.port} of {@code test.assessment.token.replication.bind}
+ * and subscribing to every {@code host:port} of {@code test.assessment.token.replication.peers}.
+ * Every instance should list every other one.
+ * <p>
+ * The events are enough to forge a token, so both ends of a connection first prove they know
+ * {@code test.assessment.token.replication.secret}, see {@link ClusterAuthenticator}, and a
+ * subscriber that does not is sent nothing. Every frame that follows, batches and acknowledgements
+ * included, is signed with the key of the connection, and the connection is dropped on the first
+ * that does not check out.
+ * <p>
+ * Each instance numbers the events it originates in a {@link ReplicationLog}. A subscriber sends
+ * the last event it applied from every origin it knows of, and is sent what follows: first the
+ * events of other origins the publisher holds, which brings back a restarted instance's own
+ * tokens as well as those issued while it was away, then the publisher's own events as they
+ * happen. Events are written in batches of up to {@code test.assessment.token.replication.batch.size},
+ * and only flushed once the publisher has nothing more to send, so a busy publisher sends few,
+ * large writes. Every publisher reads the log at its own pace, so a slow or stalled peer is held
+ * back by TCP flow control without slowing the others or the requests appending to the log. It
+ * holds up to {@code test.assessment.token.replication.log.capacity} events, which should cover
+ * the tokens issued in one token lifetime.
+ * <p>
+ * Events of one origin are applied in order and at most once, straight to the {@link TokenStore}
+ * and {@link RevocationList}. Events of different origins may arrive in any order, so sessions
+ * revoked through another instance are remembered until they expire, and a session whose
+ * issue arrives after its revocation is closed again. Revoking every token of a user only closes
+ * the sessions that expire no later than a token issued at the revocation would, so logins made
+ * since through other instances survive it. That relies on the clocks of the instances being in
+ * sync to within a token lifetime's precision.
+ * <p>
+ * Reports how far behind its subscribers are by {@code token.replication.lag.events} and
+ * {@code token.replication.lag}, and how long events took to arrive by the
+ * {@code token.replication.delay} timer.
+ */
+@Component
+@ConditionalOnProperty(name = TokenReplication.PROPERTY, havingValue = "peers")
+public class TokenReplicator implements TokenReplication, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenReplicator.class);
+    private static final int MAGIC = 0x544B5250; // TKRP
+    private static final byte BATCH = 1;
+    private static final byte HEARTBEAT = 2;
+    private static final byte ACK = 3;
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+    private final TokenStore tokenStore;
+    private final RevocationList revocationList;
+    private final Clock clock;
+    private final int batchSize;
+    private final int logCapacity;
+    private final long reconnectMillis;
+    private final ClusterAuthenticator authenticator;
+    private final ReplicationLog events;
+    private final Map<Long, ReplicationLog> mirrors = new ConcurrentHashMap<>(); // events received, by origin
+    private final Map<Long, Long> revokedTokens = new ConcurrentHashMap<>(); // token id to expiry
+    private final Map<String, Long> revokedUsers = new ConcurrentHashMap<>(); // user id to the expiry of their last revoked token
+    private final Set<Publisher> publishers = ConcurrentHashMap.newKeySet();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder gaps = new LongAdder();
+    private final Timer delay;
+    private volatile boolean closed;
+
+    public TokenReplicator(TokenStore tokenStore,
+                           RevocationList revocationList,
+                           Clock clock,
+                           MeterRegistry registry,
+                           @Value("${test.assessment.token.replication.port:7070}") int port,
+                           @Value("${test.assessment.token.replication.bind:localhost}") String bind,
+                           @Value("${test.assessment.token.replication.peers:}") String peers,
+                           @Value("${test.assessment.token.replication.secret:}") String secret,
+                           @Value("${test.assessment.token.replication.batch.size:512}") int batchSize,
+                           @Value("${test.assessment.token.replication.log.capacity:1048576}") int logCapacity,
+                           @Value("${test.assessment.token.replication.reconnect.millis:1000}") long reconnectMillis) {
+        this.tokenStore = tokenStore;
+        this.revocationList = revocationList;
+        this.clock = clock;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        this.logCapacity = logCapacity;
+        this.reconnectMillis = reconnectMillis;
+        this.authenticator = new ClusterAuthenticator(secret, "test.assessment.token.replication.secret");
+        this.events = new ReplicationLog(logCapacity);
+        this.delay = Timer.builder("token.replication.delay")
+                .description("Time from an event on its origin to its application here, for the last event of each batch")
+                .register(registry);
+        bindMetrics(registry);
+        try {
+            this.serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(bind, port), 64);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen for token replication on " + bind + ":" + port, e);
+        }
+        this.acceptor = new Thread(this::accept, "token-replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Replicating tokens on {} as node {}", serverSocket.getLocalSocketAddress(), Long.toHexString(nodeId));
+        for (String peer : peers.split(",")) {
+            if (!peer.trim().isEmpty()) {
+                addPeer(peer.trim());
+            }
+        }
+    }
+
+    /**
+     * @return the port listened on, which is picked by the system when 0 was configured
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Subscribes to the events of another instance, retrying until it is reachable.
+     *
+     * @param peer its replication address, as {@code host:port}
+     */
+    public void addPeer(String peer) {
+        int separator = peer.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Replication peers are host:port, was " + peer);
+        }
+        Subscriber subscriber = new Subscriber(peer, peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1)));
+        subscribers.add(subscriber);
+        Thread thread = new Thread(subscriber, "token-replication-" + peer);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void issued(long tokenId, String userId, long expiresAt) {
+        events.append(ReplicationLog.ISSUED, tokenId, userId, expiresAt, clock.millis());
+    }
+
+    @Override
+    public void revoked(long tokenId, String userId, long expiresAt) {
+        revokedTokens.merge(tokenId, expiresAt, Math::max);
+        events.append(ReplicationLog.REVOKED, tokenId, userId, expiresAt, clock.millis());
+    }
+
+    @Override
+    public void revokedAll(String userId, long expiresAt) {
+        revokedUsers.merge(userId, expiresAt, Math::max);
+        events.append(ReplicationLog.REVOKED_ALL, 0, userId, expiresAt, clock.millis());
+    }
+
+    @Override
+    public void revokedSigned(long tokenId, long expiresAt) {
+        events.append(ReplicationLog.REVOKED_SIGNED, tokenId, null, expiresAt, clock.millis());
+    }
+
+    /**
+     * Forgets the events and revocations that no longer matter, and the origins that sent nothing
+     * that still does.
+     */
+    @Scheduled(fixedDelayString = "${test.assessment.token.sweep.interval.millis:1000}")
+    public void sweep() {
+        long now = clock.millis();
+        events.trim(now);
+        for (Map.Entry<Long, ReplicationLog> mirror : mirrors.entrySet()) {
+            mirror.getValue().trim(now);
+            if (mirror.getValue().isEmpty()) {
+                // any event it was still sent would be expired, and skipped as such
+                mirrors.remove(mirror.getKey(), mirror.getValue());
+            }
+        }
+        revokedTokens.values().removeIf(expiresAt -> expiresAt < now);
+        revokedUsers.values().removeIf(expiresAt -> expiresAt < now);
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        for (Publisher publisher : publishers) {
+            publisher.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Could not accept a token replication connection", e);
+                }
+                continue;
+            }
+            Publisher publisher = new Publisher(socket);
+            publishers.add(publisher);
+            Thread thread = new Thread(publisher, "token-replication-publisher-" + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Applies events received from their origin, skipping those applied before and those that
+     * no longer matter.
+     */
+    private void apply(long origin, ReplicationLog.Batch batch) {
+        ReplicationLog mirror = mirrors.computeIfAbsent(origin, id -> new ReplicationLog(logCapacity));
+        long now = clock.millis();
+        synchronized (mirror) {
+            for (int i = 0; i < batch.size(); i++) {
+                long expiresAt = batch.getExpiresAt(i);
+                if (!mirror.append(batch.getFirstSeq() + i, batch.getType(i), batch.getTokenId(i), batch.getUserId(i), expiresAt, batch.getTimestamp(i))
+                        || expiresAt < now) {
+                    skipped.increment();
+                    continue;
+                }
+                apply(batch.getType(i), batch.getTokenId(i), batch.getUserId(i), expiresAt);
+                applied.increment();
+            }
+        }
+        if (batch.size() > 0) {
+            delay.record(Math.max(0, now - batch.getTimestamp(batch.size() - 1)), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void apply(byte type, long tokenId, String userId, long expiresAt) {
+        switch (type) {
+            case ReplicationLog.ISSUED:
+                // checked after opening the session, so a revocation applied meanwhile is not missed
+                if (tokenStore.put(tokenId, userId, expiresAt) && isRevoked(tokenId, userId, expiresAt)) {
+                    tokenStore.remove(tokenId, userId);
+                }
+                break;
+            case ReplicationLog.REVOKED:
+                revokedTokens.merge(tokenId, expiresAt, Math::max);
+                tokenStore.remove(tokenId, userId);
+                break;
+            case ReplicationLog.REVOKED_ALL:
+                revokedUsers.merge(userId, expiresAt, Math::max);
+                tokenStore.removeAll(userId, expiresAt);
+                revocationList.revokeAll(userId, TimeUnit.MILLISECONDS.toSeconds(expiresAt));
+                break;
+            case ReplicationLog.REVOKED_SIGNED:
+                revocationList.revoke(tokenId, TimeUnit.MILLISECONDS.toSeconds(expiresAt));
+                break;
+            default:
+                log.warn("Skipping a token replication event of unknown type {}", type);
+        }
+    }
+
+    private boolean isRevoked(long tokenId, String userId, long expiresAt) {
+        if (revokedTokens.containsKey(tokenId)) {
+            return true;
+        }
+        Long revokedUntil = revokedUsers.get(userId);
+        return revokedUntil != null && expiresAt <= revokedUntil;
+    }
+
+    private void bindMetrics(MeterRegistry registry) {
+        Gauge.builder("token.replication.lag.events", this, TokenReplicator::getLagEvents)
+                .description("Events originated here that the furthest behind subscriber has not acknowledged")
+                .register(registry);
+        Gauge.builder("token.replication.lag", this, TokenReplicator::getLagMillis)
+                .description("Age of the oldest event originated here that a subscriber has not acknowledged")
+                .baseUnit("milliseconds")
+                .register(registry);
+        Gauge.builder("token.replication.subscribers", publishers, Set::size)
+                .description("Instances subscribed to the events originated here")
+                .register(registry);
+        Gauge.builder("token.replication.peers.connected", subscribers, list -> list.stream().filter(subscriber -> subscriber.connected).count())
+                .description("Instances whose events are being received")
+                .register(registry);
+        FunctionCounter.builder("token.replication.events.sent", sent, LongAdder::sum)
+                .description("Events written to subscribers")
+                .register(registry);
+        FunctionCounter.builder("token.replication.events.applied", applied, LongAdder::sum)
+                .description("Events received and applied")
+                .register(registry);
+        FunctionCounter.builder("token.replication.events.skipped", skipped, LongAdder::sum)
+                .description("Events received that were applied before or no longer mattered")
+                .register(registry);
+        FunctionCounter.builder("token.replication.gaps", gaps, LongAdder::sum)
+                .description("Times a subscriber asked for events that were already overwritten")
+                .register(registry);
+        FunctionCounter.builder("token.replication.log.overwritten", events, ReplicationLog::getOverwritten)
+                .description("Events overwritten while still relevant because the log was full")
+                .register(registry);
+    }
+
+    private double getLagEvents() {
+        long last = events.lastSeq();
+        long lag = 0;
+        for (Publisher publisher : publishers) {
+            lag = Math.max(lag, last - publisher.acked);
+        }
+        return lag;
+    }
+
+    private double getLagMillis() {
+        long now = clock.millis();
+        long lag = 0;
+        for (Publisher publisher : publishers) {
+            long timestamp = events.timestampAfter(publisher.acked);
+            if (timestamp >= 0) {
+                lag = Math.max(lag, now - timestamp);
+            }
+        }
+        return lag;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Could not close a token replication socket", e);
+        }
+    }
+
+    /**
+     * Sends events to one subscriber, on a thread of its own.
+     */
+    private final class Publisher implements Runnable {
+
+        private final Socket socket;
+        private final ReplicationLog.Batch batch = new ReplicationLog.Batch(batchSize);
+        private ClusterAuthenticator.Session session;
+        private volatile long acked; // last own event the subscriber applied
+
+        Publisher(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream socketOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+                if (socketIn.readInt() != MAGIC) {
+                    log.warn("Closing a token replication connection from {}, it is not a replication peer", socket.getRemoteSocketAddress());
+                    return;
+                }
+                try {
+                    session = authenticator.accept(MAGIC, socketIn, socketOut);
+                } catch (IOException e) {
+                    log.warn("Closing a token replication connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                    return;
+                }
+                DataInputStream in = session.in();
+                DataOutputStream out = session.out();
+                long subscriberId = in.readLong();
+                Map<Long, Long> applied = new HashMap<>();
+                for (int count = in.readInt(); count > 0; count--) {
+                    applied.put(in.readLong(), in.readLong());
+                }
+                session.checkFrame();
+                out.writeInt(MAGIC);
+                out.writeLong(nodeId);
+                session.endFrame();
+                out.flush();
+                if (subscriberId == nodeId) {
+                    return;
+                }
+                acked = applied.getOrDefault(nodeId, 0L);
+                log.info("Node {} at {} subscribed to token events after {}", Long.toHexString(subscriberId), socket.getRemoteSocketAddress(), acked);
+                for (Map.Entry<Long, ReplicationLog> mirror : mirrors.entrySet()) {
+                    if (mirror.getKey() != subscriberId) {
+                        long lastSeq = mirror.getValue().lastSeq();
+                        long seq = applied.getOrDefault(mirror.getKey(), 0L);
+                        while (seq < lastSeq) {
+                            seq = send(out, mirror.getKey(), mirror.getValue(), seq);
+                        }
+                    }
+                }
+                out.flush();
+                publish(in, out);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.info("Token replication subscriber at {} disconnected: {}", socket.getRemoteSocketAddress(), e.toString());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                publishers.remove(this);
+                closeQuietly(socket);
+            }
+        }
+
+        /**
+         * Sends the events originated here as they are appended, until the connection closes.
+         */
+        private void publish(DataInputStream in, DataOutputStream out) throws IOException, InterruptedException {
+            long seq = acked;
+            while (!closed) {
+                readAcks(in);
+                if (events.lastSeq() > seq) {
+                    seq = send(out, nodeId, events, seq);
+                    if (events.lastSeq() <= seq) {
+                        out.flush();
+                    }
+                } else if (!events.awaitAfter(seq, HEARTBEAT_MILLIS)) {
+                    out.writeByte(HEARTBEAT);
+                    session.endFrame();
+                    out.flush();
+                }
+            }
+        }
+
+        /**
+         * @return the last event sent
+         */
+        private long send(DataOutputStream out, long origin, ReplicationLog source, long afterSeq) throws IOException {
+            int count = source.read(afterSeq, batch);
+            if (count == 0) {
+                return source.lastSeq();
+            }
+            if (afterSeq < source.getLastOverwrittenSeq()) {
+                gaps.increment();
+                log.warn("Events {} to {} of node {} were overwritten before reaching {}", afterSeq + 1, batch.getFirstSeq() - 1,
+                        Long.toHexString(origin), socket.getRemoteSocketAddress());
+            }
+            out.writeByte(BATCH);
+            batch.write(out, origin);
+            session.endFrame();
+            sent.add(count);
+            return batch.getFirstSeq() + count - 1;
+        }
+
+        private void readAcks(DataInputStream in) throws IOException {
+            while (in.available() > 0) {
+                if (in.readByte() != ACK) {
+                    throw new IOException("Unexpected frame from a token replication subscriber");
+                }
+                long seq = in.readLong();
+                session.checkFrame();
+                acked = seq;
+            }
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+
+    }
+
+    /**
+     * Receives the events of one peer, on a thread of its own, reconnecting whenever the
+     * connection is lost.
+     */
+    private final class Subscriber implements Runnable {
+
+        private final String peer;
+        private final String host;
+        private final int port;
+        private final ReplicationLog.Batch batch = new ReplicationLog.Batch(MAX_BATCH_SIZE);
+        private volatile Socket socket;
+        private volatile boolean connected;
+        private volatile boolean stopped;
+
+        Subscriber(String peer, String host, int port) {
+            this.peer = peer;
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public void run() {
+            boolean warned = false;
+            while (!closed && !stopped) {
+                try {
+                    subscribe();
+                    warned = false;
+                } catch (IOException e) {
+                    if (!closed && (connected || !warned)) {
+                        log.info("Could not receive token events from {}, retrying every {} ms: {}", peer, reconnectMillis, e.toString());
+                        warned = true;
+                    }
+                } finally {
+                    connected = false;
+                    Socket current = socket;
+                    if (current != null) {
+                        closeQuietly(current);
+                    }
+                }
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void subscribe() throws IOException {
+            Socket current = new Socket();
+            socket = current;
+            if (closed) {
+                return;
+            }
+            current.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            current.setTcpNoDelay(true);
+            current.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream socketIn = new DataInputStream(new BufferedInputStream(current.getInputStream(), BUFFER_BYTES));
+            DataOutputStream socketOut = new DataOutputStream(new BufferedOutputStream(current.getOutputStream()));
+            socketOut.writeInt(MAGIC);
+            ClusterAuthenticator.Session session = authenticator.connect(MAGIC, socketIn, socketOut);
+            DataInputStream in = session.in();
+            DataOutputStream out = session.out();
+            out.writeLong(nodeId);
+            Map<Long, Long> lastApplied = new HashMap<>();
+            for (Map.Entry<Long, ReplicationLog> mirror : mirrors.entrySet()) {
+                lastApplied.put(mirror.getKey(), mirror.getValue().lastSeq());
+            }
+            out.writeInt(lastApplied.size());
+            for (Map.Entry<Long, Long> entry : lastApplied.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            session.endFrame();
+            out.flush();
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a token replication peer");
+            }
+            long publisherId = in.readLong();
+            session.checkFrame();
+            if (publisherId == nodeId) {
+                log.warn("Not replicating tokens from {}, it is this instance", peer);
+                stopped = true;
+                return;
+            }
+            connected = true;
+            log.info("Receiving token events from node {} at {}", Long.toHexString(publisherId), peer);
+            long ackedSeq = -1;
+            while (!closed) {
+                byte frame = in.readByte();
+                if (frame == BATCH) {
+                    long origin = batch.read(in);
+                    session.checkFrame();
+                    apply(origin, batch);
+                } else if (frame == HEARTBEAT) {
+                    session.checkFrame();
+                } else {
+                    throw new IOException("Unexpected frame " + frame + " from a token replication peer");
+                }
+                if (in.available() == 0) {
+                    ReplicationLog mirror = mirrors.get(publisherId);
+                    long seq = mirror == null ? 0 : mirror.lastSeq();
+                    if (seq != ackedSeq) {
+                        out.writeByte(ACK);
+                        out.writeLong(seq);
+                        session.endFrame();
+                        out.flush();
+                        ackedSeq = seq;
+                    }
+                }
+            }
+        }
+
+        void close() {
+            Socket current = socket;
+            if (current != null) {
+                closeQuietly(current);
+            }
+        }
+
+    }
+
+}
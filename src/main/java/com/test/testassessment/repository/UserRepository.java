@@ -1,7 +1,64 @@
 package com.test.testassessment.repository;
 
 import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserCredentials;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+public interface UserRepository extends JpaRepository<User, String>, UserRepositoryCustom {
+
+    String CREDENTIALS_CACHE = "userCredentials";
+
+    /**
+     * Read-through cached lookup of what authentication needs. Entries are evicted by
+     * {@link #save(User)}, so a changed password or user name is never served from the cache.
+     * Unknown ids are not cached.
+     */
+    @Cacheable(cacheNames = CREDENTIALS_CACHE, unless = "#result == null")
+    @Query("select new com.test.testassessment.model.UserCredentials(u.id, u.userName, u.salt, u.password) from User u where u.id = :id")
+    Optional<UserCredentials> findCredentialsById(@Param("id") String id);
+
+    @Override
+    @CacheEvict(cacheNames = CREDENTIALS_CACHE, key = "#p0.id")
+    <S extends User> S save(S user);
+
+    /**
+     * Replaces the stored password hash, as when it is rehashed with the configured algorithm.
+     */
+    @Transactional
+    @Modifying
+    @CacheEvict(cacheNames = CREDENTIALS_CACHE, key = "#p0")
+    @Query("update User u set u.password = :password where u.id = :id")
+    int updatePassword(@Param("id") String id, @Param("password") String password);
+
+    /**
+     * Keyset pagination: returns the users whose id sorts after the given one, so every page costs
+     * the same however deep into the table it is. Pass an empty id for the first page.
+     */
+    List<User> findByIdGreaterThanOrderByIdAsc(String id, Pageable pageable);
+
+    /**
+     * Streams every user, ordered by id. The users are built by a constructor expression, so they
+     * are not attached to the persistence context and can be garbage collected as soon as they
+     * have been consumed. Must be called within a transaction and the stream must be closed.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new com.test.testassessment.model.User(u.id, u.creationDate, u.lastUpdated, u.fullName, u.userName, u.password, u.salt) " +
+            "from User u order by u.id")
+    Stream<User> streamAllOrderedById();
 
-public interface UserRepository extends JpaRepository<User, String> {
 }
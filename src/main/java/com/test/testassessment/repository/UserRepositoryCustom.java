@@ -0,0 +1,16 @@
+package com.test.testassessment.repository;
+
+import com.test.testassessment.model.User;
+
+import java.util.List;
+
+public interface UserRepositoryCustom {
+
+    /**
+     * Inserts new users in a single transaction. Unlike {@code saveAll}, which merges entities
+     * with an assigned id and so selects each one first, this only persists, letting Hibernate
+     * send the inserts in JDBC batches. Either every user is inserted or none is.
+     */
+    void insertAll(List<User> users);
+
+}
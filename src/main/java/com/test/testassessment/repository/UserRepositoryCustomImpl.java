@@ -0,0 +1,25 @@
+package com.test.testassessment.repository;
+
+import com.test.testassessment.model.User;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public void insertAll(List<User> users) {
+        for (User user : users) {
+            entityManager.persist(user);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+}
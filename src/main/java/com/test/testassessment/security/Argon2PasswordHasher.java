@@ -0,0 +1,85 @@
+package com.test.testassessment.security;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Argon2id version 1.3, as provided by Bouncy Castle. Hashes are written as
+ * {@code $argon2id$m=<memory in KiB>,t=<iterations>,p=<parallelism>$<hash>}.
+ */
+@Component
+public class Argon2PasswordHasher implements PasswordHasher {
+
+    public static final String ALGORITHM = "argon2id";
+    private static final int HASH_LENGTH = 32;
+    private final int memoryKib;
+    private final int iterations;
+    private final int parallelism;
+
+    public Argon2PasswordHasher(@Value("${test.assessment.password.argon2.memory.kib:19456}") int memoryKib,
+                                @Value("${test.assessment.password.argon2.iterations:2}") int iterations,
+                                @Value("${test.assessment.password.argon2.parallelism:1}") int parallelism) {
+        if (memoryKib <= 0 || iterations <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Argon2 memory, iterations and parallelism must be positive");
+        }
+        this.memoryKib = memoryKib;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String hash(String password, byte[] salt) {
+        return EncodedPasswordHash.format(ALGORITHM, "m=" + memoryKib + ",t=" + iterations + ",p=" + parallelism,
+                derive(password, salt, memoryKib, iterations, parallelism));
+    }
+
+    @Override
+    public boolean matches(String password, byte[] salt, String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        if (encoded == null) {
+            return false;
+        }
+        int m = encoded.getParameter("m");
+        int t = encoded.getParameter("t");
+        int p = encoded.getParameter("p");
+        if (m < 0 || t < 0 || p < 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(encoded.getHash(), derive(password, salt, m, t, p));
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        return encoded == null
+                || encoded.getParameter("m") != memoryKib
+                || encoded.getParameter("t") != iterations
+                || encoded.getParameter("p") != parallelism;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int memoryKib, int iterations, int parallelism) {
+        Argon2Parameters parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memoryKib)
+                .withIterations(iterations)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build();
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+        byte[] hash = new byte[HASH_LENGTH];
+        generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), hash);
+        return hash;
+    }
+
+}
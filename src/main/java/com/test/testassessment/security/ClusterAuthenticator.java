@@ -0,0 +1,247 @@
+package com.test.testassessment.security;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Proves to each other that both ends of a connection between instances know a shared secret,
+ * before anything else is exchanged. The accepting side sends a random challenge, the connecting
+ * side answers with the HMAC-SHA256 of it and a challenge of its own, which the accepting side
+ * answers in turn:
+ * <pre>
+ * accepting  -> connecting: challenge A (16 bytes)
+ * connecting -> accepting : challenge B (16 bytes) | HMAC(secret, 'C' | magic | A | B)
+ * accepting  -> connecting: HMAC(secret, 'A' | magic | B | A)
+ * </pre>
+ * The magic of the protocol is part of what is signed, so an answer for one protocol is no use
+ * in another, and so is the side, so an answer cannot be reflected back to its sender.
+ * <p>
+ * Both ends then derive a key for the connection, {@code HMAC(secret, 'S' | magic | A | B)}, which
+ * a protocol can use to sign what follows frame by frame, see {@link Session}. Nothing is
+ * encrypted.
+ */
+public final class ClusterAuthenticator {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+    private static final int CHALLENGE_LENGTH = 16;
+    private static final int TAG_LENGTH = 32;
+    private static final byte ACCEPTING = 'A';
+    private static final byte CONNECTING = 'C';
+    private static final byte SESSION = 'S';
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param encodedSecret the Base64 encoded secret, of at least 32 bytes
+     * @param property      the property it was configured by, to name when it is missing
+     */
+    public ClusterAuthenticator(String encodedSecret, String property) {
+        if (StringUtils.isEmpty(encodedSecret)) {
+            throw new IllegalArgumentException(property + " must be set to a secret shared by every instance");
+        }
+        byte[] keyBytes = Base64.getDecoder().decode(encodedSecret);
+        if (keyBytes.length < KEY_LENGTH) {
+            throw new IllegalArgumentException(property + " must be at least " + KEY_LENGTH + " bytes long");
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+    }
+
+    /**
+     * Authenticates the connecting side, then itself to it. Run by the accepting side once it has
+     * read the magic.
+     *
+     * @return the session of the connection, reading from {@code in} and writing to {@code out}
+     * @throws IOException if the other side does not know the secret
+     */
+    public Session accept(int magic, DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = newChallenge();
+        out.write(challenge);
+        out.flush();
+        byte[] theirChallenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(theirChallenge);
+        byte[] tag = new byte[TAG_LENGTH];
+        in.readFully(tag);
+        if (!MessageDigest.isEqual(tag, tag(CONNECTING, magic, challenge, theirChallenge))) {
+            throw new IOException("The instance connecting does not know the cluster secret");
+        }
+        out.write(tag(ACCEPTING, magic, theirChallenge, challenge));
+        out.flush();
+        return new Session(tag(SESSION, magic, challenge, theirChallenge), ACCEPTING, in, out);
+    }
+
+    /**
+     * Authenticates itself to the accepting side, then it. Run by the connecting side once it has
+     * written the magic.
+     *
+     * @return the session of the connection, reading from {@code in} and writing to {@code out}
+     * @throws IOException if the other side does not know the secret
+     */
+    public Session connect(int magic, DataInputStream in, DataOutputStream out) throws IOException {
+        out.flush();
+        byte[] theirChallenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(theirChallenge);
+        byte[] challenge = newChallenge();
+        out.write(challenge);
+        out.write(tag(CONNECTING, magic, theirChallenge, challenge));
+        out.flush();
+        byte[] tag = new byte[TAG_LENGTH];
+        in.readFully(tag);
+        if (!MessageDigest.isEqual(tag, tag(ACCEPTING, magic, challenge, theirChallenge))) {
+            throw new IOException("The instance connected to does not know the cluster secret");
+        }
+        return new Session(tag(SESSION, magic, theirChallenge, challenge), CONNECTING, in, out);
+    }
+
+    private byte[] newChallenge() {
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        random.nextBytes(challenge);
+        return challenge;
+    }
+
+    private byte[] tag(byte side, int magic, byte[] challenge, byte[] otherChallenge) {
+        Mac mac = newMac(key);
+        mac.update(side);
+        mac.update(new byte[]{(byte) (magic >>> 24), (byte) (magic >>> 16), (byte) (magic >>> 8), (byte) magic});
+        mac.update(challenge);
+        mac.update(otherChallenge);
+        return mac.doFinal();
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialise " + ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Signs the frames sent over an authenticated connection and checks those received. A frame
+     * is what is written to {@link #out()} between two calls to {@link #endFrame()}, followed by
+     * the HMAC-SHA256 of it, the side that sent it and how many frames that side sent before, under
+     * the key of the connection. So frames cannot be altered, dropped, replayed, reflected or
+     * carried over from another connection without the other side noticing. Not thread safe.
+     */
+    public static final class Session {
+
+        private final Mac sending;
+        private final Mac receiving;
+        private final byte side;
+        private final byte otherSide;
+        private final DataInputStream rawIn;
+        private final DataOutputStream rawOut;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final byte[] tag = new byte[TAG_LENGTH];
+        private long sent;
+        private long received;
+
+        private Session(byte[] sessionKey, byte side, DataInputStream rawIn, DataOutputStream rawOut) {
+            SecretKeySpec key = new SecretKeySpec(sessionKey, ALGORITHM);
+            this.sending = newMac(key);
+            this.receiving = newMac(key);
+            this.side = side;
+            this.otherSide = side == ACCEPTING ? CONNECTING : ACCEPTING;
+            this.rawIn = rawIn;
+            this.rawOut = rawOut;
+            this.in = new DataInputStream(new FilterInputStream(rawIn) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        receiving.update((byte) b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        receiving.update(b, off, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) {
+                    throw new UnsupportedOperationException("Signed frames are read whole");
+                }
+
+            });
+            this.out = new DataOutputStream(new FilterOutputStream(rawOut) {
+
+                @Override
+                public void write(int b) throws IOException {
+                    sending.update((byte) b);
+                    rawOut.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    sending.update(b, off, len);
+                    rawOut.write(b, off, len);
+                }
+
+            });
+        }
+
+        /**
+         * @return where frames are read from, checked by {@link #checkFrame()}
+         */
+        public DataInputStream in() {
+            return in;
+        }
+
+        /**
+         * @return where frames are written to, signed by {@link #endFrame()}
+         */
+        public DataOutputStream out() {
+            return out;
+        }
+
+        /**
+         * Signs what was written since the last frame. Does not flush.
+         */
+        public void endFrame() throws IOException {
+            rawOut.write(frameTag(sending, side, sent++));
+        }
+
+        /**
+         * Checks the signature of what was read since the last frame.
+         *
+         * @throws IOException if it was not sent as is, in this order, by the other side
+         */
+        public void checkFrame() throws IOException {
+            rawIn.readFully(tag);
+            if (!MessageDigest.isEqual(tag, frameTag(receiving, otherSide, received++))) {
+                throw new IOException("A frame received was not signed by the other side of the connection");
+            }
+        }
+
+        private static byte[] frameTag(Mac mac, byte side, long count) {
+            mac.update(side);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mac.update((byte) (count >>> shift));
+            }
+            return mac.doFinal();
+        }
+
+    }
+
+}
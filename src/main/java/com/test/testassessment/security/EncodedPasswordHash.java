@@ -0,0 +1,84 @@
+package com.test.testassessment.security;
+
+import java.util.Base64;
+
+/**
+ * Reads and writes the {@code $algorithm$name=value,...$hash} format shared by the
+ * {@link PasswordHasher} implementations.
+ */
+final class EncodedPasswordHash {
+
+    static final char SEPARATOR = '$';
+    private static final Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getDecoder();
+    private final String algorithm;
+    private final String parameters;
+    private final byte[] hash;
+
+    private EncodedPasswordHash(String algorithm, String parameters, byte[] hash) {
+        this.algorithm = algorithm;
+        this.parameters = parameters;
+        this.hash = hash;
+    }
+
+    static String format(String algorithm, String parameters, byte[] hash) {
+        return SEPARATOR + algorithm + SEPARATOR + parameters + SEPARATOR + encoder.encodeToString(hash);
+    }
+
+    /**
+     * @return the algorithm name of an encoded hash, or null if the hash is in the legacy format
+     */
+    static String algorithmOf(String encoded) {
+        if (encoded == null || encoded.isEmpty() || encoded.charAt(0) != SEPARATOR) {
+            return null;
+        }
+        int end = encoded.indexOf(SEPARATOR, 1);
+        return end < 0 ? null : encoded.substring(1, end);
+    }
+
+    /**
+     * @return the parsed hash, or null if it is malformed or was produced by another algorithm
+     */
+    static EncodedPasswordHash parse(String encoded, String expectedAlgorithm) {
+        if (!expectedAlgorithm.equals(algorithmOf(encoded))) {
+            return null;
+        }
+        int parametersStart = expectedAlgorithm.length() + 2;
+        int hashStart = encoded.indexOf(SEPARATOR, parametersStart) + 1;
+        if (hashStart == 0) {
+            return null;
+        }
+        try {
+            return new EncodedPasswordHash(expectedAlgorithm, encoded.substring(parametersStart, hashStart - 1), decoder.decode(encoded.substring(hashStart)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the value of the named parameter, or -1 if it is missing or not a positive number
+     */
+    int getParameter(String name) {
+        for (String parameter : parameters.split(",")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.regionMatches(0, name, 0, equals) && name.length() == equals) {
+                try {
+                    int value = Integer.parseInt(parameter.substring(equals + 1));
+                    return value > 0 ? value : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.test.testassessment.security;
+
+/**
+ * A password hashing algorithm. Hashes are self-describing: apart from the legacy
+ * {@link Sha256PasswordHasher} format, they are written as
+ * <pre>
+ * $algorithm$name=value,...$hash
+ * </pre>
+ * with the hash Base64 encoded, so a stored hash can be verified with the parameters it was
+ * created with after the configured ones change, and rehashed when they differ.
+ */
+public interface PasswordHasher {
+
+    /**
+     * The name written at the start of every hash this hasher produces.
+     */
+    String getAlgorithm();
+
+    /**
+     * Hashes the password with the configured parameters.
+     */
+    String hash(String password, byte[] salt);
+
+    /**
+     * Checks the password against a hash produced by this hasher, whatever its parameters.
+     */
+    boolean matches(String password, byte[] salt, String hash);
+
+    /**
+     * Whether the hash was produced with parameters other than the configured ones.
+     */
+    boolean needsRehash(String hash);
+
+    /**
+     * Whether hashing is costly enough to be kept off the request threads.
+     */
+    default boolean isExpensive() {
+        return true;
+    }
+
+}
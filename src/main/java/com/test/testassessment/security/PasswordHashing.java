@@ -0,0 +1,236 @@
+package com.test.testassessment.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes passwords with the configured {@link PasswordHasher} and verifies stored hashes with
+ * the hasher named in them.
+ * <p>
+ * Expensive hashes run on a fixed pool of hashing threads with a bounded queue. When the queue
+ * is full, a {@link RejectedExecutionException} is thrown straight away, so a flood of logins
+ * is shed instead of tying up every request thread in hashing.
+ * <p>
+ * Every hash is timed by the {@code password.hashing} timer, tagged with its algorithm and
+ * whether it hashed a new password or verified a stored one. The hashing threads and their
+ * queue are reported by the {@code executor} metrics named {@code password-hashing}.
+ */
+@Component
+public class PasswordHashing implements DisposableBean {
+
+    private static final int SALT_LENGTH = 32;
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashing.class);
+    private static final ThreadLocal<byte[]> saltBuffers = ThreadLocal.withInitial(() -> new byte[SALT_LENGTH]);
+    private static final String METRIC_NAME = "password.hashing";
+    private final Map<String, PasswordHasher> hashers = new HashMap<>();
+    private final Map<String, Timer> hashTimers = new HashMap<>();
+    private final Map<String, Timer> verifyTimers = new HashMap<>();
+    private final PasswordHasher hasher;
+    private final SecureRandomPool randomPool;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHashing(List<PasswordHasher> hashers,
+                           SecureRandomPool randomPool,
+                           MeterRegistry registry,
+                           @Value("${test.assessment.password.algorithm:pbkdf2-sha256}") String algorithm,
+                           @Value("${test.assessment.password.hashing.threads:0}") int threads,
+                           @Value("${test.assessment.password.hashing.queue.capacity:256}") int queueCapacity) {
+        for (PasswordHasher passwordHasher : hashers) {
+            this.hashers.put(passwordHasher.getAlgorithm(), passwordHasher);
+            hashTimers.put(passwordHasher.getAlgorithm(), timer(registry, passwordHasher, "hash"));
+            verifyTimers.put(passwordHasher.getAlgorithm(), timer(registry, passwordHasher, "verify"));
+        }
+        this.hasher = this.hashers.get(algorithm);
+        if (hasher == null) {
+            throw new IllegalArgumentException("Unknown password hashing algorithm " + algorithm + ", expected one of " + this.hashers.keySet());
+        }
+        this.randomPool = randomPool;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ExecutorServiceMetrics(executor, "password-hashing", Tags.empty()).bindTo(registry);
+        log.info("Hashing passwords with {} on {} threads", algorithm, poolSize);
+    }
+
+    public String getAlgorithm() {
+        return hasher.getAlgorithm();
+    }
+
+    /**
+     * @return 32 random bytes, Base64 encoded
+     */
+    public String generateSalt() {
+        byte[] salt = saltBuffers.get();
+        randomPool.nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    public String hash(String salt, String password) {
+        Timer timer = hashTimers.get(hasher.getAlgorithm());
+        return run(hasher, () -> timer.recordCallable(() -> hasher.hash(password, salt.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Hashes passwords in bulk, for imports. Unlike {@link #hash(String, String)}, a full queue
+     * is waited out rather than rejected, and no more hashes are queued at once than there are
+     * hashing threads, so that logins arriving in the meantime still find room in the queue.
+     *
+     * @return the hash of each password, in the order given
+     */
+    public List<String> hashAll(List<String> salts, List<String> passwords) {
+        List<String> hashes = new ArrayList<>(passwords.size());
+        if (!hasher.isExpensive()) {
+            for (int i = 0; i < passwords.size(); i++) {
+                hashes.add(hash(salts.get(i), passwords.get(i)));
+            }
+            return hashes;
+        }
+        Timer timer = hashTimers.get(hasher.getAlgorithm());
+        List<Future<String>> results = new ArrayList<>(passwords.size());
+        Deque<Future<String>> queued = new ArrayDeque<>();
+        int window = executor.getMaximumPoolSize();
+        for (int i = 0; i < passwords.size(); i++) {
+            String salt = salts.get(i);
+            String password = passwords.get(i);
+            Callable<String> task = () -> timer.recordCallable(() -> hasher.hash(password, salt.getBytes(StandardCharsets.UTF_8)));
+            while (true) {
+                if (queued.size() >= window) {
+                    await(queued.poll());
+                    continue;
+                }
+                try {
+                    Future<String> result = executor.submit(task);
+                    results.add(result);
+                    queued.add(result);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    if (executor.isShutdown()) {
+                        throw e;
+                    }
+                    waitForRoom(queued);
+                }
+            }
+        }
+        for (Future<String> result : results) {
+            hashes.add(await(result));
+        }
+        return hashes;
+    }
+
+    /**
+     * @return whether the password matches the stored hash, false if the hash was produced by an
+     * unknown algorithm
+     */
+    public boolean matches(String salt, String password, String storedHash) {
+        if (salt == null || password == null || storedHash == null) {
+            return false;
+        }
+        PasswordHasher storedHasher = hasherOf(storedHash);
+        if (storedHasher == null) {
+            log.warn("Stored password hash uses an unknown algorithm");
+            return false;
+        }
+        Timer timer = verifyTimers.get(storedHasher.getAlgorithm());
+        return run(storedHasher, () -> timer.recordCallable(() -> storedHasher.matches(password, salt.getBytes(StandardCharsets.UTF_8), storedHash)));
+    }
+
+    /**
+     * Whether the stored hash was produced by another algorithm, or with other parameters, than
+     * the configured ones.
+     */
+    public boolean needsRehash(String storedHash) {
+        return hasherOf(storedHash) != hasher || hasher.needsRehash(storedHash);
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private static Timer timer(MeterRegistry registry, PasswordHasher passwordHasher, String operation) {
+        return Timer.builder(METRIC_NAME)
+                .description("Time spent hashing a password, not counting the wait for a hashing thread")
+                .tag("algorithm", passwordHasher.getAlgorithm())
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    private PasswordHasher hasherOf(String storedHash) {
+        String algorithm = EncodedPasswordHash.algorithmOf(storedHash);
+        return hashers.get(algorithm == null ? Sha256PasswordHasher.ALGORITHM : algorithm);
+    }
+
+    private <T> T run(PasswordHasher passwordHasher, Callable<T> task) {
+        try {
+            if (!passwordHasher.isExpensive()) {
+                return task.call();
+            }
+            return await(executor.submit(task));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T await(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits for one of our own hashes to finish, or when the queue is full of other requests,
+     * for a moment.
+     */
+    private static void waitForRoom(Deque<Future<String>> queued) {
+        if (!queued.isEmpty()) {
+            await(queued.poll());
+            return;
+        }
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to hash a password", e);
+        }
+    }
+
+}
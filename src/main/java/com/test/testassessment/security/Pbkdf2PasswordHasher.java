@@ -0,0 +1,66 @@
+package com.test.testassessment.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * PBKDF2 with HMAC-SHA256, as provided by the JDK. Hashes are written as
+ * {@code $pbkdf2-sha256$i=<iterations>$<hash>}.
+ */
+@Component
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final String ALGORITHM = "pbkdf2-sha256";
+    private static final String KEY_FACTORY_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_LENGTH = 32;
+    private final int iterations;
+
+    public Pbkdf2PasswordHasher(@Value("${test.assessment.password.pbkdf2.iterations:210000}") int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("PBKDF2 iterations must be positive, was " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String hash(String password, byte[] salt) {
+        return EncodedPasswordHash.format(ALGORITHM, "i=" + iterations, derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean matches(String password, byte[] salt, String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        if (encoded == null || encoded.getParameter("i") < 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(encoded.getHash(), derive(password, salt, encoded.getParameter("i")));
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        return encoded == null || encoded.getParameter("i") != iterations;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance(KEY_FACTORY_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(KEY_FACTORY_ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+}
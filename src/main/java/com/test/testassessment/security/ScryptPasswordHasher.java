@@ -0,0 +1,77 @@
+package com.test.testassessment.security;
+
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * scrypt, as provided by Bouncy Castle. Hashes are written as
+ * {@code $scrypt$n=<cost>,r=<block size>,p=<parallelism>$<hash>}. Each hash needs
+ * 128 * n * r bytes of memory, 16 MiB with the defaults.
+ */
+@Component
+public class ScryptPasswordHasher implements PasswordHasher {
+
+    public static final String ALGORITHM = "scrypt";
+    private static final int HASH_LENGTH = 32;
+    private final int cost;
+    private final int blockSize;
+    private final int parallelism;
+
+    public ScryptPasswordHasher(@Value("${test.assessment.password.scrypt.cost:16384}") int cost,
+                                @Value("${test.assessment.password.scrypt.block.size:8}") int blockSize,
+                                @Value("${test.assessment.password.scrypt.parallelism:1}") int parallelism) {
+        if (cost <= 1 || Integer.bitCount(cost) != 1) {
+            throw new IllegalArgumentException("scrypt cost must be a power of 2 greater than 1, was " + cost);
+        }
+        if (blockSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("scrypt block size and parallelism must be positive");
+        }
+        this.cost = cost;
+        this.blockSize = blockSize;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String hash(String password, byte[] salt) {
+        return EncodedPasswordHash.format(ALGORITHM, "n=" + cost + ",r=" + blockSize + ",p=" + parallelism,
+                derive(password, salt, cost, blockSize, parallelism));
+    }
+
+    @Override
+    public boolean matches(String password, byte[] salt, String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        if (encoded == null) {
+            return false;
+        }
+        int n = encoded.getParameter("n");
+        int r = encoded.getParameter("r");
+        int p = encoded.getParameter("p");
+        if (n <= 1 || Integer.bitCount(n) != 1 || r < 0 || p < 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(encoded.getHash(), derive(password, salt, n, r, p));
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        EncodedPasswordHash encoded = EncodedPasswordHash.parse(hash, ALGORITHM);
+        return encoded == null
+                || encoded.getParameter("n") != cost
+                || encoded.getParameter("r") != blockSize
+                || encoded.getParameter("p") != parallelism;
+    }
+
+    private static byte[] derive(String password, byte[] salt, int cost, int blockSize, int parallelism) {
+        return SCrypt.generate(password.getBytes(StandardCharsets.UTF_8), salt, cost, blockSize, parallelism, HASH_LENGTH);
+    }
+
+}
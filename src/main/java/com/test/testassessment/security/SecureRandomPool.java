@@ -0,0 +1,108 @@
+package com.test.testassessment.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * A fixed set of seeded {@link SecureRandom} generators, picked by thread id. Every generator
+ * is seeded on startup, so no request pays for seeding, and threads rarely share a
+ * generator's lock.
+ * <p>
+ * The generators are DRBG, or SHA1PRNG before Java 9, rather than the default NativePRNG on
+ * Linux, whose instances all share one lock around the same entropy source. A DRBG call has a
+ * fixed cost of several hundred nanoseconds whatever its size, so each thread draws random
+ * bytes a kilobyte at a time into its own buffer and serves salts and ids from there.
+ */
+@Component
+public class SecureRandomPool {
+
+    private static final String[] ALGORITHMS = {"DRBG", "SHA1PRNG"};
+    private static final int BUFFER_LENGTH = 1024;
+    private static final Logger log = LoggerFactory.getLogger(SecureRandomPool.class);
+    private final SecureRandom[] generators;
+    private final int mask;
+    private final ThreadLocal<RandomBuffer> buffers = ThreadLocal.withInitial(RandomBuffer::new);
+
+    public SecureRandomPool(@Value("${test.assessment.random.pool.size:0}") int size) {
+        int stripes = size > 0 ? size : 2 * Runtime.getRuntime().availableProcessors();
+        int length = Integer.highestOneBit(stripes);
+        length = length < stripes ? length << 1 : length;
+        this.generators = new SecureRandom[length];
+        this.mask = length - 1;
+        byte[] seedingBytes = new byte[1];
+        for (int i = 0; i < length; i++) {
+            generators[i] = newGenerator();
+            generators[i].nextBytes(seedingBytes); // seeds the generator now rather than on first use
+        }
+        log.info("Seeded {} {} generators", length, generators[0].getAlgorithm());
+    }
+
+    public void nextBytes(byte[] bytes) {
+        RandomBuffer buffer = buffers.get();
+        int copied = 0;
+        while (copied < bytes.length) {
+            copied += buffer.read(bytes, copied, bytes.length - copied);
+        }
+    }
+
+    public long nextLong() {
+        RandomBuffer buffer = buffers.get();
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (buffer.read() & 0xFF);
+        }
+        return value;
+    }
+
+    private SecureRandom current() {
+        return generators[(int) Thread.currentThread().getId() & mask];
+    }
+
+    private static SecureRandom newGenerator() {
+        for (String algorithm : ALGORITHMS) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                log.debug("{} is not available", algorithm);
+            }
+        }
+        return new SecureRandom();
+    }
+
+    /**
+     * Random bytes drawn ahead of use by one thread. Bytes are handed out once and the buffer is
+     * refilled when it runs out.
+     */
+    private final class RandomBuffer {
+
+        private final byte[] bytes = new byte[BUFFER_LENGTH];
+        private int position = BUFFER_LENGTH;
+
+        int read(byte[] destination, int offset, int length) {
+            refillIfEmpty();
+            int count = Math.min(length, BUFFER_LENGTH - position);
+            System.arraycopy(bytes, position, destination, offset, count);
+            position += count;
+            return count;
+        }
+
+        byte read() {
+            refillIfEmpty();
+            return bytes[position++];
+        }
+
+        private void refillIfEmpty() {
+            if (position == BUFFER_LENGTH) {
+                current().nextBytes(bytes);
+                position = 0;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.test.testassessment.security;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * The original, unparameterized scheme: the hex encoded SHA-256 of the salt followed by the
+ * password. Its hashes carry no {@code $algorithm$} prefix. It is kept to verify existing
+ * hashes, which are rehashed with the configured algorithm on the next successful login.
+ */
+@Component
+public class Sha256PasswordHasher implements PasswordHasher {
+
+    public static final String ALGORITHM = "sha256";
+    private static final int HASH_LENGTH = 32;
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(DigestUtils::getSha256Digest);
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String hash(String password, byte[] salt) {
+        return Hex.encodeHexString(digest(password, salt));
+    }
+
+    /**
+     * Compares the digest with the hex encoded hash in constant time, without decoding the hash
+     * into a new array.
+     */
+    @Override
+    public boolean matches(String password, byte[] salt, String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH * 2) {
+            return false;
+        }
+        byte[] digest = digest(password, salt);
+        int difference = 0;
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int high = Character.digit(hash.charAt(2 * i), 16);
+            int low = Character.digit(hash.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            difference |= ((high << 4) | low) ^ (digest[i] & 0xff);
+        }
+        return difference == 0;
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        return false;
+    }
+
+    @Override
+    public boolean isExpensive() {
+        return false;
+    }
+
+    private static byte[] digest(String password, byte[] salt) {
+        MessageDigest digest = digests.get();
+        digest.update(salt);
+        return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
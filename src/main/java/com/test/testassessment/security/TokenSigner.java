@@ -0,0 +1,135 @@
+package com.test.testassessment.security;
+
+import com.test.testassessment.model.SignedToken;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Encodes and verifies signed tokens. A signed token is {@link #PREFIX} followed by the
+ * unpadded URL-safe Base64 encoding of
+ * <pre>
+ * token id (8 bytes) | expiry in epoch seconds (8 bytes) | userId length (1 byte) | userId (UTF-8) | HMAC-SHA256 tag (32 bytes)
+ * </pre>
+ * where the tag covers every byte before it. The prefix cannot occur in the Base64 encoded JSON
+ * tokens, so both formats can be told apart without decoding.
+ */
+@Component
+public class TokenSigner {
+
+    public static final String PREFIX = "s1.";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+    private static final int TAG_LENGTH = 32;
+    private static final int HEADER_LENGTH = Long.BYTES + Long.BYTES + 1;
+    private static final int MAX_USER_ID_LENGTH = 255;
+    private static final Logger log = LoggerFactory.getLogger(TokenSigner.class);
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final ThreadLocal<byte[]> tags = ThreadLocal.withInitial(() -> new byte[TAG_LENGTH]);
+
+    public TokenSigner(@Value("${test.assessment.token.signing.key:}") String encodedKey) {
+        byte[] keyBytes;
+        if (StringUtils.isEmpty(encodedKey)) {
+            log.warn("No token signing key configured, generating a random one. Signed tokens will not survive a restart");
+            keyBytes = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = Base64.getDecoder().decode(encodedKey);
+            if (keyBytes.length < KEY_LENGTH) {
+                throw new IllegalArgumentException("Token signing key must be at least " + KEY_LENGTH + " bytes long");
+            }
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public static boolean isSigned(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    public String sign(SignedToken token) {
+        byte[] userId = token.getUserId().getBytes(StandardCharsets.UTF_8);
+        if (userId.length > MAX_USER_ID_LENGTH) {
+            throw new IllegalArgumentException("User id is too long to be signed");
+        }
+        int payloadLength = HEADER_LENGTH + userId.length;
+        ByteBuffer buffer = ByteBuffer.allocate(payloadLength + TAG_LENGTH);
+        buffer.putLong(token.getId())
+                .putLong(token.getExpiresAt())
+                .put((byte) userId.length)
+                .put(userId);
+        computeTag(buffer.array(), payloadLength, buffer.array(), payloadLength);
+        return PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @return the claims of the token, or null if the token is malformed or its tag does not match
+     */
+    public SignedToken verify(String token) {
+        if (!isSigned(token)) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length < HEADER_LENGTH + TAG_LENGTH) {
+            return null;
+        }
+        int userIdLength = bytes[HEADER_LENGTH - 1] & 0xFF;
+        int payloadLength = HEADER_LENGTH + userIdLength;
+        if (bytes.length != payloadLength + TAG_LENGTH) {
+            return null;
+        }
+        byte[] expectedTag = tags.get();
+        computeTag(bytes, payloadLength, expectedTag, 0);
+        if (!constantTimeEquals(expectedTag, bytes, payloadLength)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new SignedToken(buffer.getLong(), new String(bytes, HEADER_LENGTH, userIdLength, StandardCharsets.UTF_8), buffer.getLong());
+    }
+
+    private void computeTag(byte[] payload, int payloadLength, byte[] output, int outputOffset) {
+        Mac mac = macs.get();
+        mac.update(payload, 0, payloadLength);
+        try {
+            mac.doFinal(output, outputOffset);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean constantTimeEquals(byte[] expectedTag, byte[] bytes, int tagOffset) {
+        int difference = 0;
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            difference |= expectedTag[i] ^ bytes[tagOffset + i];
+        }
+        return difference == 0;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialise " + ALGORITHM, e);
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+package com.test.testassessment.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the HTTP/1.1 requests of its connections with a single selector thread, answers them with
+ * {@link TokenServer#respond(String, String, String)} and writes the responses back, in order.
+ * Requests may be pipelined. Request bodies are skipped, chunked bodies are refused.
+ * <p>
+ * A connection stops being read while its responses cannot be written, so a client that does not
+ * read them only holds up itself. Connections that neither send nor take any bytes for the idle
+ * timeout are closed, checked at most once a second.
+ */
+final class EventLoop implements Runnable {
+
+    static final int MAX_REQUEST_BYTES = 8192;
+    private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+    private final TokenServer server;
+    private final Selector selector;
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    private final long idleTimeoutNanos;
+    private final long idleCheckMillis;
+    private long nextIdleCheck;
+    private volatile boolean running = true;
+
+    EventLoop(TokenServer server, long idleTimeoutMillis) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.idleCheckMillis = Math.max(1, Math.min(idleTimeoutMillis, 1000));
+        this.nextIdleCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleCheckMillis);
+    }
+
+    /**
+     * Hands a connection over to this event loop, called by the acceptor thread.
+     */
+    void register(SocketChannel channel) {
+        accepted.add(channel);
+        selector.wakeup();
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(idleCheckMillis);
+            } catch (IOException e) {
+                log.error("Token server event loop could not select", e);
+                break;
+            }
+            registerAccepted();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        connection.read();
+                    } else if (key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                } catch (RuntimeException e) {
+                    log.warn("Closing a token server connection that could not be served", e);
+                    connection.close();
+                }
+            }
+            closeIdle();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Connection) key.attachment()).close();
+        }
+        registerAccepted();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Could not close a token server selector", e);
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.nanoTime();
+        if (now - nextIdleCheck < 0) {
+            return;
+        }
+        nextIdleCheck = now + TimeUnit.MILLISECONDS.toNanos(idleCheckMillis);
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (now - connection.lastActive >= idleTimeoutNanos) {
+                log.debug("Closing an idle token server connection");
+                connection.close();
+            }
+        }
+    }
+
+    private void registerAccepted() {
+        SocketChannel channel;
+        while ((channel = accepted.poll()) != null) {
+            Connection connection = new Connection(channel);
+            try {
+                if (!running) {
+                    throw new IOException("Token server is closed");
+                }
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        private ByteBuffer out = ByteBuffer.allocate(1024);
+        private SelectionKey key;
+        private long bodyToSkip;
+        private boolean closing;
+        private boolean closed;
+        private long lastActive = System.nanoTime();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(in);
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (read > 0) {
+                lastActive = System.nanoTime();
+            }
+            in.flip();
+            while (!closing && parse()) {
+                // answers every complete request read so far
+            }
+            in.compact();
+            if (!closing && !in.hasRemaining()) {
+                write(HttpResponse.REQUEST_TOO_LARGE, false);
+            }
+            flush();
+        }
+
+        /**
+         * Writes out the responses held, and goes back to reading once they are all written.
+         */
+        void flush() throws IOException {
+            out.flip();
+            if (channel.write(out) > 0) {
+                lastActive = System.nanoTime();
+            }
+            boolean written = !out.hasRemaining();
+            out.compact();
+            if (!written) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (closing) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server.connectionClosed();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Could not close a token server connection", e);
+            }
+        }
+
+        /**
+         * @return true if a request was answered, false if the rest of it has not been read yet
+         */
+        private boolean parse() {
+            if (bodyToSkip > 0) {
+                int skipped = (int) Math.min(bodyToSkip, in.remaining());
+                in.position(in.position() + skipped);
+                bodyToSkip -= skipped;
+                if (bodyToSkip > 0) {
+                    return false;
+                }
+            }
+            byte[] bytes = in.array();
+            int start = in.arrayOffset() + in.position();
+            int headEnd = indexOf(bytes, start, in.arrayOffset() + in.limit(), "\r\n\r\n");
+            if (headEnd < 0) {
+                return false;
+            }
+            int lineEnd = indexOf(bytes, start, headEnd + 2, "\r\n");
+            String[] requestLine = new String(bytes, start, lineEnd - start, StandardCharsets.US_ASCII).split(" ");
+            in.position(headEnd + 4 - in.arrayOffset());
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                write(HttpResponse.BAD_REQUEST, false);
+                return true;
+            }
+            boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+            String authorization = null;
+            long contentLength = 0;
+            boolean chunked = false;
+            for (int line = lineEnd + 2; line < headEnd; line = lineEnd + 2) {
+                lineEnd = indexOf(bytes, line, headEnd + 2, "\r\n");
+                int colon = indexOf(bytes, line, lineEnd, ":");
+                if (colon < 0) {
+                    continue;
+                }
+                String value = new String(bytes, colon + 1, lineEnd - colon - 1, StandardCharsets.US_ASCII).trim();
+                if (isHeader(bytes, line, colon, "authorization")) {
+                    authorization = value;
+                } else if (isHeader(bytes, line, colon, "content-length")) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        contentLength = -1;
+                    }
+                } else if (isHeader(bytes, line, colon, "transfer-encoding")) {
+                    chunked = !"identity".equalsIgnoreCase(value);
+                } else if (isHeader(bytes, line, colon, "connection")) {
+                    keepAlive = keepAlive ? !"close".equalsIgnoreCase(value) : "keep-alive".equalsIgnoreCase(value);
+                }
+            }
+            if (chunked || contentLength < 0) {
+                write(HttpResponse.BAD_REQUEST, false);
+                return true;
+            }
+            write(server.respond(requestLine[0], requestLine[1], authorization), keepAlive);
+            bodyToSkip = contentLength;
+            return true;
+        }
+
+        private void write(HttpResponse response, boolean keepAlive) {
+            byte[] bytes = response.bytes(keepAlive);
+            if (out.remaining() < bytes.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+            out.put(bytes);
+            closing = !keepAlive;
+        }
+
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, String ascii) {
+        int last = to - ascii.length();
+        search:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < ascii.length(); j++) {
+                if (bytes[i + j] != ascii.charAt(j)) {
+                    continue search;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param lowerCaseName the header name in lower case, header names are not case sensitive
+     */
+    private static boolean isHeader(byte[] bytes, int from, int to, String lowerCaseName) {
+        if (to - from != lowerCaseName.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseName.length(); i++) {
+            int b = bytes[from + i];
+            if ((b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != lowerCaseName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.test.testassessment.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The few responses of the {@link TokenServer}, encoded once, with and without closing the
+ * connection.
+ */
+final class HttpResponse {
+
+    static final HttpResponse ACCEPTED_TRUE = new HttpResponse("202 Accepted", "Content-Type: application/json\r\n", "{\"data\":\"true\"}");
+    static final HttpResponse BAD_REQUEST = new HttpResponse("400 Bad Request", "", "");
+    static final HttpResponse UNAUTHORIZED = new HttpResponse("401 Unauthorized", "", "");
+    static final HttpResponse NOT_FOUND = new HttpResponse("404 Not Found", "", "");
+    static final HttpResponse METHOD_NOT_ALLOWED = new HttpResponse("405 Method Not Allowed", "Allow: POST\r\n", "");
+    static final HttpResponse REQUEST_TOO_LARGE = new HttpResponse("431 Request Header Fields Too Large", "", "");
+
+    private final byte[] keepAlive;
+    private final byte[] close;
+
+    private HttpResponse(String status, String headers, String body) {
+        String head = "HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: " + body.length() + "\r\n";
+        this.keepAlive = (head + "\r\n" + body).getBytes(StandardCharsets.US_ASCII);
+        this.close = (head + "Connection: close\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    byte[] bytes(boolean keepConnection) {
+        return keepConnection ? keepAlive : close;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.test.testassessment.server;
+
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.service.UserService;
+import com.test.testassessment.store.TokenStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves {@code POST /users/{id}/validate-token} and {@code POST /users/{id}/revoke-token} on a
+ * port of its own, next to the servlet container, for callers such as an API gateway that check a
+ * token on every request. Started by setting {@code test.assessment.token.server.port}.
+ * <p>
+ * Both routes only touch the token store and revocation list in memory, so they are answered on
+ * the {@link EventLoop} that read the request, without handing it to another thread. Connections
+ * are accepted by a thread of their own and spread over {@code test.assessment.token.server.threads}
+ * event loops, one per core by default. Responses are those of the servlet routes, and user ids
+ * are percent-decoded from the path as they are there. When accepting fails, typically because
+ * the process ran out of file descriptors, it is retried every {@value #ACCEPT_RETRY_MILLIS} ms
+ * rather than in a busy loop, and only logged once until a connection is accepted again.
+ * <p>
+ * It listens on {@code test.assessment.token.server.bind}, {@code localhost} by default. At most
+ * {@code test.assessment.token.server.max.connections} connections are open at once, further ones
+ * are closed as soon as they are accepted, and connections idle for
+ * {@code test.assessment.token.server.idle.timeout.millis} are closed. It does not
+ * start with the {@code partitioned} token store, whose sessions may be held by another instance
+ * and would leave the event loop waiting on the network.
+ */
+@Component
+@ConditionalOnProperty(name = TokenServer.PORT_PROPERTY)
+public class TokenServer implements DisposableBean {
+
+    public static final String PORT_PROPERTY = "test.assessment.token.server.port";
+    private static final Logger log = LoggerFactory.getLogger(TokenServer.class);
+    private static final String USERS_PREFIX = "/users/";
+    private static final String VALIDATE_SUFFIX = "/validate-token";
+    private static final String REVOKE_SUFFIX = "/revoke-token";
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+    private final UserService userService;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private final Thread acceptor;
+    private final int maxConnections;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public TokenServer(UserService userService,
+                       @Value("${test.assessment.token.server.bind:localhost}") String bind,
+                       @Value("${" + PORT_PROPERTY + "}") int port,
+                       @Value("${test.assessment.token.server.threads:0}") int threads,
+                       @Value("${test.assessment.token.server.idle.timeout.millis:60000}") long idleTimeoutMillis,
+                       @Value("${test.assessment.token.server.max.connections:10000}") int maxConnections,
+                       @Value("${" + TokenStore.PROPERTY + ":heap}") String tokenStore) {
+        if ("partitioned".equals(tokenStore)) {
+            throw new IllegalArgumentException(PORT_PROPERTY + " cannot be used with the partitioned token store, "
+                    + "whose lookups would block the event loops");
+        }
+        this.userService = userService;
+        this.maxConnections = maxConnections;
+        int loopCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(bind, port), 1024);
+            this.eventLoops = new EventLoop[loopCount];
+            for (int i = 0; i < loopCount; i++) {
+                eventLoops[i] = new EventLoop(this, idleTimeoutMillis);
+                Thread thread = new Thread(eventLoops[i], "token-server-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start the token server on " + bind + ":" + port, e);
+        }
+        this.acceptor = new Thread(this::accept, "token-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Serving token validation on port {} with {} event loops", getPort(), loopCount);
+    }
+
+    /**
+     * @return the port listened on, which is picked by the system when 0 was configured
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.warn("Could not close the token server socket", e);
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.close();
+        }
+    }
+
+    /**
+     * Answers one request, called on an event loop.
+     */
+    HttpResponse respond(String method, String path, String authorization) {
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String suffix = path.endsWith(VALIDATE_SUFFIX) ? VALIDATE_SUFFIX : path.endsWith(REVOKE_SUFFIX) ? REVOKE_SUFFIX : null;
+        if (suffix == null || !path.startsWith(USERS_PREFIX) || path.length() == USERS_PREFIX.length() + suffix.length()) {
+            return HttpResponse.NOT_FOUND;
+        }
+        String encodedUserId = path.substring(USERS_PREFIX.length(), path.length() - suffix.length());
+        if (encodedUserId.indexOf('/') >= 0) {
+            return HttpResponse.NOT_FOUND;
+        }
+        if (!"POST".equals(method)) {
+            return HttpResponse.METHOD_NOT_ALLOWED;
+        }
+        String userId;
+        try {
+            userId = UriUtils.decode(encodedUserId, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return HttpResponse.BAD_REQUEST;
+        }
+        if (userId.indexOf('/') >= 0) {
+            // Tomcat refuses encoded slashes in paths
+            return HttpResponse.BAD_REQUEST;
+        }
+        if (authorization == null) {
+            return HttpResponse.BAD_REQUEST;
+        }
+        TokenPrincipal principal = userService.authenticate(userId, authorization);
+        if (principal == null) {
+            return HttpResponse.UNAUTHORIZED;
+        }
+        if (suffix == REVOKE_SUFFIX && !userService.revokeToken(principal)) {
+            return HttpResponse.UNAUTHORIZED;
+        }
+        return HttpResponse.ACCEPTED_TRUE;
+    }
+
+    /**
+     * Called by an event loop once for every connection it closes.
+     */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    private void accept() {
+        int next = 0;
+        boolean warned = false;
+        boolean full = false;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+                warned = false;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!warned) {
+                    log.warn("Could not accept a token server connection, retrying every {} ms", ACCEPT_RETRY_MILLIS, e);
+                    warned = true;
+                }
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            if (connections.get() >= maxConnections) {
+                if (!full) {
+                    log.warn("Token server has {} connections open, closing further ones until some are closed", maxConnections);
+                    full = true;
+                }
+                closeQuietly(channel);
+                continue;
+            }
+            full = false;
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                log.debug("Could not set up a token server connection", e);
+                closeQuietly(channel);
+                continue;
+            }
+            connections.incrementAndGet();
+            eventLoops[next].register(channel);
+            next = (next + 1) % eventLoops.length;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Could not close a token server connection", e);
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.test.testassessment.service;
+
+/**
+ * Thrown by {@link UserService#validateTokens(java.util.Iterator)} and
+ * {@link UserService#saveUsers(java.util.Iterator)} when a batch holds more than
+ * {@link UserService#MAX_BATCH_SIZE} checks or records, so the request can be refused as too large
+ * rather than tying up a request thread for as long as the client keeps sending.
+ */
+public class BatchTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BatchTooLargeException(String message) {
+        super(message);
+    }
+
+}
@@ -1,25 +1,94 @@
 package com.test.testassessment.service;
 
+import com.test.testassessment.model.TokenCheck;
+import com.test.testassessment.model.TokenPrincipal;
 import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserImportResult;
 import org.springframework.stereotype.Service;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 public interface UserService {
 
+    /**
+     * The most checks {@link #validateTokens(Iterator)}, and records {@link #saveUsers(Iterator)},
+     * accept in one batch.
+     */
+    int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * Loads every user at once. Prefer {@link #getUsers(String, int)} or {@link #forEachUser(Consumer)},
+     * which do not hold the whole table in memory.
+     */
     List<User> getAllUsers();
 
+    /**
+     * @param after the id of the last user of the previous page, or null for the first page
+     * @return up to limit users ordered by id
+     */
+    List<User> getUsers(String after, int limit);
+
+    /**
+     * Passes every user, ordered by id, to the action without keeping them in memory.
+     */
+    void forEachUser(Consumer<User> action);
+
     User saveUser(User user);
 
+    /**
+     * Creates the users in chunked transactions, hashing each chunk's passwords in parallel.
+     * Records that cannot be created are reported as failed without affecting the others.
+     *
+     * @return one result per record read, in the order the records were read
+     * @throws BatchTooLargeException if there are more than {@link #MAX_BATCH_SIZE} records, in
+     *                                which case no user is created
+     */
+    List<UserImportResult> saveUsers(Iterator<User> users);
+
     User updateUser(String userId, User user);
 
     String authenticateUserByIdAndPassword(String userId, String password);
 
     boolean validateToken(String userId, String token);
 
+    /**
+     * Decodes and validates the token as {@link #validateToken(String, String)} does, keeping it
+     * decoded for the rest of the request.
+     *
+     * @return the validated token, or null if it is not valid
+     */
+    TokenPrincipal authenticate(String userId, String token);
+
+    /**
+     * Validates every token as {@link #validateToken(String, String)} does, without logging the
+     * tokens that cannot be read. The outcomes are counted and audited once for the whole batch
+     * rather than once per token, checks without a token counting as malformed.
+     *
+     * @return whether each token is valid, in the order they were read
+     * @throws BatchTooLargeException if there are more than {@link #MAX_BATCH_SIZE} checks, in
+     *                                which case none of the outcomes is counted
+     */
+    List<Boolean> validateTokens(Iterator<TokenCheck> checks);
+
     boolean revokeToken(String userId, String token);
 
-    String buildResponse(String dataToSerialize);
+    /**
+     * Revokes a token returned by {@link #authenticate(String, String)}, without decoding it again.
+     */
+    boolean revokeToken(TokenPrincipal principal);
+
+    /**
+     * Revokes every token issued to the user, on every device.
+     */
+    void revokeAllTokens(String userId);
+
+    /**
+     * @return the {@code {"data":...}} body as UTF-8 JSON; the body of {@code "true"} is shared by
+     * every caller, see {@link com.test.testassessment.util.DataResponseBodies#ofTrue()}
+     */
+    byte[] buildResponse(String dataToSerialize);
 
 }
@@ -0,0 +1,146 @@
+package com.test.testassessment.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.test.testassessment.model.Token;
+import com.test.testassessment.util.Base64Decoding;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decodes {@code Authorization} headers holding a token in the JSON format, and keeps the last
+ * {@code test.assessment.token.header.cache.size} of them decoded, so a client sending the same
+ * header on every request is only decoded twice. Headers that cannot be read are kept too, so a
+ * flood of the same garbage costs a lookup rather than a failed decode each time.
+ * <p>
+ * A header is only kept the second time it is seen. Writing every new header into the cache made
+ * a miss cost three times a plain decode once the headers in use outnumbered the cache, while
+ * noting a sighting is a single write into an array of hashes, so headers that never come back
+ * cost about what they do without the cache.
+ * <p>
+ * Only decoding is skipped: whether the token is still valid is checked on every request, so an
+ * entry never outlives its token. Entries are removed when their token is revoked, and otherwise
+ * make room for newer ones. Caffeine only admits a new entry over an old one that is used less
+ * often, so headers sent once do not push out those of regular clients.
+ * <p>
+ * Reported by the {@code cache} metrics named {@code authorizationHeaders}, plus
+ * {@code token.header.cache.malformed.hits} for the hits on unreadable headers.
+ */
+@Component
+public class AuthorizationHeaderCache {
+
+    private static final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    private static final ObjectReader tokenReader = mapper.readerFor(Token.class);
+    private static final Token MALFORMED = new Token(0, null, 0);
+    private static final int MAX_BUFFER_LENGTH = 1024;
+    private static final int MAX_CACHED_LENGTH = MAX_BUFFER_LENGTH / 3 * 4; // longer headers are decoded but never kept
+    private static final ThreadLocal<byte[]> decodeBuffers = ThreadLocal.withInitial(() -> new byte[256]);
+    private static final Logger log = LoggerFactory.getLogger(AuthorizationHeaderCache.class);
+    private final Cache<String, Token> cache; // null when disabled
+    private final int[] sightings; // hash of the last header missed at each index
+    private final LongAdder malformedHits = new LongAdder();
+
+    public AuthorizationHeaderCache(MeterRegistry registry,
+                                    @Value("${test.assessment.token.header.cache.size:10000}") int size) {
+        if (size <= 0) {
+            this.cache = null;
+            this.sightings = null;
+            return;
+        }
+        this.sightings = new int[Integer.highestOneBit(Math.min(size, 1 << 20) * 2 - 1)];
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "authorizationHeaders");
+        FunctionCounter.builder("token.header.cache.malformed.hits", malformedHits, LongAdder::sum)
+                .description("Authorization headers found in the cache as unreadable")
+                .register(registry);
+    }
+
+    /**
+     * @return the token held by the header, or null if it cannot be read. The token is shared
+     * with other requests sending the same header and must not be modified.
+     */
+    public Token decode(String header) {
+        if (cache == null || header.length() > MAX_CACHED_LENGTH) {
+            return read(header);
+        }
+        Token token = cache.getIfPresent(header);
+        if (token == null) {
+            token = read(header);
+            if (seenBefore(header)) {
+                cache.put(header, token == null ? MALFORMED : token);
+            }
+        } else if (token == MALFORMED) {
+            malformedHits.increment();
+            return null;
+        }
+        return token;
+    }
+
+    /**
+     * Forgets the header, once the token it holds has been revoked.
+     */
+    public void invalidate(String header) {
+        if (cache != null && header != null) {
+            cache.invalidate(header);
+        }
+    }
+
+    /**
+     * Notes the header as seen, racing threads may lose each other's sightings. A header whose
+     * hash collides with the one noted is taken as seen, which only caches it early.
+     *
+     * @return true if it was seen last among the headers sharing its index
+     */
+    private boolean seenBefore(String header) {
+        int hash = header.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (sightings.length - 1);
+        if (sightings[index] == hash) {
+            return true;
+        }
+        sightings[index] = hash;
+        return false;
+    }
+
+    private static Token read(String header) {
+        try {
+            return readToken(header);
+        } catch (IOException | IllegalArgumentException e) {
+            log.debug("Could not read a token", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the Base64 header into a per-thread buffer and binds the JSON straight from those
+     * bytes, skipping the intermediate arrays and String of a plain decode.
+     */
+    private static Token readToken(String header) throws IOException {
+        int maxLength = Base64Decoding.maxDecodedLength(header);
+        byte[] buffer = decodeBuffers.get();
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_BUFFER_LENGTH) {
+                decodeBuffers.set(buffer);
+            }
+        }
+        int length = Base64Decoding.decode(header, buffer);
+        if (length < 0) {
+            throw new IllegalArgumentException("Token is not valid Base64");
+        }
+        return tokenReader.readValue(buffer, 0, length);
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.test.testassessment.service.impl;
 
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.SignedToken;
 import com.test.testassessment.model.Token;
 import com.test.testassessment.model.User;
 import org.springframework.stereotype.Service;
@@ -13,4 +16,50 @@ public interface TokenService {
 
     boolean revokeToken(String userId, Token token);
 
+    /**
+     * Validates the token as {@link #isTokenValid(String, Token)} does, without counting or
+     * auditing the outcome, for tokens validated in batches.
+     */
+    TokenValidationOutcome checkToken(String userId, Token token);
+
+    /**
+     * Validates the token as {@link #isSignedTokenValid(String, String)} does, without counting or
+     * auditing the outcome, for tokens validated in batches.
+     */
+    TokenValidationOutcome checkSignedToken(String userId, String token);
+
+    /**
+     * Counts the outcomes of a batch of {@link #checkToken(String, Token)} and
+     * {@link #checkSignedToken(String, String)}, and audits its rejections as a single event.
+     */
+    void recordChecks(TokenValidationCounts counts);
+
+    /**
+     * Revokes every token issued to the user so far, in either format.
+     */
+    void revokeAllTokens(String userId);
+
+    /**
+     * @return true if new tokens should be issued in the signed format rather than as JSON
+     */
+    boolean isSignedTokenFormat();
+
+    String generateSignedToken(User user);
+
+    boolean isSignedTokenValid(String userId, String token);
+
+    /**
+     * Validates the token as {@link #isSignedTokenValid(String, String)} does.
+     *
+     * @return the verified token, or null if it is not valid
+     */
+    SignedToken getValidSignedToken(String userId, String token);
+
+    boolean revokeSignedToken(String userId, String token);
+
+    /**
+     * Revokes a token returned by {@link #getValidSignedToken(String, String)}, without verifying it again.
+     */
+    boolean revokeSignedToken(SignedToken token);
+
 }
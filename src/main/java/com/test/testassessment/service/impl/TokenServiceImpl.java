@@ -1,66 +1,106 @@
 package com.test.testassessment.service.impl;
 
+import com.test.testassessment.audit.TokenAuditLog;
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.SignedToken;
 import com.test.testassessment.model.Token;
 import com.test.testassessment.model.User;
+import com.test.testassessment.replication.TokenReplication;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.TokenSigner;
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import com.test.testassessment.util.Base64Decoding;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.ZonedDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class TokenServiceImpl implements TokenService {
 
     private static final String DELIMITER = ".";
-    private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
+    private static final byte DELIMITER_BYTE = '.';
+    private static final int MAX_BUFFER_LENGTH = 1024;
+    private static final String SIGNED_FORMAT = "signed";
+    private static final Logger log = LoggerFactory.getLogger(TokenServiceImpl.class);
     @Value("${test.assessment.token.expiry.minutes:5}")
     private String tokenDuration;
-    private final Map<String, Token> tokenCache = new HashMap<>(); // keyed by userId
+    @Value("${test.assessment.token.format:json}")
+    private String tokenFormat;
+    private final TokenStore tokenCache; // sessions keyed by token id
+    private final RevocationList revocationList;
+    private final TokenSigner tokenSigner;
+    private final SecureRandomPool randomPool;
+    private final TokenValidationMetrics validationMetrics;
+    private final TokenAuditLog auditLog;
+    private final TokenReplication replication;
+    private final Clock clock;
+    private final ThreadLocal<byte[]> decodeBuffers = ThreadLocal.withInitial(() -> new byte[128]);
+
+    public TokenServiceImpl(TokenStore tokenCache, RevocationList revocationList, TokenSigner tokenSigner, SecureRandomPool randomPool,
+                            TokenValidationMetrics validationMetrics, TokenAuditLog auditLog, TokenReplication replication, Clock clock) {
+        this.tokenCache = tokenCache;
+        this.revocationList = revocationList;
+        this.tokenSigner = tokenSigner;
+        this.randomPool = randomPool;
+        this.validationMetrics = validationMetrics;
+        this.auditLog = auditLog;
+        this.replication = replication;
+        this.clock = clock;
+    }
 
     @Override
     public Token generateToken(User user) {
         if (user == null) {
             return null;
         }
-        Token token = new Token(generateTokenContent(user), ZonedDateTime.now().plusMinutes(Long.valueOf(tokenDuration)));
-        if (tokenCache.containsKey(user.getId())) {
-            // this might need to raise an error depending on future needs or how clients handle token generation
-            log.info("User {} already present in cache when generating a new token. Proceeding with generating a new token", user.getId());
-            if (!isTokenValid(null, tokenCache.get(user.getId()))) {
-                tokenCache.put(user.getId(), token);
-                return token;
-            }
-        }
-        log.debug("User {} requested a new token", user.getId());
-        log.debug("Cache is now {}", tokenCache);
-        tokenCache.put(user.getId(), token);
+        long expiresAt = clock.millis() + tokenDurationMillis();
+        // every login opens a session of its own, the token id is the only secret the token carries
+        long tokenId;
+        do {
+            tokenId = randomPool.nextLong();
+        } while (tokenId == 0 || !tokenCache.put(tokenId, user.getId(), expiresAt));
+        replication.issued(tokenId, user.getId(), expiresAt);
+        Token token = new Token(tokenId, generateTokenContent(user), expiresAt);
+        auditLog.issued(user.getId(), token);
         return token;
     }
 
     @Override
     public boolean isTokenValid(String userId, Token token) {
-        if (token == null) {
+        long start = validationMetrics.start();
+        TokenValidationOutcome outcome = validateToken(userId, token);
+        validationMetrics.record(TokenValidationMetrics.Format.JSON, outcome, start);
+        if (outcome != TokenValidationOutcome.VALID) {
+            auditLog.rejected(TokenValidationMetrics.Format.JSON, userId, outcome);
             return false;
         }
-        String userIdFromToken = getUserIdFromToken(token);
-        if (userId != null) {
-            if (!StringUtils.equals(userId, userIdFromToken)) {
-                return false;
-            }
-        }
-        if (userIdFromToken == null) {
-            return false;
-        } else {
-            if (!tokenCache.containsKey(userIdFromToken)) {
-                return false;
-            }
-            return !isTokenExpired(tokenCache.get(userIdFromToken));
-        }
+        return true;
+    }
+
+    @Override
+    public TokenValidationOutcome checkToken(String userId, Token token) {
+        return validateToken(userId, token);
+    }
+
+    @Override
+    public TokenValidationOutcome checkSignedToken(String userId, String token) {
+        return validateSignedToken(userId, tokenSigner.verify(token));
+    }
+
+    @Override
+    public void recordChecks(TokenValidationCounts counts) {
+        validationMetrics.record(counts);
+        auditLog.rejected(counts);
     }
 
     @Override
@@ -68,52 +108,207 @@ public class TokenServiceImpl implements TokenService {
         if (token == null) {
             return false;
         }
-        String userIdFromToken = getUserIdFromToken(token);
+        String userIdFromToken = getUserIdFromToken(token, userId);
         if (!StringUtils.equals(userId, userIdFromToken)) {
             return false;
         }
-        if (userIdFromToken != null) {
-            if (tokenCache.get(userIdFromToken) != null) {
-                log.debug("User {} found in the cache while revoking their token", userId);
-                log.debug("Cache is now {}", tokenCache);
-                tokenCache.remove(userIdFromToken);
-                return true;
-            }
+        if (userIdFromToken != null && tokenCache.remove(token.getId(), userIdFromToken)) {
+            replication.revoked(token.getId(), userIdFromToken, clock.millis() + tokenDurationMillis());
+            auditLog.revoked(userIdFromToken);
+            return true;
         }
         return false;
     }
 
-    private String generateTokenContent(User user) {
+    /**
+     * Closes the user's sessions in constant time and revokes the signed tokens issued to them so
+     * far, which are those that expire by the end of the current token duration. Signed tokens
+     * issued to them afterwards expire at least a second later, so they stay valid.
+     */
+    @Override
+    public void revokeAllTokens(String userId) {
+        if (userId == null) {
+            return;
+        }
+        tokenCache.removeAll(userId);
+        revocationList.revokeAll(userId, signedTokenExpiry());
+        replication.revokedAll(userId, clock.millis() + tokenDurationMillis());
+        auditLog.revokedAll(userId);
+    }
+
+    @Override
+    public boolean isSignedTokenFormat() {
+        return SIGNED_FORMAT.equalsIgnoreCase(tokenFormat);
+    }
+
+    @Override
+    public String generateSignedToken(User user) {
         if (user == null) {
             return null;
         }
-        return Base64.getEncoder().encodeToString((user.getId() + DELIMITER + user.getUserName()).getBytes());
+        long expiresAt = revocationList.expiryAfterRevocations(user.getId(), signedTokenExpiry());
+        SignedToken signedToken = new SignedToken(randomPool.nextLong(), user.getId(), expiresAt);
+        auditLog.issued(signedToken);
+        return tokenSigner.sign(signedToken);
     }
 
-    private boolean isTokenExpired(Token token) {
-        if (token == null) {
+    @Override
+    public boolean isSignedTokenValid(String userId, String token) {
+        return getValidSignedToken(userId, token) != null;
+    }
+
+    @Override
+    public SignedToken getValidSignedToken(String userId, String token) {
+        long start = validationMetrics.start();
+        SignedToken signedToken = tokenSigner.verify(token);
+        TokenValidationOutcome outcome = validateSignedToken(userId, signedToken);
+        validationMetrics.record(TokenValidationMetrics.Format.SIGNED, outcome, start);
+        if (outcome != TokenValidationOutcome.VALID) {
+            auditLog.rejected(TokenValidationMetrics.Format.SIGNED, userId, outcome);
+            return null;
+        }
+        return signedToken;
+    }
+
+    @Override
+    public boolean revokeSignedToken(String userId, String token) {
+        SignedToken signedToken = tokenSigner.verify(token);
+        if (signedToken == null || !StringUtils.equals(userId, signedToken.getUserId())) {
+            return false;
+        }
+        return revokeSignedToken(signedToken);
+    }
+
+    @Override
+    public boolean revokeSignedToken(SignedToken token) {
+        if (revocationList.revoke(token.getId(), token.getExpiresAt())) {
+            replication.revokedSigned(token.getId(), TimeUnit.SECONDS.toMillis(token.getExpiresAt()));
+            auditLog.revoked(token);
             return true;
         }
-        return ZonedDateTime.now().isAfter(token.getExpiryDate());
+        return false;
     }
 
-    private String getUserIdFromToken(Token token) {
+    private TokenValidationOutcome validateToken(String userId, Token token) {
+        if (token == null) {
+            return TokenValidationOutcome.MALFORMED;
+        }
+        String userIdFromToken = getUserIdFromToken(token, userId);
+        if (userIdFromToken == null) {
+            return TokenValidationOutcome.MALFORMED;
+        }
+        if (userId != null && !StringUtils.equals(userId, userIdFromToken)) {
+            return TokenValidationOutcome.USER_MISMATCH;
+        }
+        long expiresAt = tokenCache.getExpiresAt(token.getId(), userIdFromToken);
+        if (expiresAt == TokenStore.NO_SESSION) {
+            return TokenValidationOutcome.UNKNOWN;
+        }
+        return clock.millis() > expiresAt ? TokenValidationOutcome.EXPIRED : TokenValidationOutcome.VALID;
+    }
+
+    private TokenValidationOutcome validateSignedToken(String userId, SignedToken signedToken) {
+        if (signedToken == null) {
+            return TokenValidationOutcome.MALFORMED;
+        }
+        if (userId != null && !StringUtils.equals(userId, signedToken.getUserId())) {
+            return TokenValidationOutcome.USER_MISMATCH;
+        }
+        if (signedToken.getExpiresAt() < TimeUnit.MILLISECONDS.toSeconds(clock.millis())) {
+            return TokenValidationOutcome.EXPIRED;
+        }
+        return revocationList.isRevoked(signedToken) ? TokenValidationOutcome.REVOKED : TokenValidationOutcome.VALID;
+    }
+
+    private String generateTokenContent(User user) {
+        if (user == null) {
+            return null;
+        }
+        return Base64.getEncoder().encodeToString((user.getId() + DELIMITER + user.getUserName()).getBytes());
+    }
+
+    private long tokenDurationMillis() {
+        return TimeUnit.MINUTES.toMillis(Long.valueOf(tokenDuration));
+    }
+
+    /**
+     * @return the expiry, in epoch seconds, of a signed token issued now
+     */
+    private long signedTokenExpiry() {
+        return TimeUnit.MILLISECONDS.toSeconds(clock.millis()) + TimeUnit.MINUTES.toSeconds(Long.valueOf(tokenDuration));
+    }
+
+    /**
+     * Reads the user id out of the token content without allocating on the common path: the
+     * content is decoded into a per-thread buffer and, when it names the expected user, the
+     * expected user id itself is returned. A new String is only built when the ids differ or when
+     * no user id was expected.
+     */
+    private String getUserIdFromToken(Token token, String expectedUserId) {
         if (token == null) {
             return null;
         }
-        String userId = null;
         String tokenContent = token.getContent();
         if (!StringUtils.isEmpty(tokenContent)) {
-            String[] splitToken = new String(Base64.getDecoder().decode(tokenContent)).split("\\" + DELIMITER);
-            if (splitToken.length == 2) {
-                userId = splitToken[0];
-            }
-            if (userId != null) {
-                return userId;
+            byte[] decodedContent = decodeBuffer(tokenContent);
+            int length = Base64Decoding.decode(tokenContent, decodedContent);
+            int delimiterIndex = indexOfDelimiter(decodedContent, length);
+            if (delimiterIndex >= 0) {
+                if (expectedUserId != null && asciiEquals(expectedUserId, decodedContent, delimiterIndex)) {
+                    return expectedUserId;
+                }
+                return new String(decodedContent, 0, delimiterIndex, StandardCharsets.UTF_8);
             }
         }
-        log.debug("Could not parse token {}", token);
+        log.debug("Could not parse token content");
         return null;
     }
 
+    private byte[] decodeBuffer(String tokenContent) {
+        int maxLength = Base64Decoding.maxDecodedLength(tokenContent);
+        byte[] buffer = decodeBuffers.get();
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_BUFFER_LENGTH) {
+                decodeBuffers.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Content is userId.userName, where the user name must not be empty and must not contain the
+     * delimiter. Trailing delimiters are ignored, to match how the content used to be split.
+     *
+     * @return the index of the delimiter, or -1 if the content is malformed
+     */
+    private static int indexOfDelimiter(byte[] content, int length) {
+        while (length > 0 && content[length - 1] == DELIMITER_BYTE) {
+            length--;
+        }
+        int delimiterIndex = -1;
+        for (int i = 0; i < length; i++) {
+            if (content[i] == DELIMITER_BYTE) {
+                if (delimiterIndex >= 0) {
+                    return -1;
+                }
+                delimiterIndex = i;
+            }
+        }
+        return delimiterIndex < length - 1 ? delimiterIndex : -1;
+    }
+
+    private static boolean asciiEquals(String expected, byte[] bytes, int length) {
+        if (expected.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char character = expected.charAt(i);
+            if (character > 0x7F || character != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
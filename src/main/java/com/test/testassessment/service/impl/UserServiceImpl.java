@@ -2,36 +2,66 @@ package com.test.testassessment.service.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.SignedToken;
 import com.test.testassessment.model.Token;
+import com.test.testassessment.model.TokenCheck;
+import com.test.testassessment.model.TokenPrincipal;
 import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserCredentials;
+import com.test.testassessment.model.UserImportResult;
 import com.test.testassessment.repository.UserRepository;
+import com.test.testassessment.security.PasswordHashing;
+import com.test.testassessment.security.TokenSigner;
+import com.test.testassessment.service.BatchTooLargeException;
 import com.test.testassessment.service.UserService;
-import org.apache.commons.codec.digest.DigestUtils;
+import com.test.testassessment.util.DataResponseBodies;
+import com.test.testassessment.util.IdGenerator;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class UserServiceImpl implements UserService {
 
     private static final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
     private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
-    private final String DATA_FIELD_NAME = "data";
+    private static final String TRUE = String.valueOf(true);
     private final UserRepository userRepository;
     private final TokenService tokenService;
+    private final PasswordHashing passwordHashing;
+    private final IdGenerator idGenerator;
+    private final AuthorizationHeaderCache authorizationHeaders;
+    @Value("${test.assessment.user.import.chunk.size:500}")
+    private int importChunkSize = 500;
 
 
-    public UserServiceImpl(UserRepository userRepository, TokenService tokenService) {
+    public UserServiceImpl(UserRepository userRepository, TokenService tokenService, PasswordHashing passwordHashing, IdGenerator idGenerator,
+                           AuthorizationHeaderCache authorizationHeaders) {
         this.userRepository = userRepository;
         this.tokenService = tokenService;
+        this.passwordHashing = passwordHashing;
+        this.idGenerator = idGenerator;
+        this.authorizationHeaders = authorizationHeaders;
     }
 
     @Override
@@ -39,26 +69,94 @@ public class UserServiceImpl implements UserService {
         return userRepository.findAll();
     }
 
+    @Override
+    public List<User> getUsers(String after, int limit) {
+        return userRepository.findByIdGreaterThanOrderByIdAsc(after == null ? "" : after, PageRequest.of(0, limit));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachUser(Consumer<User> action) {
+        try (Stream<User> users = userRepository.streamAllOrderedById()) {
+            users.forEach(action);
+        }
+    }
+
     @Override
     public User saveUser(User user) {
-        if (user == null || StringUtils.isEmpty(user.getUserName()) || StringUtils.isEmpty(user.getPassword())) {
+        if (!isValidNewUser(user)) {
             return null;
         }
-        String salt = generateSalt();
-        user.setId(UUID.randomUUID().toString());
-        user.setSalt(salt);
-        user.setPassword(hashPassword(salt, user.getPassword()));
+        prepareNewUser(user);
         return userRepository.save(user);
     }
 
+    /**
+     * Reads the whole batch before creating anyone, so that a batch over {@link #MAX_BATCH_SIZE}
+     * records is refused without leaving part of it imported.
+     */
+    @Override
+    public List<UserImportResult> saveUsers(Iterator<User> users) {
+        List<User> records = new ArrayList<>();
+        boolean unreadable = false;
+        while (true) {
+            User user;
+            try {
+                if (!users.hasNext()) {
+                    break;
+                }
+                user = users.next();
+            } catch (RuntimeException e) {
+                log.info("Stopping user import at record {}, it could not be read", records.size(), e);
+                unreadable = true;
+                break;
+            }
+            if (records.size() == MAX_BATCH_SIZE) {
+                throw new BatchTooLargeException("A batch holds at most " + MAX_BATCH_SIZE + " users");
+            }
+            records.add(user);
+        }
+        List<UserImportResult> results = new ArrayList<>(records.size() + 1);
+        List<User> chunk = new ArrayList<>(importChunkSize);
+        List<Integer> chunkIndexes = new ArrayList<>(importChunkSize);
+        for (int index = 0; index < records.size(); index++) {
+            User user = records.get(index);
+            if (isValidNewUser(user)) {
+                chunk.add(user);
+                chunkIndexes.add(index);
+                if (chunk.size() == importChunkSize) {
+                    insertChunk(chunk, chunkIndexes, results);
+                    chunk = new ArrayList<>(importChunkSize);
+                    chunkIndexes = new ArrayList<>(importChunkSize);
+                }
+            } else {
+                results.add(UserImportResult.failure(index, "userName and password are required"));
+            }
+        }
+        if (!chunk.isEmpty()) {
+            insertChunk(chunk, chunkIndexes, results);
+        }
+        if (unreadable) {
+            results.add(UserImportResult.failure(records.size(), "Record could not be read"));
+        }
+        results.sort(Comparator.comparingInt(UserImportResult::getIndex));
+        log.debug("Imported {} records", records.size());
+        return results;
+    }
+
+    /**
+     * Reads the whole entity rather than the cached {@link UserCredentials}: the update writes
+     * every column, so it needs the full name and creation date the credentials do not hold, and
+     * saving evicts the cached credentials anyway.
+     */
     @Override
     public User updateUser(String userId, User user) {
         Optional<User> oldUser = userRepository.findById(userId);
         if (oldUser.isPresent()) {
             User userToUpdate = oldUser.get();
-            if (user.getPassword() != null && !StringUtils.equals(hashPassword(userToUpdate.getSalt(), userToUpdate.getPassword()), hashPassword(userToUpdate.getSalt(), user.getPassword()))) {
+            if (user.getPassword() != null && !StringUtils.equals(userToUpdate.getPassword(), user.getPassword())) {
                 log.debug("User {} has requested a password change when updating", userId);
-                user.setPassword(hashPassword(userToUpdate.getSalt(), user.getPassword()));
+                user.setPassword(passwordHashing.hash(userToUpdate.getSalt(), user.getPassword()));
             } else {
                 user.setPassword(userToUpdate.getPassword());
             }
@@ -78,10 +176,19 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public String authenticateUserByIdAndPassword(String userId, String password) {
-        Optional<User> user = userRepository.findById(userId);
-        if (user.isPresent()) {
-            User actualUser = user.get();
-            if (StringUtils.equals(actualUser.getPassword(), hashPassword(actualUser.getSalt(), password))) {
+        Optional<UserCredentials> credentials = userRepository.findCredentialsById(userId);
+        if (credentials.isPresent()) {
+            UserCredentials actualCredentials = credentials.get();
+            if (passwordHashing.matches(actualCredentials.getSalt(), password, actualCredentials.getPassword())) {
+                if (passwordHashing.needsRehash(actualCredentials.getPassword())) {
+                    rehashPassword(actualCredentials.getId(), actualCredentials.getSalt(), password);
+                }
+                User actualUser = new User();
+                actualUser.setId(actualCredentials.getId());
+                actualUser.setUserName(actualCredentials.getUserName());
+                if (tokenService.isSignedTokenFormat()) {
+                    return tokenService.generateSignedToken(actualUser);
+                }
                 Token token = tokenService.generateToken(actualUser);
                 try {
                     if (token != null) {
@@ -99,51 +206,159 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public boolean validateToken(String userId, String token) {
-        Token decodedToken = null;
-        try {
-            decodedToken = mapper.readValue(new String(Base64.getDecoder().decode(token)), Token.class);
-        } catch (JsonProcessingException | IllegalArgumentException e) {
-            log.error("Exception while validating token ", e);
+        if (TokenSigner.isSigned(token)) {
+            return tokenService.isSignedTokenValid(userId, token);
         }
-        return tokenService.isTokenValid(userId, decodedToken);
+        return tokenService.isTokenValid(userId, authorizationHeaders.decode(token));
+    }
+
+    @Override
+    public TokenPrincipal authenticate(String userId, String token) {
+        if (TokenSigner.isSigned(token)) {
+            SignedToken signedToken = tokenService.getValidSignedToken(userId, token);
+            return signedToken == null ? null : TokenPrincipal.of(userId, signedToken, token);
+        }
+        Token decodedToken = authorizationHeaders.decode(token);
+        return tokenService.isTokenValid(userId, decodedToken) ? TokenPrincipal.of(userId, decodedToken, token) : null;
+    }
+
+    @Override
+    public List<Boolean> validateTokens(Iterator<TokenCheck> checks) {
+        List<Boolean> results = new ArrayList<>();
+        TokenValidationCounts counts = new TokenValidationCounts();
+        while (checks.hasNext()) {
+            if (results.size() == MAX_BATCH_SIZE) {
+                throw new BatchTooLargeException("A batch holds at most " + MAX_BATCH_SIZE + " tokens");
+            }
+            TokenCheck check = checks.next();
+            if (check == null || check.getToken() == null) {
+                counts.add(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.MALFORMED);
+                results.add(false);
+                continue;
+            }
+            String token = check.getToken();
+            TokenValidationOutcome outcome;
+            if (TokenSigner.isSigned(token)) {
+                outcome = tokenService.checkSignedToken(check.getUserId(), token);
+                counts.add(TokenValidationMetrics.Format.SIGNED, outcome);
+            } else {
+                outcome = tokenService.checkToken(check.getUserId(), authorizationHeaders.decode(token));
+                counts.add(TokenValidationMetrics.Format.JSON, outcome);
+            }
+            results.add(outcome == TokenValidationOutcome.VALID);
+        }
+        tokenService.recordChecks(counts);
+        return results;
     }
 
     @Override
     public boolean revokeToken(String userId, String token) {
-        try {
-            Token decodedToken = mapper.readValue(new String(Base64.getDecoder().decode(token)), Token.class);
-            if (tokenService.revokeToken(userId, decodedToken)) {
+        if (TokenSigner.isSigned(token)) {
+            if (tokenService.revokeSignedToken(userId, token)) {
                 log.debug("User {} has revoked their token", userId);
                 return true;
             }
             return false;
-        } catch (JsonProcessingException | IllegalArgumentException e) {
-            log.error("Exception while revoking token ", e);
+        }
+        if (tokenService.revokeToken(userId, authorizationHeaders.decode(token))) {
+            authorizationHeaders.invalidate(token);
+            log.debug("User {} has revoked their token", userId);
+            return true;
         }
         return false;
     }
 
     @Override
-    public String buildResponse(String dataToSerialize) {
-        ObjectNode data = mapper.createObjectNode();
+    public boolean revokeToken(TokenPrincipal principal) {
+        boolean revoked = principal.getSignedToken() != null
+                ? tokenService.revokeSignedToken(principal.getSignedToken())
+                : tokenService.revokeToken(principal.getUserId(), principal.getToken());
+        if (revoked) {
+            authorizationHeaders.invalidate(principal.getAuthorization());
+            log.debug("User {} has revoked their token", principal.getUserId());
+        }
+        return revoked;
+    }
+
+    @Override
+    public void revokeAllTokens(String userId) {
+        tokenService.revokeAllTokens(userId);
+        log.debug("User {} has revoked all their tokens", userId);
+    }
+
+    @Override
+    public byte[] buildResponse(String dataToSerialize) {
+        if (TRUE.equals(dataToSerialize)) {
+            return DataResponseBodies.ofTrue();
+        }
+        return DataResponseBodies.of(dataToSerialize);
+    }
+
+    /**
+     * Hashes the chunk in parallel on the hashing threads, waiting for room in their queue rather
+     * than being shed like a login, then inserts it in one transaction. If that fails, the users
+     * are inserted one at a time so that only the offending records are reported as failed.
+     */
+    private void insertChunk(List<User> chunk, List<Integer> chunkIndexes, List<UserImportResult> results) {
+        List<String> salts = new ArrayList<>(chunk.size());
+        List<String> passwords = new ArrayList<>(chunk.size());
+        for (User user : chunk) {
+            String salt = passwordHashing.generateSalt();
+            user.setId(idGenerator.generateId());
+            user.setSalt(salt);
+            salts.add(salt);
+            passwords.add(user.getPassword());
+        }
+        List<String> hashes = passwordHashing.hashAll(salts, passwords);
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).setPassword(hashes.get(i));
+        }
         try {
-            data.put(DATA_FIELD_NAME, dataToSerialize);
-            return mapper.writeValueAsString(data);
-        } catch (JsonProcessingException e) {
-            log.error("Error while building response ", e);
+            userRepository.insertAll(chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                results.add(UserImportResult.success(chunkIndexes.get(i), chunk.get(i).getId()));
+            }
+            return;
+        } catch (DataAccessException e) {
+            log.debug("Could not insert a chunk of {} users, retrying them one at a time", chunk.size(), e);
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            User user = chunk.get(i);
+            try {
+                userRepository.insertAll(Collections.singletonList(user));
+                results.add(UserImportResult.success(chunkIndexes.get(i), user.getId()));
+            } catch (DataIntegrityViolationException e) {
+                log.debug("Could not import user {}", user.getUserName(), e);
+                results.add(UserImportResult.failure(chunkIndexes.get(i), "userName is already taken"));
+            } catch (DataAccessException e) {
+                log.error("Could not import user {}", user.getUserName(), e);
+                results.add(UserImportResult.failure(chunkIndexes.get(i), "User could not be saved"));
+            }
         }
-        return null;
     }
 
-    private String generateSalt() {
-        SecureRandom secureRandom = new SecureRandom();
-        byte[] bytes = new byte[32];
-        secureRandom.nextBytes(bytes);
-        return new String(Base64.getEncoder().encode(bytes));
+    private static boolean isValidNewUser(User user) {
+        return user != null && StringUtils.isNotEmpty(user.getUserName()) && StringUtils.isNotEmpty(user.getPassword());
     }
 
-    private String hashPassword(String salt, String password) {
-        return DigestUtils.sha256Hex(salt + password);
+    private void prepareNewUser(User user) {
+        String salt = passwordHashing.generateSalt();
+        user.setId(idGenerator.generateId());
+        user.setSalt(salt);
+        user.setPassword(passwordHashing.hash(salt, user.getPassword()));
+    }
+
+    /**
+     * Upgrades a hash made with an older algorithm or cost on login, the only time the plain
+     * password is known. Failing to do so does not fail the login.
+     */
+    private void rehashPassword(String userId, String salt, String password) {
+        try {
+            userRepository.updatePassword(userId, passwordHashing.hash(salt, password));
+            log.debug("Rehashed the password of user {} with {}", userId, passwordHashing.getAlgorithm());
+        } catch (DataAccessException | RejectedExecutionException e) {
+            log.warn("Could not rehash the password of user {}", userId, e);
+        }
     }
 
 }
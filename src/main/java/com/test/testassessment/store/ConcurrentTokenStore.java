@@ -0,0 +1,554 @@
+package com.test.testassessment.store;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Default {@link TokenStore}. Sessions are kept in open addressing hash tables made of primitive
+ * arrays, so a session takes a single 24 byte slot (token id, expiry, generation and a reference
+ * to its user) rather than a map entry and the objects it points to. Tables grow by doubling and
+ * are at most 75% full, which puts the slot at 32 to 64 bytes, and the session's entry in its
+ * expiry bucket adds 8 to 16 more.
+ * <p>
+ * Every user holding a session also costs an entry in the user map: the {@link UserSessions}, the
+ * map node and the user id string, about 73 bytes plus the string, so around 133 bytes for a 20
+ * character id. Measured, 2 million sessions took 68 bytes each when users held 10 sessions each,
+ * and 133 bytes each plus the user ids when every user held one. 10 million sessions therefore
+ * take about 700 MB when users hold several, and up to 1.9 GB when every session belongs to
+ * another user.
+ * <p>
+ * The tables are split by token id into up to 64 segments, each guarded by a {@link StampedLock}.
+ * Reads take no lock: they are only retried under a read lock when a write to the same segment
+ * raced with them. Writes lock a single segment.
+ * <p>
+ * Every user holding a session has one {@link UserSessions} entry with a generation counter,
+ * which sessions record when they are opened. Closing every session of a user increments the
+ * counter, so it takes constant time however many sessions the user holds. Sessions of an older
+ * generation stop validating at once. Closing only the sessions that expire up to some instant
+ * records that instant in the entry instead. Closed sessions keep their slot until a lookup of
+ * their token id or the sweep of their expiry second reaches them, so closing sessions never
+ * makes a sweep scan the tables. The entry is dropped with the user's last session.
+ * <p>
+ * Each segment also files its sessions by the second they expire in. Expired sessions are
+ * reclaimed by draining the buckets of the seconds that have ended, oldest first, so a sweep only
+ * visits the sessions that expired since the last one, and holds a segment's lock for a bounded
+ * chunk of them at a time. When a segment is full, the sessions of its oldest bucket are evicted.
+ * Since every token lives for the same duration, that evicts the least recently issued sessions
+ * first.
+ */
+@Component
+@ConditionalOnProperty(name = TokenStore.PROPERTY, havingValue = "heap", matchIfMissing = true)
+public class ConcurrentTokenStore implements TokenStore {
+
+    private static final long EMPTY = 0;
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 1024;
+    private static final int INITIAL_TABLE_LENGTH = 16;
+    private static final int MAX_TABLE_LENGTH = 1 << 30;
+    private static final int SWEEP_CHUNK = 1024;
+
+    private final ConcurrentMap<String, UserSessions> users = new ConcurrentHashMap<>();
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int segmentCapacity;
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final int capacity;
+
+    public ConcurrentTokenStore(@Value("${test.assessment.token.store.capacity:1000000}") int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Token store capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+        int maxTableLength = INITIAL_TABLE_LENGTH;
+        long capacityPerSegment = (capacity + (long) segmentCount - 1) / segmentCount;
+        while (maxTableLength / 4 * 3 < capacityPerSegment && maxTableLength < MAX_TABLE_LENGTH) {
+            maxTableLength <<= 1;
+        }
+        this.segmentCapacity = (int) Math.min(capacityPerSegment, maxTableLength / 4 * 3);
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxTableLength);
+        }
+    }
+
+    @Override
+    public boolean put(long tokenId, String userId, long expiresAt) {
+        if (tokenId == EMPTY) {
+            throw new IllegalArgumentException("Token id must not be " + EMPTY);
+        }
+        UserSessions user = users.compute(userId, (id, current) -> {
+            UserSessions sessions = current != null ? current : new UserSessions(id);
+            sessions.count++;
+            return sessions;
+        });
+        long hash = hash(tokenId);
+        if (segmentFor(hash).insert(hash, tokenId, expiresAt, user)) {
+            return true;
+        }
+        release(user);
+        return false;
+    }
+
+    @Override
+    public long getExpiresAt(long tokenId, String userId) {
+        long hash = hash(tokenId);
+        return segmentFor(hash).getExpiresAt(hash, tokenId, userId);
+    }
+
+    @Override
+    public boolean remove(long tokenId, String userId) {
+        long hash = hash(tokenId);
+        return segmentFor(hash).remove(hash, tokenId, userId);
+    }
+
+    @Override
+    public boolean removeAll(String userId) {
+        UserSessions user = users.computeIfPresent(userId, (id, sessions) -> {
+            sessions.generation++;
+            return sessions;
+        });
+        return user != null;
+    }
+
+    @Override
+    public boolean removeAll(String userId, long expiresAtOrBefore) {
+        UserSessions user = users.computeIfPresent(userId, (id, sessions) -> {
+            sessions.closedUntil = Math.max(sessions.closedUntil, expiresAtOrBefore);
+            return sessions;
+        });
+        return user != null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Drains the expiry buckets that ended before now, which reclaims the sessions closed by
+     * {@code removeAll} that expired as well. A segment is only locked for {@value #SWEEP_CHUNK}
+     * sessions at a time, so lookups that fall back to the lock never wait for a whole segment.
+     */
+    @Override
+    public int evictExpired(long now) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.sweep(now);
+        }
+        expiredCount.add(removed);
+        return removed;
+    }
+
+    @Override
+    public int countExpired(long now) {
+        int expired = 0;
+        for (Segment segment : segments) {
+            expired += segment.countExpired(now);
+        }
+        return expired;
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * Visits every open session, one segment at a time with that segment read locked. Sessions
+     * opened or closed concurrently may or may not be visited.
+     */
+    void forEach(SessionVisitor visitor) {
+        for (Segment segment : segments) {
+            segment.forEach(visitor);
+        }
+    }
+
+    /**
+     * Describes the store without listing its sessions, which would take time proportional to its
+     * size and leak their token ids into logs.
+     */
+    @Override
+    public String toString() {
+        return "ConcurrentTokenStore{size=" + size() + ", users=" + users.size() + ", capacity=" + capacity + '}';
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> 48) & segmentMask];
+    }
+
+    /**
+     * Drops the user's entry along with their last session. Called with a segment locked, which is
+     * safe since nothing locks a segment while updating the user map.
+     */
+    private void release(UserSessions user) {
+        users.computeIfPresent(user.userId, (id, sessions) -> sessions == user && --sessions.count == 0 ? null : sessions);
+    }
+
+    private static boolean isOpen(UserSessions user, int generation, long expiresAt) {
+        return user.generation == generation && expiresAt > user.closedUntil;
+    }
+
+    /**
+     * Token ids are random, but spreading them again keeps sequential ids from clustering. The
+     * slot is taken from the low bits and the segment from the high ones.
+     */
+    private static long hash(long tokenId) {
+        long hash = tokenId * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    interface SessionVisitor {
+
+        void visit(long tokenId, String userId, long expiresAt);
+
+    }
+
+    /**
+     * The sessions of a user. Only updated inside {@code users.compute} for its user id, which
+     * serializes every update.
+     */
+    private static final class UserSessions {
+
+        private final String userId;
+        private volatile int generation;
+        private volatile long closedUntil = Long.MIN_VALUE; // sessions expiring at or before it are closed
+        private int count;
+
+        private UserSessions(String userId) {
+            this.userId = userId;
+        }
+
+    }
+
+    private final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private final int maxTableLength;
+        private final ExpiryBuckets buckets = new ExpiryBuckets(); // guarded by the write lock
+        private Table table = new Table(INITIAL_TABLE_LENGTH);
+        private volatile int size;
+
+        private Segment(int maxTableLength) {
+            this.maxTableLength = maxTableLength;
+        }
+
+        /**
+         * Opens the session, taking over the slot of a session with the same token id that a
+         * {@code removeAll} closed.
+         */
+        private boolean insert(long hash, long tokenId, long expiresAt, UserSessions user) {
+            // read after the user's count was taken, so a concurrent removeAll either closes this session or precedes it
+            int generation = user.generation;
+            UserSessions reclaimed = null;
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(hash, tokenId);
+                if (slot >= 0) {
+                    reclaimed = table.users[slot];
+                    if (isOpen(reclaimed, table.generations[slot], table.expiries[slot])) {
+                        reclaimed = null;
+                        return false;
+                    }
+                    buckets.deleted(table.expiries[slot]);
+                    table.delete(slot);
+                    size--;
+                }
+                if (size >= segmentCapacity) {
+                    evictClosestToExpiry();
+                } else if (size >= table.ids.length / 4 * 3 && table.ids.length < maxTableLength) {
+                    table = table.resize(table.ids.length * 2);
+                }
+                table.insert(hash, tokenId, expiresAt, generation, user);
+                buckets.add(tokenId, expiresAt);
+                size++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+                if (reclaimed != null) {
+                    release(reclaimed);
+                }
+            }
+        }
+
+        private long getExpiresAt(long hash, long tokenId, String userId) {
+            long expiresAt;
+            int generation;
+            UserSessions user;
+            long stamp = lock.tryOptimisticRead();
+            boolean locked = false;
+            try {
+                while (true) {
+                    Table current = table;
+                    int slot = current.indexOf(hash, tokenId);
+                    expiresAt = slot >= 0 ? current.expiries[slot] : NO_SESSION;
+                    generation = slot >= 0 ? current.generations[slot] : 0;
+                    user = slot >= 0 ? current.users[slot] : null;
+                    if (lock.validate(stamp)) {
+                        break;
+                    }
+                    stamp = lock.readLock();
+                    locked = true;
+                }
+            } finally {
+                if (locked) {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (user == null) {
+                return NO_SESSION;
+            }
+            if (!isOpen(user, generation, expiresAt)) {
+                reclaimClosed(hash, tokenId);
+                return NO_SESSION;
+            }
+            return user.userId.equals(userId) ? expiresAt : NO_SESSION;
+        }
+
+        /**
+         * Deletes the session if a {@code removeAll} closed it, once a lookup came across it.
+         */
+        private void reclaimClosed(long hash, long tokenId) {
+            UserSessions user;
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(hash, tokenId);
+                if (slot < 0) {
+                    return;
+                }
+                user = table.users[slot];
+                if (isOpen(user, table.generations[slot], table.expiries[slot])) {
+                    return;
+                }
+                buckets.deleted(table.expiries[slot]);
+                table.delete(slot);
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            release(user);
+        }
+
+        /**
+         * Deletes the session, or reclaims it without reporting it removed if a
+         * {@code removeAll} already closed it.
+         */
+        private boolean remove(long hash, long tokenId, String userId) {
+            UserSessions user;
+            boolean open;
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(hash, tokenId);
+                if (slot < 0) {
+                    return false;
+                }
+                user = table.users[slot];
+                open = isOpen(user, table.generations[slot], table.expiries[slot]);
+                if (open && !user.userId.equals(userId)) {
+                    return false;
+                }
+                buckets.deleted(table.expiries[slot]);
+                table.delete(slot);
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            release(user);
+            return open;
+        }
+
+        /**
+         * Drains the buckets of the seconds that ended before now, oldest first. A bucket may
+         * still list sessions that were removed, or removed and opened again with another expiry;
+         * those are skipped. Sessions closed by {@code removeAll} are reclaimed without counting
+         * as expired.
+         */
+        private int sweep(long now) {
+            int[] expired = new int[1];
+            boolean more = true;
+            while (more) {
+                long stamp = lock.writeLock();
+                try {
+                    more = buckets.drain(now, SWEEP_CHUNK, (tokenId, bucket) -> {
+                        if (delete(tokenId, bucket)) {
+                            expired[0]++;
+                        }
+                    });
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+            return expired[0];
+        }
+
+        /**
+         * Deletes the session if it is still filed under that expiry second. Called with the
+         * segment write locked.
+         *
+         * @return true if the session was deleted and had not been closed by a {@code removeAll}
+         */
+        private boolean delete(long tokenId, long bucket) {
+            Table current = table;
+            int slot = current.indexOf(hash(tokenId), tokenId);
+            if (slot < 0 || ExpiryBuckets.bucketOf(current.expiries[slot]) != bucket) {
+                return false;
+            }
+            UserSessions user = current.users[slot];
+            boolean open = isOpen(user, current.generations[slot], current.expiries[slot]);
+            buckets.deleted(current.expiries[slot]);
+            current.delete(slot);
+            size--;
+            release(user);
+            return open;
+        }
+
+        private void forEach(SessionVisitor visitor) {
+            long stamp = lock.readLock();
+            try {
+                Table current = table;
+                for (int slot = 0; slot < current.ids.length; slot++) {
+                    UserSessions user = current.users[slot];
+                    if (current.ids[slot] != EMPTY && isOpen(user, current.generations[slot], current.expiries[slot])) {
+                        visitor.visit(current.ids[slot], user.userId, current.expiries[slot]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private int countExpired(long now) {
+            long stamp = lock.readLock();
+            try {
+                return buckets.countEnded(now);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Evicts the sessions of the oldest expiry second, and of the next ones if that freed no
+         * room. Called with the segment write locked.
+         */
+        private void evictClosestToExpiry() {
+            while (size >= segmentCapacity && buckets.evictOldest(this::evict)) {
+                // evictOldest deletes the sessions still filed under the oldest second
+            }
+        }
+
+        private void evict(long tokenId, long bucket) {
+            if (delete(tokenId, bucket)) {
+                evictedCount.increment();
+            }
+        }
+
+    }
+
+    /**
+     * A linear probing hash table with one slot per session across four parallel arrays. An id
+     * of {@link #EMPTY} marks a free slot. Removals shift the rest of the probe sequence back
+     * rather than leaving tombstones, so lookups never probe past the end of their cluster.
+     */
+    private static final class Table {
+
+        private final long[] ids;
+        private final long[] expiries;
+        private final int[] generations;
+        private final UserSessions[] users;
+        private final int mask;
+
+        private Table(int length) {
+            this.ids = new long[length];
+            this.expiries = new long[length];
+            this.generations = new int[length];
+            this.users = new UserSessions[length];
+            this.mask = length - 1;
+        }
+
+        /**
+         * Bounded by the table length, so it terminates even when read while a writer is changing the table.
+         */
+        private int indexOf(long hash, long tokenId) {
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long id = ids[slot];
+                if (id == tokenId) {
+                    return slot;
+                }
+                if (id == EMPTY) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(long hash, long tokenId, long expiresAt, int generation, UserSessions user) {
+            int slot = (int) hash & mask;
+            while (ids[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = tokenId;
+            expiries[slot] = expiresAt;
+            generations[slot] = generation;
+            users[slot] = user;
+        }
+
+        private void delete(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                long id = ids[next];
+                if (id == EMPTY) {
+                    break;
+                }
+                int home = (int) hash(id) & mask;
+                // the session can fill the hole if the hole lies between its home slot and where it is
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    ids[hole] = id;
+                    expiries[hole] = expiries[next];
+                    generations[hole] = generations[next];
+                    users[hole] = users[next];
+                    hole = next;
+                }
+            }
+            ids[hole] = EMPTY;
+            users[hole] = null;
+        }
+
+        private Table resize(int length) {
+            Table resized = new Table(length);
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] != EMPTY) {
+                    resized.insert(hash(ids[slot]), ids[slot], expiries[slot], generations[slot], users[slot]);
+                }
+            }
+            return resized;
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.test.testassessment.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The token ids of a segment's sessions, filed by the second they expire in, so that sweeps and
+ * evictions only visit the sessions they reclaim instead of scanning the segment. Ids are kept in
+ * primitive arrays, 8 to 16 bytes per session, which the garbage collector does not scan.
+ * <p>
+ * Ids stay filed when their session is closed early, and are only dropped when their second is
+ * drained, so a visitor may be handed sessions that no longer exist or that were opened again
+ * with another expiry. Each bucket also counts the sessions filed in it that are still held, as
+ * long as the segment reports every session it deletes, so the expired sessions can be counted
+ * without visiting them. Not thread safe: each segment guards its buckets with its lock.
+ */
+final class ExpiryBuckets {
+
+    static final long BUCKET_MILLIS = 1000;
+
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+    static long bucketOf(long expiresAt) {
+        return Math.floorDiv(expiresAt, BUCKET_MILLIS);
+    }
+
+    void add(long tokenId, long expiresAt) {
+        buckets.computeIfAbsent(bucketOf(expiresAt), second -> new Bucket()).add(tokenId);
+    }
+
+    /**
+     * Notes that a session with that expiry was deleted from the segment.
+     */
+    void deleted(long expiresAt) {
+        Bucket bucket = buckets.get(bucketOf(expiresAt));
+        if (bucket != null) {
+            bucket.held--;
+        }
+    }
+
+    /**
+     * @return the sessions still held that expire in the seconds that ended before now, in time
+     * proportional to the number of those seconds
+     */
+    int countEnded(long now) {
+        int count = 0;
+        for (Bucket bucket : buckets.headMap(bucketOf(now), false).values()) {
+            count += bucket.held;
+        }
+        return count;
+    }
+
+    /**
+     * Visits up to {@code max} ids filed under the seconds that ended before now, oldest first,
+     * and forgets them.
+     *
+     * @return true if such ids are left for another call
+     */
+    boolean drain(long now, int max, Visitor visitor) {
+        long firstLiveBucket = bucketOf(now);
+        int visited = 0;
+        while (true) {
+            Map.Entry<Long, Bucket> first = buckets.firstEntry();
+            if (first == null || first.getKey() >= firstLiveBucket) {
+                return false;
+            }
+            if (visited == max) {
+                return true;
+            }
+            Bucket bucket = first.getValue();
+            while (visited < max && bucket.drained < bucket.size) {
+                visitor.visit(bucket.ids[bucket.drained++], first.getKey());
+                visited++;
+            }
+            if (bucket.drained == bucket.size) {
+                buckets.remove(first.getKey());
+            }
+        }
+    }
+
+    /**
+     * Visits the ids of the oldest second, and forgets them.
+     *
+     * @return false if no id is filed
+     */
+    boolean evictOldest(Visitor visitor) {
+        Map.Entry<Long, Bucket> first = buckets.pollFirstEntry();
+        if (first == null) {
+            return false;
+        }
+        Bucket bucket = first.getValue();
+        for (int i = bucket.drained; i < bucket.size; i++) {
+            visitor.visit(bucket.ids[i], first.getKey());
+        }
+        return true;
+    }
+
+    interface Visitor {
+
+        /**
+         * @param bucket the second the id was filed under, see {@link #bucketOf(long)}
+         */
+        void visit(long tokenId, long bucket);
+
+    }
+
+    private static final class Bucket {
+
+        private long[] ids = new long[8];
+        private int size;
+        private int drained;
+        private int held;
+
+        private void add(long tokenId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = tokenId;
+            held++;
+        }
+
+    }
+
+}
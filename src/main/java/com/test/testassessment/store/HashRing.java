@@ -0,0 +1,115 @@
+package com.test.testassessment.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A consistent hash ring of cluster members, each placed at a number of virtual nodes, so that
+ * adding or removing a member only moves the keys of its neighbours, spread evenly over the rest.
+ * The owners of a key are the distinct members met walking the ring clockwise from its hash, the
+ * first one being its primary. Immutable, a membership change builds a new ring.
+ */
+final class HashRing {
+
+    private final List<String> members;
+    private final long[] points; // sorted hashes of the virtual nodes
+    private final int[] pointMembers; // index in members of each point
+
+    HashRing(Collection<String> members, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes per member must be positive, was " + virtualNodes);
+        }
+        this.members = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(members)));
+        if (this.members.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one member");
+        }
+        long[] hashes = new long[this.members.size() * virtualNodes];
+        for (int m = 0; m < this.members.size(); m++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[m * virtualNodes + v] = hash(this.members.get(m) + '#' + v);
+            }
+        }
+        Long[] order = new Long[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            order[i] = (long) i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a.intValue()], hashes[b.intValue()]));
+        this.points = new long[hashes.length];
+        this.pointMembers = new int[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            int index = order[i].intValue();
+            points[i] = hashes[index];
+            pointMembers[i] = index / virtualNodes;
+        }
+    }
+
+    List<String> getMembers() {
+        return members;
+    }
+
+    boolean contains(String member) {
+        return Collections.binarySearch(members, member) >= 0;
+    }
+
+    /**
+     * @return the distinct members owning the key, primary first, at most {@code count} of them
+     */
+    String[] owners(String key, int count) {
+        int wanted = Math.min(count, members.size());
+        String[] owners = new String[wanted];
+        int found = 0;
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; found < wanted; i++) {
+            String member = members.get(pointMembers[(start + i) % points.length]);
+            if (!contains(owners, found, member)) {
+                owners[found++] = member;
+            }
+        }
+        return owners;
+    }
+
+    static boolean contains(String[] owners, String member) {
+        return contains(owners, owners.length, member);
+    }
+
+    private static boolean contains(String[] owners, int length, String member) {
+        for (int i = 0; i < length; i++) {
+            if (owners[i].equals(member)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with the MurmurHash3 mixer so that keys
+     * differing only in their last characters land far apart. {@link String#hashCode()} is only 32
+     * bits wide, which makes collisions between virtual nodes likely on large rings.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing{members=" + members + ", points=" + points.length + '}';
+    }
+
+}
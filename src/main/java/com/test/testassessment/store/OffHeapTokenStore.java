@@ -0,0 +1,669 @@
+package com.test.testassessment.store;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link TokenStore} that keeps sessions outside the Java heap, for session counts at which
+ * scanning millions of on-heap objects makes full collections take seconds. Picked with
+ * {@code test.assessment.token.store=off-heap}.
+ * <p>
+ * Sessions are kept in open addressing hash tables of fixed-width 32 byte slots (token id,
+ * expiry, user id hash and generation) in direct {@link ByteBuffer}s, so the garbage collector
+ * only sees one buffer per table whatever the number of sessions. Users are kept the same way,
+ * in 24 byte slots (user id hash, generation, session count and the expiry up to which their
+ * sessions were closed). Users are known by a 64 bit hash
+ * of their id: two users whose ids collide would share their sessions' generation, so revoking
+ * every token of one would also revoke the other's. With random ids that takes billions of users.
+ * <p>
+ * Locking, generations, sweeping and eviction work as in {@link ConcurrentTokenStore}. Both tables
+ * are split into segments guarded by a {@link StampedLock}, reads are optimistic and writes lock
+ * one segment. Tables grow by doubling, the buffer they leave behind is freed once it is collected.
+ * The expiry buckets the sweep drains are the one on-heap part of a session, its token id in a
+ * primitive array, which adds 8 to 16 bytes of heap per session but no object for the collector
+ * to trace.
+ */
+@Component
+@ConditionalOnProperty(name = TokenStore.PROPERTY, havingValue = "off-heap")
+public class OffHeapTokenStore implements TokenStore {
+
+    private static final long EMPTY = 0;
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 1024;
+    private static final int INITIAL_TABLE_LENGTH = 16;
+    // a buffer holds at most 2 GB, which is 2^26 session slots
+    private static final int MAX_TABLE_LENGTH = 1 << 25;
+    private static final int SWEEP_CHUNK = 1024;
+
+    private static final int SESSION_SLOT_BYTES = 32;
+    private static final int SESSION_EXPIRY = 8;
+    private static final int SESSION_USER = 16;
+    private static final int SESSION_GENERATION = 24;
+
+    private static final int USER_SLOT_BYTES = 24;
+    private static final int USER_GENERATION = 8;
+    private static final int USER_COUNT = 12;
+    private static final int USER_CLOSED_UNTIL = 16;
+
+    private final SessionSegment[] sessionSegments;
+    private final UserSegment[] userSegments;
+    private final int segmentMask;
+    private final int segmentCapacity;
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final int capacity;
+
+    public OffHeapTokenStore(@Value("${test.assessment.token.store.capacity:1000000}") int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Token store capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+        int maxTableLength = INITIAL_TABLE_LENGTH;
+        long capacityPerSegment = (capacity + (long) segmentCount - 1) / segmentCount;
+        while (maxTableLength / 4 * 3 < capacityPerSegment && maxTableLength < MAX_TABLE_LENGTH) {
+            maxTableLength <<= 1;
+        }
+        this.segmentCapacity = (int) Math.min(capacityPerSegment, maxTableLength / 4 * 3);
+        this.segmentMask = segmentCount - 1;
+        this.sessionSegments = new SessionSegment[segmentCount];
+        this.userSegments = new UserSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            sessionSegments[i] = new SessionSegment(maxTableLength);
+            userSegments[i] = new UserSegment(maxTableLength);
+        }
+    }
+
+    @Override
+    public boolean put(long tokenId, String userId, long expiresAt) {
+        if (tokenId == EMPTY) {
+            throw new IllegalArgumentException("Token id must not be " + EMPTY);
+        }
+        long userHash = hash(userId);
+        int generation = userSegmentFor(userHash).acquire(userHash);
+        if (sessionSegmentFor(tokenId).insert(tokenId, expiresAt, userHash, generation)) {
+            return true;
+        }
+        release(userHash);
+        return false;
+    }
+
+    @Override
+    public long getExpiresAt(long tokenId, String userId) {
+        return sessionSegmentFor(tokenId).getExpiresAt(tokenId, hash(userId));
+    }
+
+    @Override
+    public boolean remove(long tokenId, String userId) {
+        return sessionSegmentFor(tokenId).remove(tokenId, hash(userId));
+    }
+
+    @Override
+    public boolean removeAll(String userId) {
+        long userHash = hash(userId);
+        return userSegmentFor(userHash).incrementGeneration(userHash);
+    }
+
+    @Override
+    public boolean removeAll(String userId, long expiresAtOrBefore) {
+        long userHash = hash(userId);
+        return userSegmentFor(userHash).closeUntil(userHash, expiresAtOrBefore);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (SessionSegment segment : sessionSegments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Drains the expiry buckets that ended before now, which reclaims the sessions closed by
+     * {@code removeAll} that expired as well. A segment is only locked for {@value #SWEEP_CHUNK}
+     * sessions at a time.
+     */
+    @Override
+    public int evictExpired(long now) {
+        int removed = 0;
+        for (SessionSegment segment : sessionSegments) {
+            removed += segment.sweep(now);
+        }
+        expiredCount.add(removed);
+        return removed;
+    }
+
+    @Override
+    public int countExpired(long now) {
+        int expired = 0;
+        for (SessionSegment segment : sessionSegments) {
+            expired += segment.countExpired(now);
+        }
+        return expired;
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * @return the bytes of direct memory taken by the tables
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < sessionSegments.length; i++) {
+            bytes += sessionSegments[i].table.buffer.capacity() + userSegments[i].table.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Describes the store without listing its sessions, which would take time proportional to its
+     * size and leak their token ids into logs.
+     */
+    @Override
+    public String toString() {
+        return "OffHeapTokenStore{size=" + size() + ", capacity=" + capacity + ", offHeapBytes=" + getOffHeapBytes() + '}';
+    }
+
+    private SessionSegment sessionSegmentFor(long tokenId) {
+        return sessionSegments[(int) (hash(tokenId) >>> 48) & segmentMask];
+    }
+
+    private UserSegment userSegmentFor(long userHash) {
+        return userSegments[(int) (userHash >>> 48) & segmentMask];
+    }
+
+    /**
+     * Drops the user along with their last session. Called with a session segment locked, which
+     * is safe since nothing locks a session segment while holding a user segment.
+     */
+    private void release(long userHash) {
+        userSegmentFor(userHash).release(userHash);
+    }
+
+    private boolean isOpen(long userHash, int generation, long expiresAt) {
+        return userSegmentFor(userHash).isOpen(userHash, generation, expiresAt);
+    }
+
+    /**
+     * Spreads a table key. Token ids are random, but spreading them again keeps sequential ids
+     * from clustering. The slot is taken from the low bits and the segment from the high ones.
+     */
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * FNV-1a over the characters of the id, spread like a token id. Never {@link #EMPTY}, since
+     * the user table uses it as its key.
+     */
+    private static long hash(String userId) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < userId.length(); i++) {
+            hash = (hash ^ userId.charAt(i)) * 0x100000001B3L;
+        }
+        hash = hash(hash);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private final class SessionSegment {
+
+        private final StampedLock lock = new StampedLock();
+        private final int maxTableLength;
+        private Table table = new Table(INITIAL_TABLE_LENGTH, SESSION_SLOT_BYTES);
+        private final ExpiryBuckets buckets = new ExpiryBuckets(); // guarded by the write lock
+        private volatile int size;
+
+        private SessionSegment(int maxTableLength) {
+            this.maxTableLength = maxTableLength;
+        }
+
+        /**
+         * Opens the session, taking over the slot of a session with the same token id that a
+         * {@code removeAll} closed.
+         */
+        private boolean insert(long tokenId, long expiresAt, long userHash, int generation) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(tokenId);
+                if (slot >= 0) {
+                    int offset = slot * SESSION_SLOT_BYTES;
+                    long sessionUser = table.buffer.getLong(offset + SESSION_USER);
+                    long sessionExpiresAt = table.buffer.getLong(offset + SESSION_EXPIRY);
+                    if (isOpen(sessionUser, table.buffer.getInt(offset + SESSION_GENERATION), sessionExpiresAt)) {
+                        return false;
+                    }
+                    buckets.deleted(sessionExpiresAt);
+                    table.delete(slot);
+                    size--;
+                    release(sessionUser);
+                }
+                if (size >= segmentCapacity) {
+                    evictClosestToExpiry();
+                } else if (size >= table.length / 4 * 3 && table.length < maxTableLength) {
+                    table = table.resize(table.length * 2);
+                }
+                int offset = table.insert(tokenId);
+                table.buffer.putLong(offset + SESSION_EXPIRY, expiresAt);
+                table.buffer.putLong(offset + SESSION_USER, userHash);
+                table.buffer.putInt(offset + SESSION_GENERATION, generation);
+                buckets.add(tokenId, expiresAt);
+                size++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private long getExpiresAt(long tokenId, long userHash) {
+            long expiresAt = NO_SESSION;
+            long sessionUser = EMPTY;
+            int generation = 0;
+            long stamp = lock.tryOptimisticRead();
+            boolean locked = false;
+            try {
+                while (true) {
+                    Table current = table;
+                    int slot = current.indexOf(tokenId);
+                    if (slot >= 0) {
+                        int offset = slot * SESSION_SLOT_BYTES;
+                        expiresAt = current.buffer.getLong(offset + SESSION_EXPIRY);
+                        sessionUser = current.buffer.getLong(offset + SESSION_USER);
+                        generation = current.buffer.getInt(offset + SESSION_GENERATION);
+                    } else {
+                        sessionUser = EMPTY;
+                    }
+                    if (lock.validate(stamp)) {
+                        break;
+                    }
+                    stamp = lock.readLock();
+                    locked = true;
+                }
+            } finally {
+                if (locked) {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (sessionUser == EMPTY) {
+                return NO_SESSION;
+            }
+            if (!isOpen(sessionUser, generation, expiresAt)) {
+                reclaimClosed(tokenId);
+                return NO_SESSION;
+            }
+            return sessionUser == userHash ? expiresAt : NO_SESSION;
+        }
+
+        /**
+         * Deletes the session if a {@code removeAll} closed it, once a lookup came across it.
+         */
+        private void reclaimClosed(long tokenId) {
+            long userHash;
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(tokenId);
+                if (slot < 0) {
+                    return;
+                }
+                int offset = slot * SESSION_SLOT_BYTES;
+                userHash = table.buffer.getLong(offset + SESSION_USER);
+                long expiresAt = table.buffer.getLong(offset + SESSION_EXPIRY);
+                if (isOpen(userHash, table.buffer.getInt(offset + SESSION_GENERATION), expiresAt)) {
+                    return;
+                }
+                buckets.deleted(expiresAt);
+                table.delete(slot);
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            release(userHash);
+        }
+
+        /**
+         * Deletes the session, or reclaims it without reporting it removed if a
+         * {@code removeAll} already closed it.
+         */
+        private boolean remove(long tokenId, long userHash) {
+            boolean open;
+            long sessionUser;
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(tokenId);
+                if (slot < 0) {
+                    return false;
+                }
+                int offset = slot * SESSION_SLOT_BYTES;
+                sessionUser = table.buffer.getLong(offset + SESSION_USER);
+                long expiresAt = table.buffer.getLong(offset + SESSION_EXPIRY);
+                open = isOpen(sessionUser, table.buffer.getInt(offset + SESSION_GENERATION), expiresAt);
+                if (open && sessionUser != userHash) {
+                    return false;
+                }
+                buckets.deleted(expiresAt);
+                table.delete(slot);
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            release(sessionUser);
+            return open;
+        }
+
+        /**
+         * Drains the buckets of the seconds that ended before now, oldest first. Sessions closed
+         * by {@code removeAll} are reclaimed without counting as expired.
+         */
+        private int sweep(long now) {
+            int[] expired = new int[1];
+            boolean more = true;
+            while (more) {
+                long stamp = lock.writeLock();
+                try {
+                    more = buckets.drain(now, SWEEP_CHUNK, (tokenId, bucket) -> {
+                        if (delete(tokenId, bucket)) {
+                            expired[0]++;
+                        }
+                    });
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+            return expired[0];
+        }
+
+        /**
+         * Deletes the session if it is still filed under that expiry second. Called with the
+         * segment write locked.
+         *
+         * @return true if the session was deleted and had not been closed by a {@code removeAll}
+         */
+        private boolean delete(long tokenId, long bucket) {
+            Table current = table;
+            int slot = current.indexOf(tokenId);
+            if (slot < 0) {
+                return false;
+            }
+            int offset = slot * SESSION_SLOT_BYTES;
+            long expiresAt = current.buffer.getLong(offset + SESSION_EXPIRY);
+            if (ExpiryBuckets.bucketOf(expiresAt) != bucket) {
+                return false;
+            }
+            long userHash = current.buffer.getLong(offset + SESSION_USER);
+            boolean open = isOpen(userHash, current.buffer.getInt(offset + SESSION_GENERATION), expiresAt);
+            buckets.deleted(expiresAt);
+            current.delete(slot);
+            size--;
+            release(userHash);
+            return open;
+        }
+
+        private int countExpired(long now) {
+            long stamp = lock.readLock();
+            try {
+                return buckets.countEnded(now);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Evicts the sessions of the oldest expiry second, and of the next ones if that freed no
+         * room. Called with the segment write locked.
+         */
+        private void evictClosestToExpiry() {
+            while (size >= segmentCapacity && buckets.evictOldest(this::evict)) {
+                // evictOldest deletes the sessions still filed under the oldest second
+            }
+        }
+
+        private void evict(long tokenId, long bucket) {
+            if (delete(tokenId, bucket)) {
+                evictedCount.increment();
+            }
+        }
+
+    }
+
+    private static final class UserSegment {
+
+        private final StampedLock lock = new StampedLock();
+        private final int maxTableLength;
+        private Table table = new Table(INITIAL_TABLE_LENGTH, USER_SLOT_BYTES);
+        private int size;
+
+        private UserSegment(int maxTableLength) {
+            this.maxTableLength = maxTableLength;
+        }
+
+        /**
+         * Counts one more session for the user, adding them if they held none.
+         *
+         * @return the user's current generation
+         */
+        private int acquire(long userHash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(userHash);
+                int offset;
+                if (slot >= 0) {
+                    offset = slot * USER_SLOT_BYTES;
+                } else {
+                    if (size >= table.length / 4 * 3 && table.length < maxTableLength) {
+                        table = table.resize(table.length * 2);
+                    }
+                    offset = table.insert(userHash);
+                    table.buffer.putLong(offset + USER_CLOSED_UNTIL, Long.MIN_VALUE);
+                    size++;
+                }
+                table.buffer.putInt(offset + USER_COUNT, table.buffer.getInt(offset + USER_COUNT) + 1);
+                return table.buffer.getInt(offset + USER_GENERATION);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void release(long userHash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(userHash);
+                if (slot < 0) {
+                    return;
+                }
+                int offset = slot * USER_SLOT_BYTES;
+                int count = table.buffer.getInt(offset + USER_COUNT) - 1;
+                if (count == 0) {
+                    table.delete(slot);
+                    size--;
+                } else {
+                    table.buffer.putInt(offset + USER_COUNT, count);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return false if the user holds no session
+         */
+        private boolean incrementGeneration(long userHash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(userHash);
+                if (slot < 0) {
+                    return false;
+                }
+                int offset = slot * USER_SLOT_BYTES;
+                table.buffer.putInt(offset + USER_GENERATION, table.buffer.getInt(offset + USER_GENERATION) + 1);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return false if the user holds no session
+         */
+        private boolean closeUntil(long userHash, long expiresAtOrBefore) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.indexOf(userHash);
+                if (slot < 0) {
+                    return false;
+                }
+                int offset = slot * USER_SLOT_BYTES;
+                long closedUntil = table.buffer.getLong(offset + USER_CLOSED_UNTIL);
+                table.buffer.putLong(offset + USER_CLOSED_UNTIL, Math.max(closedUntil, expiresAtOrBefore));
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return true if the user holds sessions of that generation, and has not closed those
+         * with that expiry
+         */
+        private boolean isOpen(long userHash, int generation, long expiresAt) {
+            long stamp = lock.tryOptimisticRead();
+            boolean locked = false;
+            try {
+                while (true) {
+                    Table current = table;
+                    int slot = current.indexOf(userHash);
+                    boolean open = slot >= 0
+                            && current.buffer.getInt(slot * USER_SLOT_BYTES + USER_GENERATION) == generation
+                            && expiresAt > current.buffer.getLong(slot * USER_SLOT_BYTES + USER_CLOSED_UNTIL);
+                    if (lock.validate(stamp)) {
+                        return open;
+                    }
+                    stamp = lock.readLock();
+                    locked = true;
+                }
+            } finally {
+                if (locked) {
+                    lock.unlockRead(stamp);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A linear probing hash table of fixed-width slots in a direct buffer, keyed by the long at
+     * the start of each slot. A key of {@link #EMPTY} marks a free slot. Removals shift the rest of
+     * the probe sequence back rather than leaving tombstones, so lookups never probe past the end
+     * of their cluster.
+     */
+    private static final class Table {
+
+        private final ByteBuffer buffer;
+        private final int slotBytes;
+        private final int length;
+        private final int mask;
+
+        private Table(int length, int slotBytes) {
+            this.buffer = ByteBuffer.allocateDirect(length * slotBytes).order(ByteOrder.nativeOrder());
+            this.slotBytes = slotBytes;
+            this.length = length;
+            this.mask = length - 1;
+        }
+
+        /**
+         * Bounded by the table length, so it terminates even when read while a writer is changing the table.
+         */
+        private int indexOf(long key) {
+            int slot = (int) hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = buffer.getLong(slot * slotBytes);
+                if (current == key) {
+                    return slot;
+                }
+                if (current == EMPTY) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Claims a free slot for the key, with the rest of the slot zeroed.
+         *
+         * @return the offset of the slot
+         */
+        private int insert(long key) {
+            int slot = (int) hash(key) & mask;
+            while (buffer.getLong(slot * slotBytes) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            int offset = slot * slotBytes;
+            buffer.putLong(offset, key);
+            for (int field = Long.BYTES; field < slotBytes; field += Long.BYTES) {
+                buffer.putLong(offset + field, 0);
+            }
+            return offset;
+        }
+
+        private void delete(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                long key = buffer.getLong(next * slotBytes);
+                if (key == EMPTY) {
+                    break;
+                }
+                int home = (int) hash(key) & mask;
+                // the slot can fill the hole if the hole lies between its home slot and where it is
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    copy(next, hole);
+                    hole = next;
+                }
+            }
+            buffer.putLong(hole * slotBytes, EMPTY);
+        }
+
+        private void copy(int from, int to) {
+            for (int field = 0; field < slotBytes; field += Long.BYTES) {
+                buffer.putLong(to * slotBytes + field, buffer.getLong(from * slotBytes + field));
+            }
+        }
+
+        private Table resize(int length) {
+            Table resized = new Table(length, slotBytes);
+            for (int slot = 0; slot < this.length; slot++) {
+                long key = buffer.getLong(slot * slotBytes);
+                if (key != EMPTY) {
+                    int offset = resized.insert(key);
+                    for (int field = Long.BYTES; field < slotBytes; field += Long.BYTES) {
+                        resized.buffer.putLong(offset + field, buffer.getLong(slot * slotBytes + field));
+                    }
+                }
+            }
+            return resized;
+        }
+
+    }
+
+}
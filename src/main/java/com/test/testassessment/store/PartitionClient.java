@@ -0,0 +1,312 @@
+package com.test.testassessment.store;
+
+import com.test.testassessment.security.ClusterAuthenticator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to the {@link PartitionServer} of another member over a small pool of
+ * connections, each shared by every request thread. Requests are pipelined: a thread writes its
+ * request and waits for the answer without holding the connection, which a reader thread matches
+ * back to the request by its id. A thread only flushes when no other thread is waiting to write
+ * behind it, so concurrent requests leave in a single write.
+ * <p>
+ * A connection that fails fails the requests waiting on it and is reopened by the next request.
+ * A member that cannot be connected to is considered down for the request timeout, during which
+ * requests to it fail straight away rather than each waiting to connect. A request that times out
+ * is forgotten, and after {@value #MAX_TIMEOUTS} in a row without an answer in between the
+ * connection is dropped and the member considered down as well, so a member that accepts
+ * requests but stalls neither piles up requests nor makes every one of them wait the timeout.
+ * <p>
+ * Each connection starts by proving that both ends know the cluster secret, then names this member,
+ * see {@link PartitionServer}.
+ */
+final class PartitionClient implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionClient.class);
+    private static final int MAX_TIMEOUTS = 3;
+    private final String member;
+    private final String self;
+    private final ClusterAuthenticator authenticator;
+    private final String host;
+    private final int port;
+    private final long timeoutMillis;
+    private final Connection[] connections;
+    private volatile long downUntil;
+    private volatile boolean closed;
+
+    PartitionClient(String member, String self, ClusterAuthenticator authenticator, int connections, long timeoutMillis) {
+        int colon = member.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Cluster members are host:port, was " + member);
+        }
+        this.member = member;
+        this.self = self;
+        this.authenticator = authenticator;
+        this.host = member.substring(0, colon);
+        this.port = Integer.parseInt(member.substring(colon + 1));
+        this.timeoutMillis = timeoutMillis;
+        this.connections = new Connection[Math.max(1, connections)];
+        for (int i = 0; i < this.connections.length; i++) {
+            this.connections[i] = new Connection(i);
+        }
+    }
+
+    String getMember() {
+        return member;
+    }
+
+    /**
+     * Sends a request without waiting for its answer.
+     *
+     * @return the answer, or an {@link IOException} if the member could not be reached
+     */
+    CompletableFuture<Long> send(byte op, long tokenId, String userId, long expiresAt) {
+        return pick().send(op, tokenId, userId, expiresAt, true);
+    }
+
+    /**
+     * As {@link #send(byte, long, String, long)}, leaving the request buffered until the next
+     * {@link #flush()}, for a thread sending many requests in a row.
+     */
+    CompletableFuture<Long> sendLater(byte op, long tokenId, String userId, long expiresAt) {
+        return connections[0].send(op, tokenId, userId, expiresAt, false);
+    }
+
+    void flush() {
+        for (Connection connection : connections) {
+            connection.flush();
+        }
+    }
+
+    /**
+     * Sends a request and waits for its answer, up to the request timeout.
+     */
+    long call(byte op, long tokenId, String userId, long expiresAt) throws IOException {
+        return await(send(op, tokenId, userId, expiresAt));
+    }
+
+    long await(CompletableFuture<Long> answer) throws IOException {
+        try {
+            return answer.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            IOException timeout = new IOException("Token partition member " + member + " did not answer within " + timeoutMillis + " ms");
+            if (answer instanceof Answer) {
+                ((Answer) answer).timedOut(timeout);
+            }
+            throw timeout;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Connection connection : connections) {
+            connection.close(new IOException("Token partition client closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionClient{member=" + member + '}';
+    }
+
+    private Connection pick() {
+        return connections[connections.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(connections.length)];
+    }
+
+    /**
+     * The answer to a request, which knows where it is waited for.
+     */
+    private static final class Answer extends CompletableFuture<Long> {
+
+        private final Connection connection;
+        private final int id;
+
+        private Answer(Connection connection, int id) {
+            this.connection = connection;
+            this.id = id;
+        }
+
+        private void timedOut(IOException cause) {
+            connection.timedOut(this, cause);
+        }
+
+    }
+
+    private final class Connection {
+
+        private final int index;
+        private final Map<Integer, CompletableFuture<Long>> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicInteger writers = new AtomicInteger();
+        private final AtomicInteger timeouts = new AtomicInteger(); // in a row, since the last answer
+        private Socket socket;
+        private DataOutputStream out;
+
+        Connection(int index) {
+            this.index = index;
+        }
+
+        CompletableFuture<Long> send(byte op, long tokenId, String userId, long expiresAt, boolean flush) {
+            int id = nextId.incrementAndGet();
+            Answer answer = new Answer(this, id);
+            if (flush) {
+                writers.incrementAndGet();
+            }
+            synchronized (this) {
+                // buffered requests are not counted, so that they never hold back the flush of another thread
+                boolean last = flush && writers.decrementAndGet() == 0;
+                try {
+                    DataOutputStream out = open();
+                    pending.put(id, answer);
+                    out.writeInt(id);
+                    out.writeByte(op);
+                    out.writeLong(tokenId);
+                    out.writeLong(expiresAt);
+                    out.writeUTF(userId);
+                    if (last) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    pending.remove(id);
+                    answer.completeExceptionally(e);
+                    close(e);
+                }
+            }
+            return answer;
+        }
+
+        synchronized void flush() {
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    close(e);
+                }
+            }
+        }
+
+        private DataOutputStream open() throws IOException {
+            if (out != null) {
+                return out;
+            }
+            if (closed) {
+                throw new IOException("Token partition client closed");
+            }
+            if (System.currentTimeMillis() < downUntil) {
+                throw new IOException("Token partition member " + member + " is down");
+            }
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                int timeout = (int) Math.min(timeoutMillis, Integer.MAX_VALUE);
+                socket.connect(new InetSocketAddress(host, port), timeout);
+                socket.setSoTimeout(timeout);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), PartitionServer.BUFFER_BYTES));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), PartitionServer.BUFFER_BYTES));
+                out.writeInt(PartitionServer.MAGIC);
+                authenticator.connect(PartitionServer.MAGIC, in, out);
+                out.writeUTF(self);
+                socket.setSoTimeout(0);
+                Thread reader = new Thread(() -> read(socket, in), "token-partition-client-" + member + "-" + index);
+                reader.setDaemon(true);
+                reader.start();
+                this.socket = socket;
+                this.out = out;
+                timeouts.set(0);
+                return out;
+            } catch (IOException e) {
+                PartitionServer.closeQuietly(socket);
+                downUntil = System.currentTimeMillis() + timeoutMillis;
+                log.warn("Could not connect to token partition member {}: {}", member, e.toString());
+                throw e;
+            }
+        }
+
+        private void read(Socket socket, DataInputStream in) {
+            try {
+                while (true) {
+                    int id = in.readInt();
+                    long result = in.readLong();
+                    timeouts.set(0);
+                    CompletableFuture<Long> answer = pending.remove(id);
+                    if (answer != null) {
+                        answer.complete(result);
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (this.socket == socket) {
+                        close(e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Forgets a request that was not answered in time, and drops the connection once too many
+         * were not in a row.
+         */
+        private void timedOut(Answer answer, IOException cause) {
+            if (pending.remove(answer.id, answer)) {
+                answer.completeExceptionally(cause);
+            }
+            if (timeouts.incrementAndGet() >= MAX_TIMEOUTS) {
+                synchronized (this) {
+                    if (socket != null) {
+                        log.warn("Token partition member {} left {} requests in a row unanswered, dropping its connection", member, MAX_TIMEOUTS);
+                        downUntil = System.currentTimeMillis() + timeoutMillis;
+                        close(cause);
+                    }
+                }
+                timeouts.set(0);
+            }
+        }
+
+        /**
+         * Drops the connection, failing the requests waiting on it.
+         */
+        synchronized void close(IOException cause) {
+            if (socket != null) {
+                PartitionServer.closeQuietly(socket);
+                socket = null;
+                out = null;
+                if (!closed) {
+                    log.debug("Lost a connection to token partition member {}", member, cause);
+                }
+            }
+            for (Integer id : pending.keySet()) {
+                CompletableFuture<Long> answer = pending.remove(id);
+                if (answer != null) {
+                    answer.completeExceptionally(cause);
+                }
+            }
+        }
+
+    }
+
+}
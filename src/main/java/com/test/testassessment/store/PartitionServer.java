@@ -0,0 +1,175 @@
+package com.test.testassessment.store;
+
+import com.test.testassessment.security.ClusterAuthenticator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the partition of the sessions held by this member to the other members of the
+ * cluster, see {@link PartitionedTokenStore}. Each connection gets a thread of its own, which
+ * reads requests one after the other and answers them in order. Clients pipeline their requests,
+ * so answers are only flushed once no further request is already waiting to be read, which turns
+ * a burst of requests into a single write.
+ * <p>
+ * A connection starts with {@link #MAGIC}, then both ends prove they know the cluster secret, see
+ * {@link ClusterAuthenticator}, and the client names the member it is. Then each request is its
+ * id, its operation, a token id, an expiry and a user id, and is answered by its id and a result,
+ * see {@link Handler}. A client that does not know the secret is disconnected before any request
+ * is read, and one that does not complete the handshake within {@link #HANDSHAKE_TIMEOUT_MILLIS}
+ * too. At most {@link #MAX_HANDSHAKES} connections may be handshaking at once, further ones are
+ * closed straight away, so clients that cannot authenticate cannot take every thread.
+ */
+final class PartitionServer implements Closeable {
+
+    static final int MAGIC = 0x544B5054; // TKPT
+    static final byte PUT = 1;
+    static final byte GET = 2;
+    static final byte REMOVE = 3;
+    static final byte REMOVE_ALL = 4;
+    static final byte MEMBERS = 5;
+    static final byte REMOVE_ALL_UNTIL = 6;
+    static final int BUFFER_BYTES = 16 * 1024;
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    static final int MAX_HANDSHAKES = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionServer.class);
+    private final ClusterAuthenticator authenticator;
+    private final Handler handler;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Semaphore handshakes = new Semaphore(MAX_HANDSHAKES);
+    private volatile boolean closed;
+
+    PartitionServer(String bind, int port, ClusterAuthenticator authenticator, Handler handler) {
+        this.authenticator = authenticator;
+        this.handler = handler;
+        try {
+            this.serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(bind, port), 64);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen for token partition requests on " + bind + ":" + port, e);
+        }
+        Thread acceptor = new Thread(this::accept, "token-partition-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Could not accept a token partition connection", e);
+                }
+                continue;
+            }
+            if (!handshakes.tryAcquire()) {
+                log.warn("Refusing a token partition connection from {}, {} others have not authenticated yet",
+                        socket.getRemoteSocketAddress(), MAX_HANDSHAKES);
+                closeQuietly(socket);
+                continue;
+            }
+            sockets.add(socket);
+            Thread thread = new Thread(() -> serve(socket), "token-partition-server-" + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        boolean handshaking = true;
+        try {
+            socket.setTcpNoDelay(true);
+            // an unauthenticated client only gets to hold the thread for so long
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+            int magic = in.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a token partition client, it sent " + Integer.toHexString(magic));
+            }
+            authenticator.accept(MAGIC, in, out);
+            String member = in.readUTF();
+            socket.setSoTimeout(0);
+            handshakes.release();
+            handshaking = false;
+            while (!closed) {
+                int id = in.readInt();
+                byte op = in.readByte();
+                long tokenId = in.readLong();
+                long expiresAt = in.readLong();
+                String userId = in.readUTF();
+                out.writeInt(id);
+                out.writeLong(handler.handle(member, op, tokenId, userId, expiresAt));
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("Token partition client {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                log.warn("Closing the token partition connection of {}", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            if (handshaking) {
+                handshakes.release();
+            }
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Could not close {}", closeable, e);
+        }
+    }
+
+    interface Handler {
+
+        /**
+         * Applies a request to the sessions held by this member.
+         *
+         * @param member the {@code host:port} the client connected as, which knows the cluster secret
+         *
+         * @return for {@link #GET} the expiry of the session or {@link TokenStore#NO_SESSION},
+         * otherwise 1 if the operation changed something and 0 if not
+         */
+        long handle(String member, byte op, long tokenId, String userId, long expiresAt) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.test.testassessment.store;
+
+/**
+ * Thrown by {@link PartitionedTokenStore} when none of the members owning a user's sessions
+ * could be reached, so the request can be refused as temporarily unavailable rather than
+ * answered as if the session did not exist.
+ */
+public class PartitionUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PartitionUnavailableException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,611 @@
+package com.test.testassessment.store;
+
+import com.test.testassessment.replication.TokenReplication;
+import com.test.testassessment.security.ClusterAuthenticator;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link TokenStore} partitioned by user id across the instances of a cluster, so that each holds
+ * a share of the sessions instead of all of them. Picked with
+ * {@code test.assessment.token.store=partitioned}, listening on
+ * {@code test.assessment.token.partition.port} of {@code test.assessment.token.partition.bind} and
+ * joining the {@code host:port} members of {@code test.assessment.token.partition.members}. Every
+ * instance should list every member, itself included as {@code test.assessment.token.partition.self}.
+ * Members only serve each other once both ends of the connection proved they know
+ * {@code test.assessment.token.partition.secret}, see {@link ClusterAuthenticator}.
+ * <p>
+ * The members are placed on a {@link HashRing} at {@code test.assessment.token.partition.virtual.nodes}
+ * points each. The sessions of a user are held by the first
+ * {@code test.assessment.token.partition.replicas} members following the user id on the ring, in
+ * a {@link ConcurrentTokenStore}. Sessions are opened and closed on all of them, and looked up on
+ * the first one, the primary, falling over to the next when a member cannot be reached. Requests
+ * for sessions held by other members are forwarded to them by {@link PartitionClient}, which
+ * waits up to {@code test.assessment.token.partition.timeout.millis} for an answer. When no owner
+ * can be reached, a {@link PartitionUnavailableException} is thrown.
+ * <p>
+ * A membership change, by {@link #setMembers(Collection)} or by a member starting up, is sent to
+ * every member, which only accepts it from the members it was configured with or currently has.
+ * Each one then hands the sessions it holds over to their new owners in the
+ * background, and drops those it no longer owns. For
+ * {@code test.assessment.token.partition.rebalance.grace.millis} after a change, sessions not
+ * found on their new owners are also looked up on their previous ones, and closed on both. A
+ * member that starts up is handed its sessions back the same way, which restores those it held
+ * before a restart. Members that fail are not removed from the ring by themselves: their
+ * replicas answer in the meantime.
+ * <p>
+ * Signed tokens are not held by the store, and their revocations are kept by the
+ * {@link RevocationList} of each instance. Without replication they would only be rejected by
+ * the instance that revoked them, so issuing signed tokens with this store needs
+ * {@code test.assessment.token.replication=peers}, which sends revocations to every instance.
+ * <p>
+ * {@link #size()}, {@link #evictExpired(long)} and the other maintenance operations only cover
+ * the sessions held by this member. Reported by {@code token.partition.forwarded},
+ * {@code token.partition.failovers}, {@code token.partition.handoffs} and the
+ * {@code token.partition.rebalance} timer.
+ */
+@Component
+@ConditionalOnProperty(name = TokenStore.PROPERTY, havingValue = "partitioned")
+public class PartitionedTokenStore implements TokenStore, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionedTokenStore.class);
+    private static final long UNREACHABLE = -1;
+    private static final int HANDOFF_BATCH_SIZE = 1024;
+    private final ConcurrentTokenStore sessions;
+    private final Clock clock;
+    private final String self;
+    private final int replicas;
+    private final int virtualNodes;
+    private final int connections;
+    private final long timeoutMillis;
+    private final long graceMillis;
+    private final Set<String> configured; // members that may announce membership changes, whatever the ring
+    private final ClusterAuthenticator authenticator;
+    private final Map<String, PartitionClient> clients = new ConcurrentHashMap<>();
+    private final PartitionServer server;
+    private final ExecutorService rebalancer;
+    private final AtomicInteger rebalancing = new AtomicInteger();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder handoffs = new LongAdder();
+    private final Timer rebalance;
+    private volatile HashRing ring;
+    private volatile HashRing previousRing;
+    private volatile long previousUntil; // epoch milliseconds until which the previous ring is looked up too
+
+    public PartitionedTokenStore(Clock clock,
+                                 MeterRegistry registry,
+                                 @Value("${test.assessment.token.store.capacity:1000000}") int capacity,
+                                 @Value("${test.assessment.token.partition.port:7080}") int port,
+                                 @Value("${test.assessment.token.partition.bind:localhost}") String bind,
+                                 @Value("${test.assessment.token.partition.self:}") String self,
+                                 @Value("${test.assessment.token.partition.members:}") String members,
+                                 @Value("${test.assessment.token.partition.secret:}") String secret,
+                                 @Value("${test.assessment.token.partition.replicas:2}") int replicas,
+                                 @Value("${test.assessment.token.partition.virtual.nodes:128}") int virtualNodes,
+                                 @Value("${test.assessment.token.partition.connections:2}") int connections,
+                                 @Value("${test.assessment.token.partition.timeout.millis:1000}") long timeoutMillis,
+                                 @Value("${test.assessment.token.partition.rebalance.grace.millis:60000}") long graceMillis,
+                                 @Value("${test.assessment.token.format:json}") String tokenFormat,
+                                 @Value("${" + TokenReplication.PROPERTY + ":none}") String replication) {
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("Token partition replicas must be positive, was " + replicas);
+        }
+        if ("signed".equalsIgnoreCase(tokenFormat) && "none".equals(replication)) {
+            throw new IllegalArgumentException("The partitioned token store needs " + TokenReplication.PROPERTY + "=peers to issue "
+                    + "signed tokens, whose revocations are only held by the instance that revoked them otherwise");
+        }
+        this.sessions = new ConcurrentTokenStore(capacity);
+        this.clock = clock;
+        this.replicas = replicas;
+        this.virtualNodes = virtualNodes;
+        this.connections = connections;
+        this.timeoutMillis = timeoutMillis;
+        this.graceMillis = graceMillis;
+        this.authenticator = new ClusterAuthenticator(secret, "test.assessment.token.partition.secret");
+        this.rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-partition-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.configured = parseMembers(members);
+        this.server = new PartitionServer(bind, port, authenticator, this::handle);
+        this.self = self.trim().isEmpty() ? "localhost:" + server.getPort() : self.trim();
+        Set<String> initial = new LinkedHashSet<>(configured);
+        initial.add(this.self);
+        synchronized (this) {
+            // unless another member already announced the members
+            if (ring == null) {
+                ring = new HashRing(initial, virtualNodes);
+            }
+        }
+        this.rebalance = Timer.builder("token.partition.rebalance")
+                .description("Time taken to hand sessions over to their new owners after a membership change")
+                .register(registry);
+        bindMetrics(registry);
+        log.info("Partitioning tokens on port {} as {} of {}", server.getPort(), this.self, ring.getMembers());
+        if (ring.getMembers().size() > 1) {
+            // asks the other members for the sessions this one owns, in case it is restarting
+            HashRing joined = ring;
+            rebalancer.execute(() -> announce(joined.getMembers(), joined.getMembers(), this.self));
+        }
+    }
+
+    /**
+     * @return the port listened on, which is picked by the system when 0 was configured
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * @return the {@code host:port} this member is known as by the others
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getMembers() {
+        return ring.getMembers();
+    }
+
+    /**
+     * Changes the members of the cluster, on every current and future member, each of which then
+     * hands over the sessions that changed owners. Returns once every reachable member was told,
+     * before the sessions are handed over.
+     *
+     * @param members {@code host:port} of each member, including this one unless it is leaving
+     */
+    public void setMembers(Collection<String> members) {
+        HashRing next = new HashRing(members, virtualNodes);
+        Set<String> recipients = new LinkedHashSet<>(ring.getMembers());
+        recipients.addAll(next.getMembers());
+        announce(recipients, next.getMembers(), null);
+        changeMembers(next, null);
+    }
+
+    /**
+     * @return true while sessions are being handed over after a membership change
+     */
+    public boolean isRebalancing() {
+        return rebalancing.get() > 0;
+    }
+
+    @Override
+    public boolean put(long tokenId, String userId, long expiresAt) {
+        String[] owners = ring.owners(userId, replicas);
+        long[] results = sendAll(owners, PartitionServer.PUT, tokenId, userId, expiresAt);
+        // the primary decides, the other owners only keep a copy
+        for (long result : results) {
+            if (result != UNREACHABLE) {
+                return result == 1;
+            }
+        }
+        throw unavailable(userId, owners);
+    }
+
+    @Override
+    public long getExpiresAt(long tokenId, String userId) {
+        String[] owners = ring.owners(userId, replicas);
+        long expiresAt = UNREACHABLE;
+        int answered = 0;
+        for (; answered < owners.length; answered++) {
+            expiresAt = get(owners[answered], tokenId, userId);
+            if (expiresAt != UNREACHABLE) {
+                break;
+            }
+        }
+        if (expiresAt == UNREACHABLE) {
+            throw unavailable(userId, owners);
+        }
+        if (expiresAt == NO_SESSION && clock.millis() < previousUntil) {
+            // the session may not have been handed over yet, or only to another owner
+            for (String owner : previousOwners(userId, owners)) {
+                if (!owner.equals(owners[answered])) {
+                    long previous = get(owner, tokenId, userId);
+                    if (previous != UNREACHABLE && previous != NO_SESSION) {
+                        return previous;
+                    }
+                }
+            }
+        }
+        return expiresAt;
+    }
+
+    @Override
+    public boolean remove(long tokenId, String userId) {
+        return closeAll(PartitionServer.REMOVE, tokenId, userId, 0);
+    }
+
+    @Override
+    public boolean removeAll(String userId) {
+        return closeAll(PartitionServer.REMOVE_ALL, 0, userId, 0);
+    }
+
+    @Override
+    public boolean removeAll(String userId, long expiresAtOrBefore) {
+        return closeAll(PartitionServer.REMOVE_ALL_UNTIL, 0, userId, expiresAtOrBefore);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    @Override
+    public int evictExpired(long now) {
+        return sessions.evictExpired(now);
+    }
+
+    @Override
+    public int countExpired(long now) {
+        return sessions.countExpired(now);
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return sessions.getExpiredCount();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return sessions.getEvictedCount();
+    }
+
+    @Override
+    public void destroy() {
+        server.close();
+        rebalancer.shutdownNow();
+        for (PartitionClient client : clients.values()) {
+            client.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionedTokenStore{self=" + self + ", ring=" + ring + ", sessions=" + sessions + '}';
+    }
+
+    /**
+     * Closes sessions on every owner, and during the grace period on the previous owners too, so
+     * that a session being handed over cannot survive on either side.
+     */
+    private boolean closeAll(byte op, long tokenId, String userId, long expiresAt) {
+        String[] owners = ring.owners(userId, replicas);
+        if (clock.millis() < previousUntil) {
+            owners = previousOwners(userId, owners);
+        }
+        long[] results = sendAll(owners, op, tokenId, userId, expiresAt);
+        boolean reached = false;
+        boolean closed = false;
+        for (long result : results) {
+            reached |= result != UNREACHABLE;
+            closed |= result == 1;
+        }
+        if (!reached) {
+            throw unavailable(userId, owners);
+        }
+        return closed;
+    }
+
+    /**
+     * @return the given owners followed by the owners in the previous ring, if it is still looked up
+     */
+    private String[] previousOwners(String userId, String[] owners) {
+        HashRing previous = previousRing;
+        if (previous == null) {
+            return owners;
+        }
+        Set<String> all = new LinkedHashSet<>(Arrays.asList(owners));
+        all.addAll(Arrays.asList(previous.owners(userId, replicas)));
+        return all.toArray(new String[0]);
+    }
+
+    /**
+     * @return the expiry held by the owner, or {@link #UNREACHABLE}
+     */
+    private long get(String owner, long tokenId, String userId) {
+        if (owner.equals(self)) {
+            return sessions.getExpiresAt(tokenId, userId);
+        }
+        forwarded.increment();
+        try {
+            return client(owner).call(PartitionServer.GET, tokenId, userId, 0);
+        } catch (IOException e) {
+            failovers.increment();
+            log.debug("Could not look up a session on {}", owner, e);
+            return UNREACHABLE;
+        }
+    }
+
+    /**
+     * Sends a request to every owner at once, applying it locally while the others answer.
+     *
+     * @return the result of each owner, or {@link #UNREACHABLE}
+     */
+    private long[] sendAll(String[] owners, byte op, long tokenId, String userId, long expiresAt) {
+        long[] results = new long[owners.length];
+        List<CompletableFuture<Long>> answers = new ArrayList<>(owners.length);
+        for (String owner : owners) {
+            if (owner.equals(self)) {
+                answers.add(null);
+            } else {
+                forwarded.increment();
+                answers.add(client(owner).send(op, tokenId, userId, expiresAt));
+            }
+        }
+        for (int i = 0; i < owners.length; i++) {
+            if (answers.get(i) == null) {
+                results[i] = apply(op, tokenId, userId, expiresAt);
+            }
+        }
+        for (int i = 0; i < owners.length; i++) {
+            CompletableFuture<Long> answer = answers.get(i);
+            if (answer != null) {
+                try {
+                    results[i] = client(owners[i]).await(answer);
+                } catch (IOException e) {
+                    failovers.increment();
+                    log.debug("Could not update a session on {}", owners[i], e);
+                    results[i] = UNREACHABLE;
+                }
+            }
+        }
+        return results;
+    }
+
+    private long apply(byte op, long tokenId, String userId, long expiresAt) {
+        switch (op) {
+            case PartitionServer.PUT:
+                return sessions.put(tokenId, userId, expiresAt) ? 1 : 0;
+            case PartitionServer.GET:
+                return sessions.getExpiresAt(tokenId, userId);
+            case PartitionServer.REMOVE:
+                return sessions.remove(tokenId, userId) ? 1 : 0;
+            case PartitionServer.REMOVE_ALL:
+                return sessions.removeAll(userId) ? 1 : 0;
+            case PartitionServer.REMOVE_ALL_UNTIL:
+                return sessions.removeAll(userId, expiresAt) ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Unknown token partition operation " + op);
+        }
+    }
+
+    /**
+     * Serves requests from other members, always on the sessions held here. Membership changes are
+     * only accepted from known members, and joins only from the member joining.
+     *
+     * @return for a membership change, 1 if it was accepted and 0 if not
+     */
+    private long handle(String sender, byte op, long tokenId, String userId, long expiresAt) {
+        if (op != PartitionServer.MEMBERS) {
+            return apply(op, tokenId, userId, expiresAt);
+        }
+        // members announced as "joiner;host:port,host:port", the joiner being empty for a plain change
+        int separator = userId.indexOf(';');
+        String joiner = userId.substring(0, separator);
+        HashRing current = ring;
+        if (!configured.contains(sender) && (current == null || !current.getMembers().contains(sender))
+                || !joiner.isEmpty() && !joiner.equals(sender)) {
+            log.warn("Refusing token partition members {} from {}, it is not a known member", userId, sender);
+            return 0;
+        }
+        changeMembers(new HashRing(parseMembers(userId.substring(separator + 1)), virtualNodes), joiner.isEmpty() ? null : joiner);
+        return 1;
+    }
+
+    private void announce(Collection<String> recipients, List<String> members, String joiner) {
+        String message = (joiner == null ? "" : joiner) + ';' + String.join(",", members);
+        List<PartitionClient> told = new ArrayList<>();
+        List<CompletableFuture<Long>> answers = new ArrayList<>();
+        for (String recipient : recipients) {
+            if (!recipient.equals(self)) {
+                PartitionClient client = client(recipient);
+                told.add(client);
+                answers.add(client.send(PartitionServer.MEMBERS, 0, message, 0));
+            }
+        }
+        for (int i = 0; i < told.size(); i++) {
+            try {
+                if (told.get(i).await(answers.get(i)) == 0) {
+                    log.warn("Token partition member {} refused members {}, it does not know this one", told.get(i).getMember(), members);
+                }
+            } catch (IOException e) {
+                log.warn("Could not tell token partition member {} about members {}: {}", told.get(i).getMember(), members, e.toString());
+            }
+        }
+    }
+
+    private void changeMembers(HashRing next, String joiner) {
+        HashRing current;
+        synchronized (this) {
+            current = ring;
+            if (current == null) {
+                // announced while starting up, nothing is held yet
+                ring = next;
+                return;
+            }
+            if (current.getMembers().equals(next.getMembers()) && joiner == null) {
+                return;
+            }
+            rebalancing.incrementAndGet();
+            // the ring is swapped first, so that no session is opened on a member handing over
+            previousRing = current;
+            previousUntil = clock.millis() + graceMillis;
+            ring = next;
+        }
+        log.info("Token partition members changed from {} to {}{}", current.getMembers(), next.getMembers(),
+                joiner == null ? "" : ", " + joiner + " joined");
+        rebalancer.execute(() -> {
+            try {
+                handOff(current, next, joiner);
+            } catch (RuntimeException e) {
+                log.error("Could not hand over token sessions to their new owners", e);
+            } finally {
+                rebalancing.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Sends every session held here to the owners it gained in the new ring, and to the member
+     * that joined, then drops the sessions this member no longer owns. Sessions are sent in
+     * pipelined batches, flushed once per batch. Once a batch is acknowledged, the sessions closed here in the meantime
+     * are closed on their new owners too, since the close may have reached them first.
+     */
+    private void handOff(HashRing from, HashRing to, String joiner) {
+        long start = System.nanoTime();
+        Snapshot snapshot = new Snapshot();
+        sessions.forEach(snapshot::add);
+        int handedOff = 0;
+        int dropped = 0;
+        int failed = 0;
+        List<String> targets = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        List<CompletableFuture<Long>> answers = new ArrayList<>();
+        boolean[] keep = new boolean[snapshot.size];
+        for (int batch = 0; batch < snapshot.size; batch += HANDOFF_BATCH_SIZE) {
+            int end = Math.min(batch + HANDOFF_BATCH_SIZE, snapshot.size);
+            for (int i = batch; i < end; i++) {
+                String userId = snapshot.userIds[i];
+                String[] owners = to.owners(userId, replicas);
+                String[] previous = from.owners(userId, replicas);
+                keep[i] = HashRing.contains(owners, self);
+                for (String owner : owners) {
+                    if (!owner.equals(self) && (!HashRing.contains(previous, owner) || owner.equals(joiner))) {
+                        targets.add(owner);
+                        indexes.add(i);
+                        answers.add(client(owner).sendLater(PartitionServer.PUT, snapshot.tokenIds[i], userId, snapshot.expiresAt[i]));
+                    }
+                }
+            }
+            flush(targets);
+            for (int j = 0; j < answers.size(); j++) {
+                int i = indexes.get(j);
+                try {
+                    client(targets.get(j)).await(answers.get(j));
+                    handedOff++;
+                    if (sessions.getExpiresAt(snapshot.tokenIds[i], snapshot.userIds[i]) == NO_SESSION) {
+                        client(targets.get(j)).sendLater(PartitionServer.REMOVE, snapshot.tokenIds[i], snapshot.userIds[i], 0);
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    keep[i] = true;
+                }
+            }
+            flush(targets);
+            targets.clear();
+            indexes.clear();
+            answers.clear();
+        }
+        for (int i = 0; i < snapshot.size; i++) {
+            if (!keep[i] && sessions.remove(snapshot.tokenIds[i], snapshot.userIds[i])) {
+                dropped++;
+            }
+        }
+        handoffs.add(handedOff);
+        long nanos = System.nanoTime() - start;
+        rebalance.record(nanos, TimeUnit.NANOSECONDS);
+        if (failed > 0) {
+            log.warn("Could not hand over {} token sessions, they are kept here", failed);
+        }
+        log.info("Handed over {} of {} token sessions and dropped {} in {} ms", handedOff, snapshot.size, dropped,
+                TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private void flush(Collection<String> members) {
+        for (String member : new LinkedHashSet<>(members)) {
+            client(member).flush();
+        }
+    }
+
+    private PartitionClient client(String member) {
+        return clients.computeIfAbsent(member, m -> new PartitionClient(m, self, authenticator, connections, timeoutMillis));
+    }
+
+    private PartitionUnavailableException unavailable(String userId, String[] owners) {
+        return new PartitionUnavailableException("None of the token partition members " + Arrays.toString(owners)
+                + " owning the sessions of user " + userId + " could be reached");
+    }
+
+    private static Set<String> parseMembers(String members) {
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String member : members.split(",")) {
+            if (!member.trim().isEmpty()) {
+                parsed.add(member.trim());
+            }
+        }
+        return parsed;
+    }
+
+    private void bindMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("token.partition.forwarded", forwarded, LongAdder::sum)
+                .description("Requests sent to another member owning the session")
+                .register(registry);
+        FunctionCounter.builder("token.partition.failovers", failovers, LongAdder::sum)
+                .description("Requests that could not reach a member owning the session")
+                .register(registry);
+        FunctionCounter.builder("token.partition.handoffs", handoffs, LongAdder::sum)
+                .description("Sessions handed over to their new owners after a membership change")
+                .register(registry);
+        Gauge.builder("token.partition.members", this, store -> store.ring.getMembers().size())
+                .description("Members of the token partition ring")
+                .register(registry);
+    }
+
+    /**
+     * The sessions held when a handoff started, copied out so that no segment stays locked while
+     * they are sent.
+     */
+    private static final class Snapshot {
+
+        private long[] tokenIds = new long[1024];
+        private String[] userIds = new String[1024];
+        private long[] expiresAt = new long[1024];
+        private int size;
+
+        void add(long tokenId, String userId, long expiry) {
+            if (size == tokenIds.length) {
+                tokenIds = Arrays.copyOf(tokenIds, size * 2);
+                userIds = Arrays.copyOf(userIds, size * 2);
+                expiresAt = Arrays.copyOf(expiresAt, size * 2);
+            }
+            tokenIds[size] = tokenId;
+            userIds[size] = userId;
+            expiresAt[size] = expiry;
+            size++;
+        }
+
+    }
+
+}
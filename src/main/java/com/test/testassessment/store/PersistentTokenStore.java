@@ -0,0 +1,206 @@
+package com.test.testassessment.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link TokenStore} that survives restarts, so a deploy does not log every user out. Picked with
+ * {@code test.assessment.token.store=persistent}.
+ * <p>
+ * Sessions are held by a {@link ConcurrentTokenStore} as usual, and every session opened or
+ * closed is also appended to a {@link TokenJournal} in {@code test.assessment.token.journal.dir}.
+ * The journal is forced to disk every {@code test.assessment.token.journal.sync.millis} and
+ * compacted every {@code test.assessment.token.journal.compaction.millis}, which drops the
+ * sessions that expired or were closed. On startup the journal is replayed into the store.
+ * <p>
+ * Each change is journaled under a lock striped by user id, so the changes to one user's
+ * sessions are replayed in the order they were applied.
+ * <p>
+ * Sessions reclaimed by {@link #evictExpired(long)} are not journaled, replaying skips them by
+ * their expiry. Sessions evicted because the store was full come back on replay and are evicted
+ * again.
+ */
+@Component
+@ConditionalOnProperty(name = TokenStore.PROPERTY, havingValue = "persistent")
+public class PersistentTokenStore implements TokenStore, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentTokenStore.class);
+    private static final int LOCK_STRIPES = 256;
+    private final ConcurrentTokenStore sessions;
+    private final TokenJournal journal;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final Object[] userLocks = new Object[LOCK_STRIPES];
+
+    public PersistentTokenStore(@Value("${test.assessment.token.store.capacity:1000000}") int capacity,
+                                @Value("${test.assessment.token.journal.dir:tokens}") String directory,
+                                @Value("${test.assessment.token.journal.segment.bytes:67108864}") int segmentBytes,
+                                @Value("${test.assessment.token.journal.sync.millis:10}") long syncMillis,
+                                @Value("${test.assessment.token.journal.compaction.millis:300000}") long compactionMillis,
+                                Clock clock) {
+        this.sessions = new ConcurrentTokenStore(capacity);
+        this.journal = new TokenJournal(Paths.get(directory), segmentBytes);
+        this.clock = clock;
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new Object();
+        }
+        long start = System.nanoTime();
+        long records = journal.open(TokenJournal.loader(sessions, clock.millis()));
+        log.info("Replayed {} token journal records from {} in {} ms, {} sessions are open", records, directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), sessions.size());
+        AtomicInteger threadCount = new AtomicInteger();
+        // compactions can take seconds, so they get a thread of their own rather than delaying syncs
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "token-journal-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::compact, compactionMillis, compactionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean put(long tokenId, String userId, long expiresAt) {
+        synchronized (lockFor(userId)) {
+            if (!sessions.put(tokenId, userId, expiresAt)) {
+                return false;
+            }
+            journal.append(TokenJournal.ISSUED, tokenId, expiresAt, userId);
+            return true;
+        }
+    }
+
+    @Override
+    public long getExpiresAt(long tokenId, String userId) {
+        return sessions.getExpiresAt(tokenId, userId);
+    }
+
+    @Override
+    public boolean remove(long tokenId, String userId) {
+        synchronized (lockFor(userId)) {
+            if (!sessions.remove(tokenId, userId)) {
+                return false;
+            }
+            journal.append(TokenJournal.REVOKED, tokenId, 0, userId);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeAll(String userId) {
+        synchronized (lockFor(userId)) {
+            if (!sessions.removeAll(userId)) {
+                return false;
+            }
+            journal.append(TokenJournal.REVOKED_ALL, 0, 0, userId);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeAll(String userId, long expiresAtOrBefore) {
+        synchronized (lockFor(userId)) {
+            if (!sessions.removeAll(userId, expiresAtOrBefore)) {
+                return false;
+            }
+            journal.append(TokenJournal.REVOKED_ALL_UNTIL, 0, expiresAtOrBefore, userId);
+            return true;
+        }
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    @Override
+    public int evictExpired(long now) {
+        return sessions.evictExpired(now);
+    }
+
+    @Override
+    public int countExpired(long now) {
+        return sessions.countExpired(now);
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return sessions.getExpiredCount();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return sessions.getEvictedCount();
+    }
+
+    /**
+     * Forces the sessions opened and closed so far to disk.
+     */
+    public void sync() {
+        try {
+            journal.sync();
+        } catch (RuntimeException e) {
+            log.error("Could not sync the token journal", e);
+        }
+    }
+
+    /**
+     * Rewrites the journal without the sessions that expired or were closed.
+     */
+    public synchronized void compact() {
+        try {
+            long start = System.nanoTime();
+            int compacted = journal.compact(clock.millis());
+            if (compacted >= 0) {
+                log.debug("Compacted the token journal to {} sessions in {} ms", compacted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not compact the token journal", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // lets a running compaction finish, the periodic tasks are cancelled
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Changes to the sessions of one user are applied and journaled under the same lock, so the
+     * journal replays them in the order they were applied. Otherwise a login racing a
+     * {@code removeAll} could be closed in memory but journaled after the revocation,
+     * and reopened by the next replay.
+     */
+    private Object lockFor(String userId) {
+        int hash = userId.hashCode();
+        return userLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentTokenStore{sessions=" + sessions + ", journal=" + journal + '}';
+    }
+
+}
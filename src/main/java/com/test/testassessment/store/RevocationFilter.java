@@ -0,0 +1,99 @@
+package com.test.testassessment.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A split block Bloom filter of 64 bit keys. Each key sets one bit in each of the eight words of a
+ * 64 byte block, so a lookup reads a single cache line. Keys cannot be removed, the filter is
+ * replaced by a new one instead, see {@link RevocationList}.
+ */
+final class RevocationFilter {
+
+    static final int BITS_PER_KEY = 16;
+    private static final int WORDS_PER_BLOCK = 8;
+
+    private final AtomicLongArray words;
+    private final int blocks;
+    private final int capacity;
+    private final LongAdder keys = new LongAdder();
+
+    /**
+     * @param capacity the number of keys the filter is sized for
+     */
+    RevocationFilter(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        long bits = (long) this.capacity * BITS_PER_KEY;
+        this.blocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / WORDS_PER_BLOCK, (bits + 511) / 512));
+        this.words = new AtomicLongArray(blocks * WORDS_PER_BLOCK);
+    }
+
+    void add(long key) {
+        long hash = mix(key);
+        long bits = mix(hash);
+        int first = block(hash) * WORDS_PER_BLOCK;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            long bit = 1L << (bits >>> (i * 6));
+            long word;
+            do {
+                word = words.get(first + i);
+            } while ((word & bit) == 0 && !words.compareAndSet(first + i, word, word | bit));
+        }
+        keys.increment();
+    }
+
+    /**
+     * @return false if the key was never added, true if it may have been
+     */
+    boolean mightContain(long key) {
+        long hash = mix(key);
+        long bits = mix(hash);
+        int first = block(hash) * WORDS_PER_BLOCK;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            if ((words.get(first + i) & (1L << (bits >>> (i * 6)))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of keys added, counting a key added twice twice
+     */
+    long getKeyCount() {
+        return keys.sum();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    /**
+     * @return the expected rate of false positives for the keys added so far: a key not in the
+     * filter lands on a block holding about {@code n} keys, and each of its eight bits is set
+     * with probability {@code 1 - (63/64)^n}
+     */
+    double getExpectedFalsePositiveRate() {
+        double keysPerBlock = (double) getKeyCount() / blocks;
+        return Math.pow(1 - Math.pow(63.0 / 64, keysPerBlock), WORDS_PER_BLOCK);
+    }
+
+    /**
+     * The block is taken from the high bits of the hash, the bits set within it from six bits each
+     * of the hash mixed again.
+     */
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32);
+    }
+
+    private static long mix(long key) {
+        long hash = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.test.testassessment.store;
+
+import com.test.testassessment.model.SignedToken;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ids of signed tokens that were revoked before their expiry, and the users whose signed
+ * tokens were all revoked. Signed tokens are validated from their own contents, so this is the
+ * only state they need, and an entry only has to be remembered until the tokens it covers
+ * expire.
+ * <p>
+ * Nearly every token checked was never revoked, so the token id and user are first looked up in a
+ * {@link RevocationFilter}, which answers with a read of one cache line each, and only looked up
+ * in the maps when the filter may hold them. Entries are dropped from the maps by
+ * {@link #evictExpired(long)}. Since they cannot be dropped from the filter, it is rebuilt from
+ * the maps once most of its keys were dropped, or when it holds more keys than it was sized for.
+ */
+@Component
+public class RevocationList {
+
+    private static final long USER_KEY_SEED = 0x5BD1E9955BD1E995L;
+
+    private final ConcurrentMap<Long, Long> revokedTokens = new ConcurrentHashMap<>(); // token id to expiry in epoch seconds
+    private final ConcurrentMap<String, Long> revokedUsers = new ConcurrentHashMap<>(); // user id to the last revoked expiry in epoch seconds
+    private final int filterCapacity;
+    private final LongAdder filterPositives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder filterRebuilds = new LongAdder();
+    private volatile RevocationFilter filter;
+    private volatile RevocationFilter nextFilter; // the filter being rebuilt, which revocations are added to as well
+
+    /**
+     * @param filterCapacity the number of entries the filter is sized for at first, it grows with the entries held
+     */
+    public RevocationList(@Value("${test.assessment.token.revocations.filter.capacity:65536}") int filterCapacity) {
+        if (filterCapacity <= 0) {
+            throw new IllegalArgumentException("Revocation filter capacity must be positive, was " + filterCapacity);
+        }
+        this.filterCapacity = filterCapacity;
+        this.filter = new RevocationFilter(filterCapacity);
+    }
+
+    /**
+     * @return true if the token was not revoked before
+     */
+    public boolean revoke(long tokenId, long expiresAt) {
+        if (revokedTokens.putIfAbsent(tokenId, expiresAt) != null) {
+            return false;
+        }
+        addToFilter(tokenId);
+        return true;
+    }
+
+    /**
+     * Revokes every token of the user that expires at or before the given instant, in epoch
+     * seconds. Tokens issued later in the same second would be revoked as well, unless they are
+     * given the expiry {@link #expiryAfterRevocations(String, long)} answers.
+     */
+    public void revokeAll(String userId, long expiresAt) {
+        revokedUsers.merge(userId, expiresAt, Math::max);
+        addToFilter(userKey(userId));
+    }
+
+    /**
+     * Tokens carry their expiry in seconds, so a token issued in the second every token of its
+     * user was revoked in cannot be told from the tokens the revocation covers. Issuing it one
+     * second past the revocation instead keeps it valid.
+     *
+     * @param expiresAt the expiry a token issued now would have, in epoch seconds
+     * @return that expiry, or the second after the user's last revocation if it is not earlier
+     */
+    public long expiryAfterRevocations(String userId, long expiresAt) {
+        if (!filter.mightContain(userKey(userId))) {
+            return expiresAt;
+        }
+        Long revokedUntil = revokedUsers.get(userId);
+        return revokedUntil != null && revokedUntil >= expiresAt ? revokedUntil + 1 : expiresAt;
+    }
+
+    public boolean isRevoked(SignedToken token) {
+        RevocationFilter current = filter;
+        boolean tokenMayBeRevoked = current.mightContain(token.getId());
+        boolean userMayBeRevoked = current.mightContain(userKey(token.getUserId()));
+        if (!tokenMayBeRevoked && !userMayBeRevoked) {
+            return false;
+        }
+        filterPositives.increment();
+        if (tokenMayBeRevoked && revokedTokens.containsKey(token.getId())) {
+            return true;
+        }
+        if (userMayBeRevoked) {
+            Long revokedUntil = revokedUsers.get(token.getUserId());
+            if (revokedUntil != null && token.getExpiresAt() <= revokedUntil) {
+                return true;
+            }
+        }
+        falsePositives.increment();
+        return false;
+    }
+
+    public int size() {
+        return revokedTokens.size() + revokedUsers.size();
+    }
+
+    /**
+     * Also rebuilds the filter when it is due, see the class description.
+     *
+     * @param now the current time in epoch seconds
+     * @return the number of entries that were forgotten because the tokens they cover expired
+     */
+    public int evictExpired(long now) {
+        int removed = evictExpired(revokedTokens.values().iterator(), now) + evictExpired(revokedUsers.values().iterator(), now);
+        RevocationFilter current = filter;
+        int size = size();
+        if (current.getKeyCount() > Math.max(current.getCapacity() / 2, 2L * size) || size > current.getCapacity()) {
+            rebuildFilter(Math.max(filterCapacity, 2 * size));
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of checks the filter could not answer alone, which were looked up in the maps
+     */
+    public long getFilterPositives() {
+        return filterPositives.sum();
+    }
+
+    /**
+     * @return the number of checks the filter could not answer alone for tokens that were not revoked
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    public double getExpectedFalsePositiveRate() {
+        return filter.getExpectedFalsePositiveRate();
+    }
+
+    public long getFilterBytes() {
+        return filter.getBytes();
+    }
+
+    public long getFilterRebuilds() {
+        return filterRebuilds.sum();
+    }
+
+    /**
+     * Revocations made while the filter is rebuilt are added to both filters. The filter being
+     * rebuilt is read first: when there is none, the revocation was either put in its map before
+     * the rebuild started and is added from there, or the rebuilt filter is already in place.
+     */
+    private void addToFilter(long key) {
+        RevocationFilter next = nextFilter;
+        filter.add(key);
+        if (next != null) {
+            next.add(key);
+        }
+    }
+
+    /**
+     * Only called by the sweeper thread.
+     */
+    private void rebuildFilter(int capacity) {
+        RevocationFilter rebuilt = new RevocationFilter(capacity);
+        nextFilter = rebuilt;
+        for (Long tokenId : revokedTokens.keySet()) {
+            rebuilt.add(tokenId);
+        }
+        for (String userId : revokedUsers.keySet()) {
+            rebuilt.add(userKey(userId));
+        }
+        filter = rebuilt;
+        nextFilter = null;
+        filterRebuilds.increment();
+    }
+
+    /**
+     * Users share the filter with token ids, a collision between the two only costs a map lookup.
+     */
+    private static long userKey(String userId) {
+        return userId.hashCode() ^ USER_KEY_SEED;
+    }
+
+    private static int evictExpired(Iterator<Long> expiries, long now) {
+        int removed = 0;
+        while (expiries.hasNext()) {
+            if (expiries.next() < now) {
+                expiries.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+}
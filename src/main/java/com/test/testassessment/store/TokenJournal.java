@@ -0,0 +1,377 @@
+package com.test.testassessment.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the sessions opened and closed, kept in a directory as numbered segment
+ * files of a fixed size that are mapped into memory while they are written. Records are copied
+ * into the mapped segment under a lock and only reach the disk when {@link #sync()} forces the
+ * segments written since the last call, so one fsync covers every record appended in between.
+ * A crash of the process loses nothing, since the mapped pages are already in the page cache,
+ * while a crash of the machine loses the records appended since the last sync.
+ * <p>
+ * Each record is its length, a CRC32 of its body, and a body holding the record type, token id,
+ * expiry and user id. Replaying a file stops at the first record that is incomplete or fails its
+ * checksum, which is where a crash cut the log short.
+ * <p>
+ * {@link #compact(long)} replaces every segment written so far by a snapshot holding one record
+ * per session still open and unexpired at the end of those segments. The snapshot is named after
+ * the last segment it covers and replayed before the segments that follow it.
+ */
+final class TokenJournal implements Closeable {
+
+    static final byte ISSUED = 1;
+    static final byte REVOKED = 2;
+    static final byte REVOKED_ALL = 3;
+    static final byte REVOKED_ALL_UNTIL = 4;
+
+    private static final int HEADER_BYTES = 8; // length and checksum
+    private static final int BODY_BYTES = 19; // type, token id, expiry and user id length
+    private static final int MAX_USER_ID_BYTES = 0xFFFF;
+    private static final int MIN_SEGMENT_BYTES = HEADER_BYTES + BODY_BYTES + MAX_USER_ID_BYTES;
+    private static final String SEGMENT_PREFIX = "tokens-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    interface Visitor {
+
+        void issued(long tokenId, String userId, long expiresAt);
+
+        void revoked(long tokenId, String userId);
+
+        void revokedAll(String userId);
+
+        void revokedAllUntil(String userId, long expiresAt);
+
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<MappedByteBuffer> unsynced = new ArrayList<>(); // sealed segments, guarded by this
+    private MappedByteBuffer active; // guarded by this
+    private long activeSequence; // guarded by this
+    private boolean dirty; // guarded by this
+    private long snapshotSequence; // only used by the thread compacting
+
+    TokenJournal(Path directory, int segmentBytes) {
+        if (segmentBytes < MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Token journal segments must hold at least " + MIN_SEGMENT_BYTES + " bytes, was " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Replays the latest snapshot and the segments written after it, drops the files they make
+     * obsolete and starts a new segment to append to.
+     *
+     * @return the number of records replayed
+     */
+    synchronized long open(Visitor visitor) {
+        try {
+            Files.createDirectories(directory);
+            TreeMap<Long, Path> snapshots = list(SNAPSHOT_PREFIX);
+            TreeMap<Long, Path> segments = list(SEGMENT_PREFIX);
+            long records = 0;
+            snapshotSequence = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+            if (snapshotSequence > 0) {
+                records += replay(snapshots.lastEntry().getValue(), visitor);
+            }
+            for (Path segment : segments.tailMap(snapshotSequence, false).values()) {
+                records += replay(segment, visitor);
+            }
+            delete(snapshots.headMap(snapshotSequence, false));
+            delete(segments.headMap(snapshotSequence, true));
+            // left behind by a compaction that did not finish
+            try (DirectoryStream<Path> temporaries = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + TEMPORARY_SUFFIX)) {
+                for (Path temporary : temporaries) {
+                    Files.delete(temporary);
+                }
+            }
+            activeSequence = Math.max(snapshotSequence, segments.isEmpty() ? 0 : segments.lastKey());
+            roll();
+            return records;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the token journal in " + directory, e);
+        }
+    }
+
+    void append(byte type, long tokenId, long expiresAt, String userId) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        if (user.length > MAX_USER_ID_BYTES) {
+            throw new IllegalArgumentException("User id is too long to be journaled: " + user.length + " bytes");
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + BODY_BYTES + user.length);
+        record.position(HEADER_BYTES);
+        record.put(type).putLong(tokenId).putLong(expiresAt).putShort((short) user.length).put(user);
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), HEADER_BYTES, record.capacity() - HEADER_BYTES);
+        record.putInt(0, record.capacity() - HEADER_BYTES).putInt(4, (int) checksum.getValue());
+        synchronized (this) {
+            if (active == null) {
+                throw new IllegalStateException("The token journal is closed");
+            }
+            if (active.remaining() < record.capacity()) {
+                roll();
+            }
+            active.put(record.array());
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk. The fsync itself runs outside the lock, so
+     * appends carry on while it waits.
+     */
+    void sync() {
+        List<MappedByteBuffer> segments;
+        synchronized (this) {
+            if (!dirty || active == null) {
+                return;
+            }
+            segments = new ArrayList<>(unsynced);
+            segments.add(active);
+            unsynced.clear();
+            dirty = false;
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Seals the segment being written and folds it, along with the segments and snapshot before
+     * it, into a new snapshot holding the sessions that are still open at the given instant. Only
+     * one thread may compact at a time; appends carry on while it runs.
+     *
+     * @param now the current time in epoch milliseconds
+     * @return the number of sessions in the new snapshot, or -1 if nothing was appended since the
+     * last compaction
+     */
+    int compact(long now) {
+        long lastSequence;
+        synchronized (this) {
+            if (active == null || active.position() == 0 && unsynced.isEmpty() && activeSequence == snapshotSequence + 1) {
+                return -1;
+            }
+            lastSequence = activeSequence;
+            roll();
+        }
+        sync();
+        try {
+            TreeMap<Long, Path> segments = list(SEGMENT_PREFIX);
+            ConcurrentTokenStore sessions = new ConcurrentTokenStore(Integer.MAX_VALUE);
+            Visitor loader = loader(sessions, now);
+            if (snapshotSequence > 0) {
+                replay(snapshotPath(snapshotSequence), loader);
+            }
+            for (Path segment : segments.subMap(snapshotSequence, false, lastSequence, true).values()) {
+                replay(segment, loader);
+            }
+            sessions.evictExpired(now);
+            writeSnapshot(sessions, lastSequence);
+            delete(list(SNAPSHOT_PREFIX).headMap(lastSequence, false));
+            delete(segments.headMap(lastSequence, true));
+            snapshotSequence = lastSequence;
+            return sessions.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact the token journal in " + directory, e);
+        }
+    }
+
+    /**
+     * @return a visitor that applies the records to the store, skipping sessions that expired before the given instant
+     */
+    static Visitor loader(TokenStore store, long now) {
+        return new Visitor() {
+
+            @Override
+            public void issued(long tokenId, String userId, long expiresAt) {
+                if (expiresAt >= now) {
+                    store.put(tokenId, userId, expiresAt);
+                }
+            }
+
+            @Override
+            public void revoked(long tokenId, String userId) {
+                store.remove(tokenId, userId);
+            }
+
+            @Override
+            public void revokedAll(String userId) {
+                store.removeAll(userId);
+            }
+
+            @Override
+            public void revokedAllUntil(String userId, long expiresAt) {
+                store.removeAll(userId, expiresAt);
+            }
+
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        if (active != null) {
+            active.force();
+            for (MappedByteBuffer segment : unsynced) {
+                segment.force();
+            }
+            unsynced.clear();
+            active = null;
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void roll() {
+        if (active != null) {
+            unsynced.add(active);
+        }
+        activeSequence++;
+        Path segment = directory.resolve(SEGMENT_PREFIX + sequenceName(activeSequence) + SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // the file stays sparse, so segments only take disk space for what is written to them
+            file.setLength(segmentBytes);
+            active = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create token journal segment " + segment, e);
+        }
+    }
+
+    private void writeSnapshot(ConcurrentTokenStore sessions, long sequence) throws IOException {
+        Path snapshot = snapshotPath(sequence);
+        Path temporary = directory.resolve(snapshot.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            CRC32 checksum = new CRC32();
+            sessions.forEach((tokenId, userId, expiresAt) -> {
+                byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+                try {
+                    if (buffer.remaining() < HEADER_BYTES + BODY_BYTES + user.length) {
+                        flush(channel, buffer);
+                    }
+                    int start = buffer.position();
+                    buffer.position(start + HEADER_BYTES);
+                    buffer.put(ISSUED).putLong(tokenId).putLong(expiresAt).putShort((short) user.length).put(user);
+                    checksum.reset();
+                    checksum.update(buffer.array(), start + HEADER_BYTES, BODY_BYTES + user.length);
+                    buffer.putInt(start, BODY_BYTES + user.length).putInt(start + 4, (int) checksum.getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            flush(channel, buffer);
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long replay(Path file, Visitor visitor) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 checksum = new CRC32();
+            byte[] user = new byte[MAX_USER_ID_BYTES];
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int length = buffer.getInt();
+                int expectedChecksum = buffer.getInt();
+                if (length < BODY_BYTES || length > buffer.remaining()) {
+                    // the zeroed rest of the segment, or a record cut short
+                    break;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(length);
+                checksum.reset();
+                checksum.update(body);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    break;
+                }
+                byte type = buffer.get();
+                long tokenId = buffer.getLong();
+                long expiresAt = buffer.getLong();
+                int userLength = buffer.getShort() & 0xFFFF;
+                if (userLength != length - BODY_BYTES) {
+                    break;
+                }
+                buffer.get(user, 0, userLength);
+                String userId = new String(user, 0, userLength, StandardCharsets.UTF_8);
+                if (type == ISSUED) {
+                    visitor.issued(tokenId, userId, expiresAt);
+                } else if (type == REVOKED) {
+                    visitor.revoked(tokenId, userId);
+                } else if (type == REVOKED_ALL) {
+                    visitor.revokedAll(userId);
+                } else if (type == REVOKED_ALL_UNTIL) {
+                    visitor.revokedAllUntil(userId, expiresAt);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private TreeMap<Long, Path> list(String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length())), path);
+                } catch (NumberFormatException e) {
+                    // not a journal file
+                }
+            }
+        }
+        return files;
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(SNAPSHOT_PREFIX + sequenceName(sequence) + SUFFIX);
+    }
+
+    private static void delete(Map<Long, Path> files) throws IOException {
+        for (Path file : files.values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String sequenceName(long sequence) {
+        return String.format("%020d", sequence);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenJournal{directory=" + directory + '}';
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.test.testassessment.store;
+
+/**
+ * Holds the sessions that are currently open, keyed by the id of the token that was issued for
+ * them. A user may hold any number of sessions, one per login. Implementations are shared by
+ * every request thread and must therefore be safe for concurrent use. Every operation is atomic
+ * with respect to a single token id. The implementation is picked with
+ * {@code test.assessment.token.store}.
+ */
+public interface TokenStore {
+
+    String PROPERTY = "test.assessment.token.store";
+
+    /**
+     * Returned by {@link #getExpiresAt(long, String)} when there is no such session.
+     */
+    long NO_SESSION = Long.MIN_VALUE;
+
+    /**
+     * Opens a session for the user.
+     *
+     * @param tokenId   must not be 0
+     * @param expiresAt the expiry of the session in epoch milliseconds
+     * @return false if a session with that token id is already open, in which case nothing was stored
+     */
+    boolean put(long tokenId, String userId, long expiresAt);
+
+    /**
+     * @return the expiry of the session in epoch milliseconds, or {@link #NO_SESSION} if no session
+     * with that token id is open for the user. Sessions closed by either {@code removeAll} are
+     * not open, even before they are reclaimed
+     */
+    long getExpiresAt(long tokenId, String userId);
+
+    /**
+     * Closes one session of the user.
+     *
+     * @return false if no session with that token id was open for the user
+     */
+    boolean remove(long tokenId, String userId);
+
+    /**
+     * Closes every session of the user in constant time. The sessions stop validating at once,
+     * and their memory is reclaimed when they are next looked up, or by the
+     * {@link #evictExpired(long)} that follows their expiry.
+     *
+     * @return false if the user held no session
+     */
+    boolean removeAll(String userId);
+
+    /**
+     * Closes the sessions of the user that expire at or before the given instant, in constant
+     * time. Sessions opened since with a later expiry stay open, which is what a revocation of
+     * every token received from another instance needs. The bound is kept while the user holds
+     * sessions, so sessions opened later that expire at or before it are closed too.
+     *
+     * @param expiresAtOrBefore in epoch milliseconds
+     * @return false if the user held no session
+     */
+    boolean removeAll(String userId, long expiresAtOrBefore);
+
+    /**
+     * @return the number of sessions held, including closed ones that were not reclaimed yet
+     */
+    int size();
+
+    boolean isEmpty();
+
+    /**
+     * Removes sessions that expired before the given instant, including those closed by either
+     * {@code removeAll}. Called periodically by {@link TokenStoreSweeper}.
+     *
+     * @param now the current time in epoch milliseconds
+     * @return the number of expired sessions that were removed, not counting closed ones
+     */
+    int evictExpired(long now);
+
+    /**
+     * Counts the sessions that expired before the second of the given instant but were not
+     * removed yet. Meant for monitoring, so it must stay cheap however many sessions are held.
+     *
+     * @param now the current time in epoch milliseconds
+     */
+    int countExpired(long now);
+
+    /**
+     * @return the total number of sessions removed by {@link #evictExpired(long)} because they expired
+     */
+    long getExpiredCount();
+
+    /**
+     * @return the total number of unexpired sessions removed because the store was full
+     */
+    long getEvictedCount();
+
+}
@@ -0,0 +1,63 @@
+package com.test.testassessment.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodically reclaims expired sessions from the {@link TokenStore}, so sessions that are never
+ * revoked do not stay on the heap after their expiry, along with sessions closed by revoking
+ * every token of a user. Revoked signed tokens are dropped from the {@link RevocationList} once
+ * they expire as well.
+ */
+@Component
+public class TokenStoreSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenStoreSweeper.class);
+    private final TokenStore tokenStore;
+    private final RevocationList revocationList;
+    private final Clock clock;
+    private final LongAdder sweepCount = new LongAdder();
+    private final LongAdder totalSweepNanos = new LongAdder();
+    private final AtomicLong lastSweepNanos = new AtomicLong();
+
+    public TokenStoreSweeper(TokenStore tokenStore, RevocationList revocationList, Clock clock) {
+        this.tokenStore = tokenStore;
+        this.revocationList = revocationList;
+        this.clock = clock;
+    }
+
+    @Scheduled(fixedDelayString = "${test.assessment.token.sweep.interval.millis:1000}")
+    public void sweep() {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        int removed = tokenStore.evictExpired(now);
+        revocationList.evictExpired(TimeUnit.MILLISECONDS.toSeconds(now));
+        long duration = System.nanoTime() - start;
+        sweepCount.increment();
+        totalSweepNanos.add(duration);
+        lastSweepNanos.set(duration);
+        if (removed > 0) {
+            log.debug("Swept {} expired tokens in {} µs, {} tokens remain", removed, TimeUnit.NANOSECONDS.toMicros(duration), tokenStore.size());
+        }
+    }
+
+    public long getSweepCount() {
+        return sweepCount.sum();
+    }
+
+    public long getTotalSweepNanos() {
+        return totalSweepNanos.sum();
+    }
+
+    public long getLastSweepNanos() {
+        return lastSweepNanos.get();
+    }
+
+}
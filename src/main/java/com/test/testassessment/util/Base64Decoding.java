@@ -0,0 +1,64 @@
+package com.test.testassessment.util;
+
+import java.util.Arrays;
+
+/**
+ * Decodes standard Base64 straight from a {@link CharSequence} into a caller supplied buffer, so
+ * hot paths can reuse one buffer instead of allocating the intermediate byte arrays that
+ * {@link java.util.Base64.Decoder} needs. Accepts the same input as
+ * {@link java.util.Base64#getDecoder()}: padding is optional, but anything after it is not.
+ */
+public final class Base64Decoding {
+
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private Base64Decoding() {
+    }
+
+    /**
+     * @return the largest number of bytes the given input can decode to
+     */
+    public static int maxDecodedLength(CharSequence source) {
+        return source.length() / 4 * 3 + 2;
+    }
+
+    /**
+     * @param destination must hold at least {@link #maxDecodedLength(CharSequence)} bytes
+     * @return the number of bytes written to the destination, or -1 if the input is not valid Base64
+     */
+    public static int decode(CharSequence source, byte[] destination) {
+        int length = source.length();
+        while (length > 0 && source.charAt(length - 1) == '=') {
+            length--;
+        }
+        if (source.length() - length > 2 || length % 4 == 1 || (length < source.length() && source.length() % 4 != 0)) {
+            return -1;
+        }
+        int written = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < length; i++) {
+            char character = source.charAt(i);
+            int value = character < VALUES.length ? VALUES[character] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                destination[written++] = (byte) (bits >> bitCount);
+            }
+        }
+        return written;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.test.testassessment.util;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A UTC clock that reads the time from a field refreshed by a background thread, every
+ * {@code test.assessment.clock.tick.millis}. Reading it is a single volatile read, which makes
+ * it cheap enough to call on every token validation, at the price of running up to a tick, or
+ * however long the ticking thread is descheduled, behind the system clock.
+ */
+@Component
+public class CachedClock extends Clock implements DisposableBean {
+
+    private final ScheduledExecutorService ticker;
+    private volatile long millis = System.currentTimeMillis();
+
+    public CachedClock(@Value("${test.assessment.clock.tick.millis:1}") long tickMillis) {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cached-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> millis = System.currentTimeMillis(), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    /**
+     * @return a system clock in the given zone, the cached time is only kept in UTC
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(ZoneOffset.UTC) ? this : Clock.system(zone);
+    }
+
+    @Override
+    public void destroy() {
+        ticker.shutdownNow();
+    }
+
+}
@@ -6,6 +6,8 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+
 @Component
 public class DataLoader implements ApplicationRunner {
 
@@ -32,11 +34,7 @@ public class DataLoader implements ApplicationRunner {
         user3.setUserName("timh");
         user3.setPassword("Changeme!");
 
-        userService.saveUser(user1);
-        userService.saveUser(user2);
-        userService.saveUser(user3);
-
-
+        userService.saveUsers(Arrays.asList(user1, user2, user3).iterator());
     }
 
 }
@@ -0,0 +1,46 @@
+package com.test.testassessment.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes the {@code {"data":...}} bodies of the user routes as UTF-8 JSON, straight from the
+ * value with a {@link JsonGenerator}, rather than building a tree and a String first. The body
+ * confirming a check, which is the same every time, is only written once.
+ */
+public final class DataResponseBodies {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final String DATA_FIELD_NAME = "data";
+    private static final byte[] TRUE = of(String.valueOf(true));
+
+    private DataResponseBodies() {
+    }
+
+    /**
+     * @return {@code {"data":"true"}}, shared by every caller, so it must not be modified
+     */
+    public static byte[] ofTrue() {
+        return TRUE;
+    }
+
+    public static byte[] of(String data) {
+        // room for the value plus the field name and punctuation, escapes aside
+        ByteArrayBuilder bytes = new ByteArrayBuilder((data == null ? 0 : data.length()) + 16);
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField(DATA_FIELD_NAME, data);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // a ByteArrayBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.test.testassessment.util;
+
+/**
+ * Generates the ids of new entities, see {@link com.test.testassessment.model.BaseEntity}.
+ * The implementation is picked with {@code test.assessment.user.id.generator}.
+ */
+public interface IdGenerator {
+
+    String PROPERTY = "test.assessment.user.id.generator";
+
+    /**
+     * @return a new UUID in its canonical string form
+     */
+    String generateId();
+
+}
@@ -0,0 +1,30 @@
+package com.test.testassessment.util;
+
+import com.test.testassessment.security.SecureRandomPool;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Random (version 4) UUIDs, like {@link UUID#randomUUID()} but drawn from the
+ * {@link SecureRandomPool} instead of a single generator shared by every thread.
+ */
+@Component
+@ConditionalOnProperty(name = IdGenerator.PROPERTY, havingValue = "random", matchIfMissing = true)
+public class RandomIdGenerator implements IdGenerator {
+
+    private final SecureRandomPool randomPool;
+
+    public RandomIdGenerator(SecureRandomPool randomPool) {
+        this.randomPool = randomPool;
+    }
+
+    @Override
+    public String generateId() {
+        long mostSignificantBits = (randomPool.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSignificantBits = (randomPool.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSignificantBits, leastSignificantBits).toString();
+    }
+
+}
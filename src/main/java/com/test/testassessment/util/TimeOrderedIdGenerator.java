@@ -0,0 +1,32 @@
+package com.test.testassessment.util;
+
+import com.test.testassessment.security.SecureRandomPool;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Time-ordered (version 7) UUIDs: 48 bits of Unix time in milliseconds followed by 74 random
+ * bits. Ids created in different milliseconds sort in creation order, as strings too, so new
+ * rows are appended to the end of the primary key index instead of landing on random pages.
+ */
+@Component
+@ConditionalOnProperty(name = IdGenerator.PROPERTY, havingValue = "time-ordered")
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    private final SecureRandomPool randomPool;
+
+    public TimeOrderedIdGenerator(SecureRandomPool randomPool) {
+        this.randomPool = randomPool;
+    }
+
+    @Override
+    public String generateId() {
+        long random = randomPool.nextLong();
+        long mostSignificantBits = (System.currentTimeMillis() << 16) | 0x7000L | (random & 0x0FFFL);
+        long leastSignificantBits = (randomPool.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSignificantBits, leastSignificantBits).toString();
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.test.testassessment;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.test.testassessment.controller.AsyncUserController;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "test.assessment.controller.execution=async")
+@AutoConfigureMockMvc
+public class AsyncUserControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void passwordRoutesAreServedOffTheRequestThread() throws Exception {
+        Assertions.assertThat(context.getBeansOfType(AsyncUserController.class)).hasSize(1);
+
+        MvcResult added = mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"userName\":\"asyncuser\",\"password\":\"Passw0rd!\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(added))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse().getContentAsString();
+        String id = objectMapper.readTree(body).get("id").asText();
+
+        MvcResult issued = mockMvc.perform(post("/users/" + id + "/token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"password\":\"Passw0rd!\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        JsonNode response = objectMapper.readTree(mockMvc.perform(asyncDispatch(issued))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse().getContentAsString());
+        String token = response.get("data").asText();
+
+        MvcResult updated = mockMvc.perform(put("/users/" + id)
+                        .header("Authorization", token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"fullName\":\"Async User\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(updated))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.fullName").value("Async User"))
+                .andExpect(jsonPath("$.userName").value("asyncuser"));
+    }
+
+    @Test
+    public void sharedRoutesStayAvailable() throws Exception {
+        mockMvc.perform(post("/users/1/validate-token").header("Authorization", "not-a-token"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void wrongPasswordIsRejected() throws Exception {
+        MvcResult issued = mockMvc.perform(post("/users/no-such-user/token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"password\":\"Passw0rd!\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(issued))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    public void userWithoutPasswordIsNotCreated() throws Exception {
+        MvcResult added = mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"userName\":\"asyncnopassword\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(added))
+                .andExpect(status().isInternalServerError());
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.UserService;
+import com.test.testassessment.service.impl.AuthorizationHeaderCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+@SpringBootTest
+public class AuthorizationHeaderCacheTests {
+
+    private static final String HEADER = Base64.getEncoder().encodeToString(
+            "{\"id\":42,\"content\":\"dXNlcjEudXNlcg==\",\"expiresAt\":1700000000000}".getBytes(StandardCharsets.UTF_8));
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private AuthorizationHeaderCache authorizationHeaders;
+
+    @Test
+    public void repeatedHeadersAreKeptFromTheirSecondDecode() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AuthorizationHeaderCache cache = new AuthorizationHeaderCache(registry, 16);
+
+        Token first = cache.decode(HEADER);
+        Assertions.assertThat(first.getId()).isEqualTo(42);
+        Assertions.assertThat(first.getExpiresAt()).isEqualTo(1700000000000L);
+        Token token = cache.decode(HEADER);
+        Assertions.assertThat(token).isNotSameAs(first);
+        Assertions.assertThat(cache.decode(HEADER)).isSameAs(token);
+        Assertions.assertThat(cache.decode(new String(HEADER.toCharArray()))).isSameAs(token);
+
+        Assertions.assertThat(registry.get("cache.gets").tag("cache", "authorizationHeaders").tag("result", "hit").functionCounter().count()).isEqualTo(2);
+        Assertions.assertThat(registry.get("cache.gets").tag("cache", "authorizationHeaders").tag("result", "miss").functionCounter().count()).isEqualTo(2);
+        Assertions.assertThat(registry.get("cache.size").tag("cache", "authorizationHeaders").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    public void headersSeenOnceAreNotKept() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AuthorizationHeaderCache cache = new AuthorizationHeaderCache(registry, 16);
+
+        for (int i = 0; i < 100; i++) {
+            String header = Base64.getEncoder().encodeToString(
+                    ("{\"id\":" + i + ",\"content\":\"dXNlcjEudXNlcg==\",\"expiresAt\":1700000000000}").getBytes(StandardCharsets.UTF_8));
+            Assertions.assertThat(cache.decode(header).getId()).isEqualTo(i);
+        }
+
+        Assertions.assertThat(registry.get("cache.size").tag("cache", "authorizationHeaders").gauge().value()).isZero();
+    }
+
+    @Test
+    public void malformedHeadersAreCachedAsUnreadable() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AuthorizationHeaderCache cache = new AuthorizationHeaderCache(registry, 16);
+
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertThat(cache.decode("not-a-token")).isNull();
+            Assertions.assertThat(cache.decode("bm90IGpzb24=")).isNull();
+        }
+
+        Assertions.assertThat(registry.get("token.header.cache.malformed.hits").functionCounter().count()).isEqualTo(4);
+        Assertions.assertThat(new AuthorizationHeaderCache(registry, 0).decode(HEADER).getId()).isEqualTo(42);
+    }
+
+    @Test
+    public void revokedTokensAreForgotten() {
+        User user = new User();
+        user.setUserName("headercacheuser" + System.nanoTime());
+        user.setPassword("Passw0rd!");
+        String userId = userService.saveUser(user).getId();
+        String first = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        String second = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        authorizationHeaders.decode(first);
+        authorizationHeaders.decode(second);
+        Token firstToken = authorizationHeaders.decode(first);
+        TokenPrincipal principal = userService.authenticate(userId, second);
+        Assertions.assertThat(principal.getToken()).isSameAs(authorizationHeaders.decode(second));
+
+        Assertions.assertThat(userService.revokeToken(userId, first)).isTrue();
+        Assertions.assertThat(userService.revokeToken(principal)).isTrue();
+
+        Assertions.assertThat(authorizationHeaders.decode(first)).isNotSameAs(firstToken);
+        Assertions.assertThat(authorizationHeaders.decode(second)).isNotSameAs(principal.getToken());
+        Assertions.assertThat(userService.validateToken(userId, first)).isFalse();
+        Assertions.assertThat(userService.authenticate(userId, second)).isNull();
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.test.testassessment;
+
+import com.test.testassessment.util.Base64Decoding;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+public class Base64DecodingTests {
+
+    @Test
+    public void decodeMatchesJdkDecoder() {
+        Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String padded = Base64.getEncoder().encodeToString(bytes);
+            String unpadded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+
+            Assertions.assertThat(decode(padded)).isEqualTo(bytes);
+            Assertions.assertThat(decode(unpadded)).isEqualTo(bytes);
+        }
+    }
+
+    @Test
+    public void decodeRejectsInvalidInput() {
+        Assertions.assertThat(decode("a")).isNull();
+        Assertions.assertThat(decode("YQ=")).isNull();
+        Assertions.assertThat(decode("YQ===")).isNull();
+        Assertions.assertThat(decode("YQ==YQ==")).isNull();
+        Assertions.assertThat(decode("YQ-_")).isNull();
+        Assertions.assertThat(decode("YQé=")).isNull();
+    }
+
+    private static byte[] decode(String source) {
+        byte[] buffer = new byte[Base64Decoding.maxDecodedLength(source)];
+        int length = Base64Decoding.decode(source, buffer);
+        return length < 0 ? null : Arrays.copyOf(buffer, length);
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.test.testassessment;
+
+import com.test.testassessment.store.ConcurrentTokenStore;
+import com.test.testassessment.store.TokenStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentTokenStoreTests {
+
+    private static final String USER_ID = "1";
+
+    @Test
+    public void userHoldsOneSessionPerToken() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+
+        Assertions.assertThat(store.put(1, USER_ID, expiry)).isTrue();
+        Assertions.assertThat(store.put(2, USER_ID, expiry + 1)).isTrue();
+        Assertions.assertThat(store.put(2, USER_ID, expiry + 2)).isFalse();
+
+        Assertions.assertThat(store.size()).isEqualTo(2);
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(expiry);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isEqualTo(expiry + 1);
+        Assertions.assertThat(store.getExpiresAt(2, "2")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(3, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+    }
+
+    @Test
+    public void removeClosesOneSession() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        store.put(1, USER_ID, expiry);
+        store.put(2, USER_ID, expiry);
+
+        Assertions.assertThat(store.remove(1, "2")).isFalse();
+        Assertions.assertThat(store.remove(1, USER_ID)).isTrue();
+        Assertions.assertThat(store.remove(1, USER_ID)).isFalse();
+
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isEqualTo(expiry);
+        Assertions.assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void removeAllClosesEverySessionOfTheUser() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long now = System.currentTimeMillis();
+        long expiry = now + TimeUnit.MINUTES.toMillis(5);
+        for (long tokenId = 1; tokenId <= 10; tokenId++) {
+            store.put(tokenId, USER_ID, expiry);
+        }
+        store.put(11, "2", expiry);
+
+        Assertions.assertThat(store.removeAll(USER_ID)).isTrue();
+        Assertions.assertThat(store.removeAll("3")).isFalse();
+        store.put(12, USER_ID, expiry);
+
+        // closed sessions are not scanned for by the sweep, a lookup reclaims them
+        Assertions.assertThat(store.evictExpired(now)).isEqualTo(0);
+        Assertions.assertThat(store.size()).isEqualTo(12);
+        for (long tokenId = 1; tokenId <= 5; tokenId++) {
+            Assertions.assertThat(store.getExpiresAt(tokenId, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        }
+        Assertions.assertThat(store.remove(6, USER_ID)).isFalse();
+        Assertions.assertThat(store.getExpiresAt(6, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(11, "2")).isEqualTo(expiry);
+        Assertions.assertThat(store.getExpiresAt(12, USER_ID)).isEqualTo(expiry);
+        Assertions.assertThat(store.size()).isEqualTo(6);
+
+        // so does opening a session under the token id of a closed one
+        Assertions.assertThat(store.put(7, "2", expiry)).isTrue();
+        Assertions.assertThat(store.getExpiresAt(7, "2")).isEqualTo(expiry);
+        Assertions.assertThat(store.size()).isEqualTo(6);
+
+        // the others are reclaimed with their expiry second, without counting as expired
+        Assertions.assertThat(store.evictExpired(expiry + TimeUnit.SECONDS.toMillis(1))).isEqualTo(3);
+        Assertions.assertThat(store.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void removeAllUntilClosesOnlySessionsExpiringByThen() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long now = System.currentTimeMillis();
+        long expiry = now + TimeUnit.MINUTES.toMillis(5);
+        store.put(1, USER_ID, expiry - 1);
+        store.put(2, USER_ID, expiry);
+        store.put(3, USER_ID, expiry + 1);
+
+        Assertions.assertThat(store.removeAll(USER_ID, expiry)).isTrue();
+        Assertions.assertThat(store.removeAll("2", expiry)).isFalse();
+        store.put(4, USER_ID, expiry);
+
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(3, USER_ID)).isEqualTo(expiry + 1);
+        Assertions.assertThat(store.getExpiresAt(4, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.remove(2, USER_ID)).isFalse();
+        Assertions.assertThat(store.evictExpired(now)).isEqualTo(0);
+        Assertions.assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictExpiredRemovesOnlyExpiredSessions() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long now = System.currentTimeMillis();
+        store.put(1, USER_ID, now - TimeUnit.MINUTES.toMillis(1));
+        store.put(2, USER_ID, now + TimeUnit.MINUTES.toMillis(5));
+
+        int removed = store.evictExpired(now);
+
+        Assertions.assertThat(removed).isEqualTo(1);
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isNotEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiredCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void countExpiredCountsUnsweptSessions() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long now = System.currentTimeMillis();
+        store.put(1, USER_ID, now - TimeUnit.MINUTES.toMillis(1));
+        store.put(2, "2", now - TimeUnit.MINUTES.toMillis(1));
+        store.put(3, USER_ID, now + TimeUnit.MINUTES.toMillis(5));
+
+        Assertions.assertThat(store.countExpired(now)).isEqualTo(2);
+        store.remove(2, "2");
+        Assertions.assertThat(store.countExpired(now)).isEqualTo(1);
+        Assertions.assertThat(store.countExpired(now + TimeUnit.MINUTES.toMillis(10))).isEqualTo(2);
+        store.evictExpired(now);
+        Assertions.assertThat(store.countExpired(now)).isEqualTo(0);
+    }
+
+    @Test
+    public void putOverCapacityEvictsSessionsClosestToExpiry() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(2);
+        long now = System.currentTimeMillis();
+        store.put(1, USER_ID, now + TimeUnit.MINUTES.toMillis(1));
+        store.put(2, USER_ID, now + TimeUnit.MINUTES.toMillis(2));
+        store.put(3, "2", now + TimeUnit.MINUTES.toMillis(3));
+
+        Assertions.assertThat(store.size()).isEqualTo(2);
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isNotEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(3, "2")).isNotEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getEvictedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void putOverCapacityEvictsTheOldestExpiryWhateverTheInsertionOrder() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(2);
+        long now = System.currentTimeMillis();
+        store.put(1, USER_ID, now + TimeUnit.MINUTES.toMillis(3));
+        store.put(2, USER_ID, now + TimeUnit.MINUTES.toMillis(1));
+        store.put(3, "2", now + TimeUnit.MINUTES.toMillis(2));
+
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isNotEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(2, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(store.getExpiresAt(3, "2")).isNotEqualTo(TokenStore.NO_SESSION);
+    }
+
+    @Test
+    public void sweepSkipsSessionsReopenedWithALaterExpiry() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(100);
+        long now = System.currentTimeMillis();
+        long expiry = now + TimeUnit.MINUTES.toMillis(5);
+        store.put(1, USER_ID, now - TimeUnit.MINUTES.toMillis(1));
+        store.remove(1, USER_ID);
+        store.put(1, USER_ID, expiry);
+
+        Assertions.assertThat(store.evictExpired(now)).isEqualTo(0);
+        Assertions.assertThat(store.getExpiresAt(1, USER_ID)).isEqualTo(expiry);
+        Assertions.assertThat(store.evictExpired(expiry + TimeUnit.SECONDS.toMillis(1))).isEqualTo(1);
+        Assertions.assertThat(store.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void sessionsSurviveTableGrowthAndRemovals() {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(Integer.MAX_VALUE);
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        for (long tokenId = 1; tokenId <= 100_000; tokenId++) {
+            store.put(tokenId, String.valueOf(tokenId % 1000), expiry + tokenId);
+        }
+        for (long tokenId = 1; tokenId <= 100_000; tokenId += 3) {
+            store.remove(tokenId, String.valueOf(tokenId % 1000));
+        }
+
+        for (long tokenId = 1; tokenId <= 100_000; tokenId++) {
+            long expected = tokenId % 3 == 1 ? TokenStore.NO_SESSION : expiry + tokenId;
+            Assertions.assertThat(store.getExpiresAt(tokenId, String.valueOf(tokenId % 1000))).isEqualTo(expected);
+        }
+        Assertions.assertThat(store.size()).isEqualTo(66_666);
+    }
+
+    @Test
+    public void sweepingDuringWritesLosesNoLiveSessions() throws Exception {
+        ConcurrentTokenStore store = new ConcurrentTokenStore(Integer.MAX_VALUE);
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> sweeper = executor.submit(() -> {
+                while (writing.get()) {
+                    store.evictExpired(System.currentTimeMillis());
+                }
+            });
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 1; i <= 100_000; i++) {
+                    // alternate between already expired and live sessions so the sweeper has work to do
+                    store.put(i, String.valueOf(i), i % 2 == 0 ? expiry - TimeUnit.DAYS.toMillis(365) : expiry);
+                }
+                writing.set(false);
+            });
+            writer.get(1, TimeUnit.MINUTES);
+            sweeper.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        store.evictExpired(System.currentTimeMillis());
+
+        Assertions.assertThat(store.size()).isEqualTo(50_000);
+        for (int i = 1; i <= 100_000; i += 2) {
+            Assertions.assertThat(store.getExpiresAt(i, String.valueOf(i))).isEqualTo(expiry);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.test.testassessment;
+
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.util.RandomIdGenerator;
+import com.test.testassessment.util.TimeOrderedIdGenerator;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public class IdGeneratorTests {
+
+    private static final SecureRandomPool randomPool = new SecureRandomPool(2);
+
+    @Test
+    public void randomIdsAreVersion4() {
+        RandomIdGenerator idGenerator = new RandomIdGenerator(randomPool);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = idGenerator.generateId();
+            UUID uuid = UUID.fromString(id);
+
+            Assertions.assertThat(uuid.version()).isEqualTo(4);
+            Assertions.assertThat(uuid.variant()).isEqualTo(2);
+            Assertions.assertThat(uuid.toString()).isEqualTo(id);
+            ids.add(id);
+        }
+        Assertions.assertThat(ids).hasSize(1000);
+    }
+
+    @Test
+    public void timeOrderedIdsAreVersion7() {
+        TimeOrderedIdGenerator idGenerator = new TimeOrderedIdGenerator(randomPool);
+        long before = System.currentTimeMillis();
+
+        UUID uuid = UUID.fromString(idGenerator.generateId());
+
+        Assertions.assertThat(uuid.version()).isEqualTo(7);
+        Assertions.assertThat(uuid.variant()).isEqualTo(2);
+        Assertions.assertThat(uuid.getMostSignificantBits() >>> 16).isBetween(before, System.currentTimeMillis());
+    }
+
+    @Test
+    public void timeOrderedIdsSortByCreationTime() throws InterruptedException {
+        TimeOrderedIdGenerator idGenerator = new TimeOrderedIdGenerator(randomPool);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(idGenerator.generateId());
+            Thread.sleep(2);
+        }
+
+        Assertions.assertThat(ids).isSorted();
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.test.testassessment;
+
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.impl.TokenService;
+import com.test.testassessment.store.TokenStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+public class MetricsTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TokenService tokenService;
+
+    @Autowired
+    private TokenValidationMetrics validationMetrics;
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    @Test
+    public void malformedTokenIsCountedAndExported() throws Exception {
+        long malformedBefore = validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.MALFORMED);
+        String malformedToken = Base64.getEncoder().encodeToString("not json".getBytes(StandardCharsets.UTF_8));
+
+        mockMvc.perform(post("/users/1/validate-token").header("Authorization", malformedToken))
+                .andExpect(status().isUnauthorized());
+
+        Assertions.assertThat(validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.MALFORMED))
+                .isEqualTo(malformedBefore + 1);
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Assertions.assertThat(scrape)
+                .contains("token_validations_total{format=\"json\",outcome=\"malformed\",}")
+                .contains("token_store_size")
+                .contains("token_store_expired")
+                .contains("token_revocations_filter_bytes")
+                .contains("token_revocations_filter_false_positives_total")
+                .contains("uri=\"/users/{id}/validate-token\",quantile=\"0.99\",}");
+    }
+
+    @Test
+    public void validationOutcomesAreCounted() {
+        User user = new User();
+        user.setId("metrics-user");
+        user.setUserName("metricsuser");
+        long validBefore = validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.VALID);
+        long mismatchBefore = validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.USER_MISMATCH);
+        long unknownBefore = validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.UNKNOWN);
+        Token token = tokenService.generateToken(user);
+        try {
+            Assertions.assertThat(tokenService.isTokenValid(user.getId(), token)).isTrue();
+            Assertions.assertThat(tokenService.isTokenValid("another-user", token)).isFalse();
+        } finally {
+            // the token store is shared with the other tests running in this context
+            tokenStore.remove(token.getId(), user.getId());
+        }
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token)).isFalse();
+
+        Assertions.assertThat(validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.VALID)).isEqualTo(validBefore + 1);
+        Assertions.assertThat(validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.USER_MISMATCH)).isEqualTo(mismatchBefore + 1);
+        Assertions.assertThat(validationMetrics.count(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.UNKNOWN)).isEqualTo(unknownBefore + 1);
+    }
+
+}
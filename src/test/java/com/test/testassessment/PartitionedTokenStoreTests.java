@@ -0,0 +1,410 @@
+package com.test.testassessment;
+
+import com.test.testassessment.security.ClusterAuthenticator;
+import com.test.testassessment.store.PartitionUnavailableException;
+import com.test.testassessment.store.PartitionedTokenStore;
+import com.test.testassessment.store.TokenStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class PartitionedTokenStoreTests {
+
+    private static final long EXPIRES_AT = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+    private static final long TIMEOUT_MILLIS = 500;
+    private static final String SECRET = "c2hhcmVkLWJ5LWV2ZXJ5LWluc3RhbmNlLW9mLXRoZS1jbHVzdGVy";
+    private static final String OTHER_SECRET = "bm90LXRoZS1zZWNyZXQtb2YtdGhpcy1wYXJ0aWN1bGFyLWNsdXN0ZXI=";
+    private final List<PartitionedTokenStore> nodes = new ArrayList<>();
+    private final List<MeterRegistry> registries = new ArrayList<>();
+    private final MutableClock clock = new MutableClock();
+
+    @AfterEach
+    public void tearDown() {
+        for (PartitionedTokenStore node : nodes) {
+            node.destroy();
+        }
+    }
+
+    @Test
+    public void sessionsAreHeldByTheirOwnersOnly() throws IOException {
+        List<String> members = freeMembers(3);
+        PartitionedTokenStore a = node(members, 0, 2);
+        PartitionedTokenStore b = node(members, 1, 2);
+        PartitionedTokenStore c = node(members, 2, 2);
+        awaitStarted();
+
+        for (int i = 1; i <= 300; i++) {
+            Assertions.assertThat(nodes.get(i % 3).put(i, "user" + i, EXPIRES_AT)).isTrue();
+        }
+        Assertions.assertThat(a.put(1, "user1", EXPIRES_AT)).isFalse();
+        for (int i = 1; i <= 300; i++) {
+            for (PartitionedTokenStore node : nodes) {
+                Assertions.assertThat(node.getExpiresAt(i, "user" + i)).isEqualTo(EXPIRES_AT);
+            }
+        }
+        // two replicas of each session, spread over the three members
+        Assertions.assertThat(nodes.stream().mapToInt(TokenStore::size).sum()).isEqualTo(600);
+        Assertions.assertThat(nodes).allMatch(node -> node.size() > 100 && node.size() < 300);
+        Assertions.assertThat(registries.get(0).get("token.partition.forwarded").functionCounter().count()).isPositive();
+
+        Assertions.assertThat(b.remove(1, "user1")).isTrue();
+        Assertions.assertThat(c.removeAll("user2")).isTrue();
+        Assertions.assertThat(a.remove(1, "user1")).isFalse();
+        Assertions.assertThat(a.removeAll("user3", EXPIRES_AT - 1)).isTrue();
+        Assertions.assertThat(b.removeAll("user4", EXPIRES_AT)).isTrue();
+        for (PartitionedTokenStore node : nodes) {
+            Assertions.assertThat(node.getExpiresAt(1, "user1")).isEqualTo(TokenStore.NO_SESSION);
+            Assertions.assertThat(node.getExpiresAt(2, "user2")).isEqualTo(TokenStore.NO_SESSION);
+            Assertions.assertThat(node.getExpiresAt(3, "user3")).isEqualTo(EXPIRES_AT);
+            Assertions.assertThat(node.getExpiresAt(4, "user4")).isEqualTo(TokenStore.NO_SESSION);
+        }
+    }
+
+    @Test
+    public void replicasAnswerForAMemberThatIsDown() throws IOException {
+        List<String> members = freeMembers(3);
+        PartitionedTokenStore a = node(members, 0, 2);
+        PartitionedTokenStore b = node(members, 1, 2);
+        PartitionedTokenStore c = node(members, 2, 2);
+        awaitStarted();
+        for (int i = 1; i <= 100; i++) {
+            a.put(i, "user" + i, EXPIRES_AT);
+        }
+
+        c.destroy();
+        nodes.remove(c);
+        for (int i = 1; i <= 100; i++) {
+            Assertions.assertThat(a.getExpiresAt(i, "user" + i)).isEqualTo(EXPIRES_AT);
+            Assertions.assertThat(b.remove(i, "user" + i)).isTrue();
+            Assertions.assertThat(a.getExpiresAt(i, "user" + i)).isEqualTo(TokenStore.NO_SESSION);
+        }
+        Assertions.assertThat(registries.get(0).get("token.partition.failovers").functionCounter().count()).isPositive();
+    }
+
+    @Test
+    public void joiningMemberIsHandedItsSessions() throws IOException {
+        List<String> members = freeMembers(3);
+        PartitionedTokenStore a = node(members.subList(0, 2), 0, 1);
+        PartitionedTokenStore b = node(members.subList(0, 2), 1, 1);
+        awaitStarted();
+        for (int i = 1; i <= 1000; i++) {
+            a.put(i, "user" + i, EXPIRES_AT);
+        }
+        Assertions.assertThat(a.size() + b.size()).isEqualTo(1000);
+
+        // the others were not configured with it, so it is added by one of them rather than by itself
+        PartitionedTokenStore c = node(members, 2, 1);
+        a.setMembers(members);
+        awaitTrue(() -> nodes.stream().allMatch(node -> node.getMembers().size() == 3 && !node.isRebalancing()));
+        Assertions.assertThat(c.size()).isBetween(100, 700);
+        Assertions.assertThat(a.size() + b.size() + c.size()).isEqualTo(1000);
+        for (int i = 1; i <= 1000; i++) {
+            Assertions.assertThat(b.getExpiresAt(i, "user" + i)).isEqualTo(EXPIRES_AT);
+        }
+        Assertions.assertThat(registries.get(0).get("token.partition.handoffs").functionCounter().count()
+                + registries.get(1).get("token.partition.handoffs").functionCounter().count()).isEqualTo(c.size());
+    }
+
+    @Test
+    public void unreachableOwnersAreReported() {
+        PartitionedTokenStore a = node("localhost:1", 1, SECRET);
+        int unavailable = 0;
+        for (int i = 1; i <= 50; i++) {
+            try {
+                a.put(i, "user" + i, EXPIRES_AT);
+            } catch (PartitionUnavailableException e) {
+                unavailable++;
+            }
+        }
+        Assertions.assertThat(unavailable).isBetween(1, 49);
+    }
+
+    @Test
+    public void previousOwnersAreLookedUpDuringTheGracePeriodOnly() throws IOException {
+        List<String> members = freeMembers(2);
+        PartitionedTokenStore a = node(members, 0, 1);
+        PartitionedTokenStore b = node(members, 1, 1);
+        awaitStarted();
+        a.setMembers(members.subList(0, 1));
+        awaitTrue(() -> !a.isRebalancing() && !b.isRebalancing());
+        Counter forwarded = new Counter(registries.get(0));
+
+        for (int i = 1; i <= 100; i++) {
+            Assertions.assertThat(a.getExpiresAt(i, "user" + i)).isEqualTo(TokenStore.NO_SESSION);
+        }
+        Assertions.assertThat(forwarded.sinceLast()).isPositive();
+
+        clock.millis += 60000;
+        for (int i = 1; i <= 100; i++) {
+            Assertions.assertThat(a.getExpiresAt(i, "user" + i)).isEqualTo(TokenStore.NO_SESSION);
+        }
+        Assertions.assertThat(forwarded.sinceLast()).isZero();
+    }
+
+    @Test
+    public void connectionsWithoutTheSecretAreRefused() throws IOException {
+        PartitionedTokenStore a = node("", 1, SECRET);
+
+        // a client sending a request straight away is sent a challenge and disconnected
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try (Socket socket = new Socket("localhost", a.getPort())) {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(0x544B5054);
+            out.writeInt(1);
+            out.writeByte(1);
+            out.writeLong(1);
+            out.writeLong(EXPIRES_AT);
+            out.writeUTF("user1");
+            out.flush();
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            for (int read = in.read(); read >= 0; read = in.read()) {
+                received.write(read);
+            }
+        }
+        Assertions.assertThat(received.size()).isEqualTo(16);
+
+        // and so is a member with another secret, whose requests all fail
+        PartitionedTokenStore intruder = node(a.getSelf(), 1, OTHER_SECRET);
+        for (int i = 1; i <= 50; i++) {
+            try {
+                intruder.put(i, "user" + i, EXPIRES_AT);
+            } catch (PartitionUnavailableException e) {
+                // expected for the users a owns
+            }
+        }
+        Assertions.assertThat(a.isEmpty()).isTrue();
+        Assertions.assertThat(a.getMembers()).containsExactly(a.getSelf());
+    }
+
+    @Test
+    public void silentConnectionsAreDroppedAndCapped() throws IOException {
+        PartitionedTokenStore a = node("", 1, SECRET);
+        List<Socket> silent = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                silent.add(new Socket("localhost", a.getPort()));
+            }
+            // over the cap, closed straight away
+            try (Socket refused = new Socket("localhost", a.getPort())) {
+                refused.setSoTimeout(1000);
+                Assertions.assertThat(refused.getInputStream().read()).isEqualTo(-1);
+            }
+            // within it, closed once the handshake timed out without the magic being sent
+            Socket first = silent.get(0);
+            first.setSoTimeout(10000);
+            long start = System.nanoTime();
+            Assertions.assertThat(first.getInputStream().read()).isEqualTo(-1);
+            Assertions.assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(9));
+        } finally {
+            for (Socket socket : silent) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void stalledMembersAreConsideredDown() throws Exception {
+        try (ServerSocket stalled = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> acceptAndStall(stalled));
+            acceptor.setDaemon(true);
+            acceptor.start();
+            PartitionedTokenStore a = node("localhost:" + stalled.getLocalPort(), 1, SECRET);
+
+            // without dropping the connection, every request owned by the stalled member would wait the timeout
+            long start = System.nanoTime();
+            int unavailable = 0;
+            for (int i = 1; i <= 50; i++) {
+                try {
+                    a.put(i, "user" + i, EXPIRES_AT);
+                } catch (PartitionUnavailableException e) {
+                    unavailable++;
+                }
+            }
+            Assertions.assertThat(unavailable).isBetween(10, 49);
+            Assertions.assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS * 8));
+        }
+    }
+
+    @Test
+    public void signedTokensNeedReplication() {
+        Assertions.assertThatThrownBy(() -> new PartitionedTokenStore(clock, new SimpleMeterRegistry(), 10000, 0, "localhost", "", "", SECRET, 1, 64, 2,
+                        TIMEOUT_MILLIS, 60000, "signed", "none"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("test.assessment.token.replication=peers");
+    }
+
+    @Test
+    public void membersAreOnlyChangedByKnownMembers() {
+        PartitionedTokenStore a = node("", 1, SECRET);
+        PartitionedTokenStore stranger = node("", 1, SECRET);
+
+        stranger.setMembers(Arrays.asList(stranger.getSelf(), a.getSelf()));
+        awaitTrue(() -> !stranger.isRebalancing());
+
+        Assertions.assertThat(a.getMembers()).containsExactly(a.getSelf());
+        Assertions.assertThat(a.isRebalancing()).isFalse();
+    }
+
+    private PartitionedTokenStore node(List<String> members, int index, int replicas) {
+        String self = members.get(index);
+        return node(Integer.parseInt(self.substring(self.indexOf(':') + 1)), String.join(",", members), replicas, SECRET);
+    }
+
+    private PartitionedTokenStore node(String members, int replicas, String secret) {
+        return node(0, members, replicas, secret);
+    }
+
+    private PartitionedTokenStore node(int port, String members, int replicas, String secret) {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        PartitionedTokenStore node = new PartitionedTokenStore(clock, registry, 10000, port, "localhost", "", members, secret, replicas, 64, 2,
+                TIMEOUT_MILLIS, 60000, "json", "none");
+        nodes.add(node);
+        registries.add(registry);
+        return node;
+    }
+
+    /**
+     * Accepts members as a partition server would, proving the secret and reading their name,
+     * then never answers their requests.
+     */
+    private static void acceptAndStall(ServerSocket server) {
+        List<Socket> connections = new ArrayList<>();
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                connections.add(socket);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                new ClusterAuthenticator(SECRET, "secret").accept(in.readInt(), in, out);
+                in.readUTF();
+            }
+        } catch (IOException e) {
+            // closed by the test
+        } finally {
+            for (Socket socket : connections) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code localhost:port} for ports free at the time, so that members can be configured
+     * with each other before they start
+     */
+    private static List<String> freeMembers(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        List<String> members = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                members.add("localhost:" + socket.getLocalPort());
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Waits for the members started to settle, and for those that announced themselves to members
+     * not started yet to stop considering them down.
+     */
+    private void awaitStarted() {
+        awaitTrue(() -> nodes.stream().allMatch(node -> !node.isRebalancing()));
+        try {
+            Thread.sleep(TIMEOUT_MILLIS + 100);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Counter {
+
+        private final MeterRegistry registry;
+        private double last;
+
+        Counter(MeterRegistry registry) {
+            this.registry = registry;
+            this.last = count();
+        }
+
+        double sinceLast() {
+            double count = count();
+            double since = count - last;
+            last = count;
+            return since;
+        }
+
+        private double count() {
+            return registry.get("token.partition.forwarded").functionCounter().count();
+        }
+
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile long millis = System.currentTimeMillis();
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertThat(System.nanoTime()).as("rebalanced within 10 seconds").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
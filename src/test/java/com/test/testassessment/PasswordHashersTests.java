@@ -0,0 +1,173 @@
+package com.test.testassessment;
+
+import com.test.testassessment.security.Argon2PasswordHasher;
+import com.test.testassessment.security.PasswordHasher;
+import com.test.testassessment.security.PasswordHashing;
+import com.test.testassessment.security.Pbkdf2PasswordHasher;
+import com.test.testassessment.security.ScryptPasswordHasher;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.Sha256PasswordHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+public class PasswordHashersTests {
+
+    private static final String SALT = "c2FsdHNhbHRzYWx0c2FsdA==";
+
+    private static final String PASSWORD = "J@me$5";
+
+    // low costs to keep the tests fast
+    private static final List<PasswordHasher> hashers = Arrays.asList(
+            new Sha256PasswordHasher(),
+            new Pbkdf2PasswordHasher(1000),
+            new ScryptPasswordHasher(1024, 8, 1),
+            new Argon2PasswordHasher(1024, 1, 1));
+
+    @Test
+    public void hashersMatchTheirOwnHashes() {
+        byte[] salt = SALT.getBytes(StandardCharsets.UTF_8);
+        for (PasswordHasher hasher : hashers) {
+            String hash = hasher.hash(PASSWORD, salt);
+
+            Assertions.assertThat(hasher.matches(PASSWORD, salt, hash)).as(hasher.getAlgorithm()).isTrue();
+            Assertions.assertThat(hasher.matches("J@me$6", salt, hash)).as(hasher.getAlgorithm()).isFalse();
+            Assertions.assertThat(hasher.matches(PASSWORD, "otherSalt".getBytes(StandardCharsets.UTF_8), hash)).as(hasher.getAlgorithm()).isFalse();
+            Assertions.assertThat(hasher.needsRehash(hash)).as(hasher.getAlgorithm()).isFalse();
+        }
+    }
+
+    @Test
+    public void hashesCarryTheirParameters() {
+        byte[] salt = SALT.getBytes(StandardCharsets.UTF_8);
+
+        Assertions.assertThat(new Pbkdf2PasswordHasher(1000).hash(PASSWORD, salt)).startsWith("$pbkdf2-sha256$i=1000$");
+        Assertions.assertThat(new ScryptPasswordHasher(1024, 8, 1).hash(PASSWORD, salt)).startsWith("$scrypt$n=1024,r=8,p=1$");
+        Assertions.assertThat(new Argon2PasswordHasher(1024, 1, 1).hash(PASSWORD, salt)).startsWith("$argon2id$m=1024,t=1,p=1$");
+    }
+
+    @Test
+    public void hashesWithOtherParametersStillMatchButNeedRehash() {
+        byte[] salt = SALT.getBytes(StandardCharsets.UTF_8);
+        String hash = new Pbkdf2PasswordHasher(1000).hash(PASSWORD, salt);
+        Pbkdf2PasswordHasher strongerHasher = new Pbkdf2PasswordHasher(2000);
+
+        Assertions.assertThat(strongerHasher.matches(PASSWORD, salt, hash)).isTrue();
+        Assertions.assertThat(strongerHasher.needsRehash(hash)).isTrue();
+    }
+
+    @Test
+    public void legacyHashIsUnchanged() {
+        String legacyHash = DigestUtils.sha256Hex(SALT + PASSWORD);
+
+        Assertions.assertThat(new Sha256PasswordHasher().hash(PASSWORD, SALT.getBytes(StandardCharsets.UTF_8))).isEqualTo(legacyHash);
+    }
+
+    @Test
+    public void passwordHashingVerifiesEveryAlgorithm() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PasswordHashing passwordHashing = new PasswordHashing(hashers, new SecureRandomPool(1), registry, Argon2PasswordHasher.ALGORITHM, 2, 16);
+        try {
+            for (PasswordHasher hasher : hashers) {
+                String hash = hasher.hash(PASSWORD, SALT.getBytes(StandardCharsets.UTF_8));
+
+                Assertions.assertThat(passwordHashing.matches(SALT, PASSWORD, hash)).as(hasher.getAlgorithm()).isTrue();
+                Assertions.assertThat(passwordHashing.needsRehash(hash)).as(hasher.getAlgorithm())
+                        .isEqualTo(!hasher.getAlgorithm().equals(Argon2PasswordHasher.ALGORITHM));
+            }
+            for (PasswordHasher hasher : hashers) {
+                Assertions.assertThat(registry.get("password.hashing").tag("algorithm", hasher.getAlgorithm()).tag("operation", "verify").timer().count())
+                        .as(hasher.getAlgorithm()).isEqualTo(1);
+            }
+            Assertions.assertThat(passwordHashing.matches(SALT, PASSWORD, "$bcrypt$c=10$aGFzaA")).isFalse();
+            Assertions.assertThat(passwordHashing.matches(SALT, PASSWORD, "$pbkdf2-sha256$i=x$aGFzaA")).isFalse();
+            Assertions.assertThat(passwordHashing.matches(SALT, null, DigestUtils.sha256Hex(SALT + PASSWORD))).isFalse();
+        } finally {
+            passwordHashing.destroy();
+        }
+    }
+
+    @Test
+    public void passwordHashingRejectsWhenSaturated() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHasher blockingHasher = new Pbkdf2PasswordHasher(1000) {
+            @Override
+            public String hash(String password, byte[] salt) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.hash(password, salt);
+            }
+        };
+        PasswordHashing passwordHashing = new PasswordHashing(Arrays.asList(blockingHasher), new SecureRandomPool(1), new SimpleMeterRegistry(), Pbkdf2PasswordHasher.ALGORITHM, 1, 1);
+        try {
+            new Thread(() -> passwordHashing.hash(SALT, PASSWORD)).start();
+            started.await();
+            new Thread(() -> passwordHashing.hash(SALT, PASSWORD)).start();
+            while (passwordHashing.getQueueSize() == 0) {
+                Thread.yield();
+            }
+
+            Assertions.assertThatThrownBy(() -> passwordHashing.hash(SALT, PASSWORD)).isInstanceOf(RejectedExecutionException.class);
+        } finally {
+            release.countDown();
+            passwordHashing.destroy();
+        }
+    }
+
+    @Test
+    public void bulkHashingWaitsForRoomWhenSaturated() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHasher blockingHasher = new Pbkdf2PasswordHasher(1000) {
+            @Override
+            public String hash(String password, byte[] salt) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.hash(password, salt);
+            }
+        };
+        PasswordHashing passwordHashing = new PasswordHashing(Arrays.asList(blockingHasher), new SecureRandomPool(1), new SimpleMeterRegistry(), Pbkdf2PasswordHasher.ALGORITHM, 1, 1);
+        try {
+            new Thread(() -> passwordHashing.hash(SALT, PASSWORD)).start();
+            started.await();
+            new Thread(() -> passwordHashing.hash(SALT, PASSWORD)).start();
+            while (passwordHashing.getQueueSize() == 0) {
+                Thread.yield();
+            }
+            List<String> passwords = Arrays.asList("first", "second", "third");
+            List<List<String>> hashes = new ArrayList<>();
+            Thread importer = new Thread(() -> hashes.add(passwordHashing.hashAll(Arrays.asList(SALT, SALT, SALT), passwords)));
+            importer.start();
+            importer.join(200);
+            Assertions.assertThat(importer.isAlive()).as("waiting for room in the queue").isTrue();
+
+            release.countDown();
+            importer.join(10000);
+            Assertions.assertThat(hashes).hasSize(1);
+            for (int i = 0; i < passwords.size(); i++) {
+                Assertions.assertThat(passwordHashing.matches(SALT, passwords.get(i), hashes.get(0).get(i))).isTrue();
+            }
+        } finally {
+            release.countDown();
+            passwordHashing.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.test.testassessment;
+
+import com.test.testassessment.store.PersistentTokenStore;
+import com.test.testassessment.store.TokenStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PersistentTokenStoreTests {
+
+    private static final String USER_ID = "1";
+    private static final int SEGMENT_BYTES = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void sessionsSurviveARestart() {
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        PersistentTokenStore store = open();
+        store.put(1, USER_ID, expiry);
+        store.put(2, USER_ID, expiry + 1);
+        store.put(3, "2", expiry);
+        store.put(4, "3", expiry);
+        store.remove(1, USER_ID);
+        store.removeAll("3");
+        store.put(5, "4", expiry);
+        store.put(6, "4", expiry + 1);
+        store.removeAll("4", expiry);
+        store.destroy();
+
+        PersistentTokenStore reopened = open();
+
+        Assertions.assertThat(reopened.getExpiresAt(1, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(reopened.getExpiresAt(2, USER_ID)).isEqualTo(expiry + 1);
+        Assertions.assertThat(reopened.getExpiresAt(3, "2")).isEqualTo(expiry);
+        Assertions.assertThat(reopened.getExpiresAt(4, "3")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(reopened.getExpiresAt(5, "4")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(reopened.getExpiresAt(6, "4")).isEqualTo(expiry + 1);
+        reopened.destroy();
+    }
+
+    @Test
+    public void expiredSessionsAreNotReplayed() {
+        long now = System.currentTimeMillis();
+        PersistentTokenStore store = open();
+        store.put(1, USER_ID, now - TimeUnit.MINUTES.toMillis(1));
+        store.put(2, USER_ID, now + TimeUnit.MINUTES.toMillis(5));
+        store.destroy();
+
+        PersistentTokenStore reopened = open();
+
+        Assertions.assertThat(reopened.size()).isEqualTo(1);
+        Assertions.assertThat(reopened.getExpiresAt(2, USER_ID)).isNotEqualTo(TokenStore.NO_SESSION);
+        reopened.destroy();
+    }
+
+    @Test
+    public void compactionKeepsOnlyOpenSessions() throws IOException {
+        long now = System.currentTimeMillis();
+        long expiry = now + TimeUnit.MINUTES.toMillis(5);
+        PersistentTokenStore store = open();
+        // enough records to fill several segments
+        for (long tokenId = 1; tokenId <= 100_000; tokenId++) {
+            store.put(tokenId, String.valueOf(tokenId % 100), tokenId % 2 == 0 ? now - 1 : expiry);
+        }
+        store.removeAll("1");
+        store.remove(3, "3");
+        Assertions.assertThat(files()).hasSizeGreaterThan(2);
+
+        store.compact();
+        store.put(100_001, USER_ID, expiry);
+        store.destroy();
+
+        Assertions.assertThat(files()).hasSize(2);
+        PersistentTokenStore reopened = open();
+        // 50000 unexpired sessions, less the 1000 of user 1 and token 3
+        Assertions.assertThat(reopened.size()).isEqualTo(50_000 - 1000 - 1 + 1);
+        Assertions.assertThat(reopened.getExpiresAt(5, "5")).isEqualTo(expiry);
+        Assertions.assertThat(reopened.getExpiresAt(3, "3")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(reopened.getExpiresAt(101, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(reopened.getExpiresAt(100_001, USER_ID)).isEqualTo(expiry);
+        reopened.destroy();
+    }
+
+    @Test
+    public void replayStopsAtARecordCutShort() throws IOException {
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        PersistentTokenStore store = open();
+        store.put(1, USER_ID, expiry);
+        store.put(2, USER_ID, expiry);
+        store.destroy();
+        Path segment = files().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // corrupts the last byte of the second record, as a crash halfway through writing it would
+            int recordBytes = 8 + 19 + USER_ID.length();
+            file.seek(2L * recordBytes - 1);
+            file.write(0xFF);
+        }
+
+        PersistentTokenStore reopened = open();
+
+        Assertions.assertThat(reopened.getExpiresAt(1, USER_ID)).isEqualTo(expiry);
+        Assertions.assertThat(reopened.getExpiresAt(2, USER_ID)).isEqualTo(TokenStore.NO_SESSION);
+        reopened.destroy();
+    }
+
+    @Test
+    public void loginsRacingARevocationReplayAsTheyWereApplied() throws InterruptedException {
+        long expiry = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        PersistentTokenStore store = open();
+        int logins = 20_000;
+        Thread revoker = new Thread(() -> {
+            for (int i = 0; i < logins; i++) {
+                store.removeAll(USER_ID);
+            }
+        });
+        revoker.start();
+        for (long tokenId = 1; tokenId <= logins; tokenId++) {
+            store.put(tokenId, USER_ID, expiry);
+        }
+        revoker.join();
+        List<Long> open = new ArrayList<>();
+        for (long tokenId = 1; tokenId <= logins; tokenId++) {
+            if (store.getExpiresAt(tokenId, USER_ID) != TokenStore.NO_SESSION) {
+                open.add(tokenId);
+            }
+        }
+        store.destroy();
+
+        PersistentTokenStore reopened = open();
+
+        for (long tokenId = 1; tokenId <= logins; tokenId++) {
+            Assertions.assertThat(reopened.getExpiresAt(tokenId, USER_ID) != TokenStore.NO_SESSION)
+                    .as("session %d open after replay", tokenId).isEqualTo(open.contains(tokenId));
+        }
+        reopened.destroy();
+    }
+
+    private PersistentTokenStore open() {
+        return new PersistentTokenStore(Integer.MAX_VALUE, directory.toString(), SEGMENT_BYTES, 10, TimeUnit.HOURS.toMillis(1), Clock.systemUTC());
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            paths.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.SignedToken;
+import com.test.testassessment.store.RevocationList;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RevocationListTests {
+
+    private static final long NOW = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    private static final long EXPIRY = NOW + TimeUnit.MINUTES.toSeconds(5);
+
+    @Test
+    public void revokedTokensAndUsersAreFound() {
+        RevocationList revocationList = new RevocationList(1024);
+
+        Assertions.assertThat(revocationList.revoke(1, EXPIRY)).isTrue();
+        Assertions.assertThat(revocationList.revoke(1, EXPIRY)).isFalse();
+        revocationList.revokeAll("2", EXPIRY);
+
+        Assertions.assertThat(revocationList.isRevoked(new SignedToken(1, "1", EXPIRY))).isTrue();
+        Assertions.assertThat(revocationList.isRevoked(new SignedToken(2, "2", EXPIRY))).isTrue();
+        Assertions.assertThat(revocationList.isRevoked(new SignedToken(3, "2", EXPIRY + 1))).isFalse();
+        Assertions.assertThat(revocationList.isRevoked(new SignedToken(4, "1", EXPIRY))).isFalse();
+    }
+
+    @Test
+    public void tokensIssuedAfterARevocationExpireAfterIt() {
+        RevocationList revocationList = new RevocationList(1024);
+        revocationList.revokeAll("2", EXPIRY);
+
+        Assertions.assertThat(revocationList.expiryAfterRevocations("1", EXPIRY)).isEqualTo(EXPIRY);
+        Assertions.assertThat(revocationList.expiryAfterRevocations("2", EXPIRY)).isEqualTo(EXPIRY + 1);
+        Assertions.assertThat(revocationList.expiryAfterRevocations("2", EXPIRY + 2)).isEqualTo(EXPIRY + 2);
+        Assertions.assertThat(revocationList.isRevoked(new SignedToken(1, "2", revocationList.expiryAfterRevocations("2", EXPIRY)))).isFalse();
+    }
+
+    @Test
+    public void filterClearsNearlyEveryUnrevokedToken() {
+        RevocationList revocationList = new RevocationList(10_000);
+        for (long tokenId = 1; tokenId <= 10_000; tokenId++) {
+            revocationList.revoke(tokenId, EXPIRY);
+        }
+
+        for (long tokenId = 10_001; tokenId <= 110_000; tokenId++) {
+            Assertions.assertThat(revocationList.isRevoked(new SignedToken(tokenId, String.valueOf(tokenId), EXPIRY))).isFalse();
+        }
+
+        // each check probes the token id and the user, twice the expected rate keeps an unlucky run from failing
+        Assertions.assertThat(revocationList.getFalsePositives()).isLessThan(Math.max(20, (long) (2 * 2 * 100_000 * revocationList.getExpectedFalsePositiveRate())));
+        Assertions.assertThat(revocationList.getFilterPositives()).isEqualTo(revocationList.getFalsePositives());
+        // 16 bits per entry, in blocks of 64 bytes
+        Assertions.assertThat(revocationList.getFilterBytes()).isEqualTo(313 * 64);
+    }
+
+    @Test
+    public void entriesAgeOutAtExpiryAndTheFilterIsRebuilt() {
+        RevocationList revocationList = new RevocationList(1024);
+        for (long tokenId = 1; tokenId <= 2000; tokenId++) {
+            revocationList.revoke(tokenId, tokenId % 2 == 0 ? NOW - 1 : EXPIRY);
+        }
+        revocationList.revokeAll("1", NOW - 1);
+
+        int removed = revocationList.evictExpired(NOW);
+
+        Assertions.assertThat(removed).isEqualTo(1001);
+        Assertions.assertThat(revocationList.size()).isEqualTo(1000);
+        Assertions.assertThat(revocationList.getFilterRebuilds()).isEqualTo(1);
+        for (long tokenId = 1; tokenId <= 2000; tokenId++) {
+            Assertions.assertThat(revocationList.isRevoked(new SignedToken(tokenId, "1", EXPIRY))).isEqualTo(tokenId % 2 == 1);
+        }
+    }
+
+    @Test
+    public void revocationsDuringRebuildsAreNotLost() throws Exception {
+        RevocationList revocationList = new RevocationList(16);
+        AtomicBoolean revoking = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> sweeper = executor.submit(() -> {
+                while (revoking.get()) {
+                    revocationList.evictExpired(NOW);
+                }
+            });
+            Future<?> revoker = executor.submit(() -> {
+                for (long tokenId = 1; tokenId <= 100_000; tokenId++) {
+                    // expired revocations keep the filter full of dropped keys, so it is rebuilt over and over
+                    revocationList.revoke(tokenId, tokenId % 2 == 0 ? NOW - 1 : EXPIRY);
+                }
+                revoking.set(false);
+            });
+            revoker.get(1, TimeUnit.MINUTES);
+            sweeper.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertThat(revocationList.getFilterRebuilds()).isPositive();
+        for (long tokenId = 1; tokenId <= 100_000; tokenId += 2) {
+            Assertions.assertThat(revocationList.isRevoked(new SignedToken(tokenId, "1", EXPIRY))).isTrue();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.test.testassessment;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.test.testassessment.audit.TokenAuditLog;
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
+import com.test.testassessment.model.Token;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class TokenAuditLogTests {
+
+    private static final Token TOKEN = new Token(42L, "secret-content", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(TokenAuditLog.class);
+
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    private Level previousLevel;
+
+    @BeforeEach
+    public void attachAppender() {
+        previousLevel = logger.getLevel();
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @AfterEach
+    public void detachAppender() {
+        logger.detachAppender(appender);
+        logger.setLevel(previousLevel);
+    }
+
+    @Test
+    public void nothingIsLoggedBelowDebug() {
+        logger.setLevel(Level.INFO);
+
+        new TokenAuditLog(Clock.systemUTC(), 1, 100).issued("1", TOKEN);
+
+        Assertions.assertThat(appender.list).isEmpty();
+    }
+
+    @Test
+    public void eventsNameTheUserButNotTheToken() {
+        logger.setLevel(Level.DEBUG);
+        TokenAuditLog auditLog = new TokenAuditLog(Clock.systemUTC(), 1, 100);
+
+        auditLog.issued("1", TOKEN);
+        auditLog.rejected(TokenValidationMetrics.Format.JSON, "2\nevent=forged", TokenValidationOutcome.USER_MISMATCH);
+        auditLog.revokedAll("1");
+
+        Assertions.assertThat(messages())
+                .containsExactly("event=issued format=json user=1 expiresAt=" + Instant.ofEpochMilli(TOKEN.getExpiresAt()),
+                        "event=rejected format=json user=2_event_forged reason=user-mismatch",
+                        "event=revoked-all user=1");
+    }
+
+    @Test
+    public void batchRejectionsAreOneEvent() {
+        logger.setLevel(Level.DEBUG);
+        TokenAuditLog auditLog = new TokenAuditLog(Clock.systemUTC(), 1, 100);
+        TokenValidationCounts counts = new TokenValidationCounts();
+        for (int i = 0; i < 500; i++) {
+            counts.add(TokenValidationMetrics.Format.JSON, i % 5 == 0 ? TokenValidationOutcome.VALID : TokenValidationOutcome.MALFORMED);
+        }
+        counts.add(TokenValidationMetrics.Format.SIGNED, TokenValidationOutcome.MALFORMED);
+        counts.add(TokenValidationMetrics.Format.SIGNED, TokenValidationOutcome.EXPIRED);
+
+        auditLog.rejected(counts);
+        TokenValidationCounts valid = new TokenValidationCounts();
+        valid.add(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.VALID);
+        auditLog.rejected(valid);
+
+        Assertions.assertThat(messages()).containsExactly("event=rejected-batch size=502 rejected=402 reasons=malformed:401,expired:1");
+    }
+
+    @Test
+    public void eventsOverTheLimitAreDropped() {
+        logger.setLevel(Level.DEBUG);
+        MutableClock clock = new MutableClock();
+        TokenAuditLog auditLog = new TokenAuditLog(clock, 1, 2);
+
+        for (int i = 0; i < 1000; i++) {
+            auditLog.revoked(String.valueOf(i));
+        }
+        clock.millis += 1000;
+        auditLog.revoked("1000");
+
+        Assertions.assertThat(messages())
+                .containsExactly("event=revoked format=json user=0",
+                        "event=revoked format=json user=1",
+                        "event=suppressed count=998 maxPerSecond=2",
+                        "event=revoked format=json user=1000");
+    }
+
+    private List<String> messages() {
+        return appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis = 1_700_000_000_000L;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
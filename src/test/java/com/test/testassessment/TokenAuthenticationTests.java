@@ -0,0 +1,91 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.TokenPrincipal;
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TokenAuthenticationTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @SpyBean
+    private UserService userService;
+
+    private String userId;
+    private String token;
+
+    @BeforeEach
+    public void setUp() {
+        User user = new User();
+        user.setUserName("principaluser" + System.nanoTime());
+        user.setPassword("Passw0rd!");
+        userId = userService.saveUser(user).getId();
+        token = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        clearInvocations(userService);
+    }
+
+    @Test
+    public void tokenIsDecodedOncePerRequest() throws Exception {
+        mockMvc.perform(put("/users/" + userId).header("Authorization", token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"fullName\":\"Principal User\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.fullName").value("Principal User"));
+        mockMvc.perform(post("/users/" + userId + "/revoke-token").header("Authorization", token))
+                .andExpect(status().isAccepted());
+
+        verify(userService, times(2)).authenticate(userId, token);
+        verify(userService).revokeToken(any(TokenPrincipal.class));
+        verify(userService, never()).validateToken(any(), anyString());
+        verify(userService, never()).revokeToken(any(), anyString());
+    }
+
+    @Test
+    public void routesNeedAValidTokenForTheirUser() throws Exception {
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users").header("Authorization", "not-a-token"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/users").header("Authorization", token))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(post("/users/someone-else/validate-token").header("Authorization", token))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/users/" + userId + "/validate-token").header("Authorization", token))
+                .andExpect(status().isAccepted());
+    }
+
+    @Test
+    public void revokedTokenIsRejected() throws Exception {
+        mockMvc.perform(post("/users/" + userId + "/revoke-token").header("Authorization", token))
+                .andExpect(status().isAccepted());
+
+        mockMvc.perform(post("/users/" + userId + "/revoke-token").header("Authorization", token))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/users/" + userId + "/validate-token").header("Authorization", token))
+                .andExpect(status().isUnauthorized());
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.User;
+import com.test.testassessment.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TokenBatchValidationTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    public void everyTokenOfTheBatchIsValidated() throws Exception {
+        String userId = newUser("batchuser1");
+        String token = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        String revoked = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        userService.revokeToken(userId, revoked);
+
+        String batch = "[" + check(userId, token) + "," + check("someone-else", token) + "," + check(userId, "not-a-token") + ","
+                + check(userId, revoked) + ",{\"userId\":\"" + userId + "\"}," + "{\"token\":\"" + token + "\"}]";
+
+        mockMvc.perform(post("/tokens/validate-batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+                .andExpect(status().isAccepted())
+                .andExpect(content().json("[true,false,false,false,false,true]", true));
+    }
+
+    @Test
+    public void resultsCanBeSentAsABitmap() throws Exception {
+        String userId = newUser("batchuser2");
+        String token = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            batch.append(i == 0 ? "" : ",").append(check(userId, i % 3 == 0 ? token : "not-a-token"));
+        }
+        batch.append(']');
+
+        byte[] bitmap = mockMvc.perform(post("/tokens/validate-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(batch.toString()))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // tokens 0, 3, 6 and 9 are valid
+        Assertions.assertThat(bitmap).containsExactly(0b0100_1001, 0b10);
+    }
+
+    @Test
+    public void checksWithoutATokenCountAsMalformed() throws Exception {
+        double malformed = malformedJsonTokens();
+
+        mockMvc.perform(post("/tokens/validate-batch").contentType(MediaType.APPLICATION_JSON).content("[{},{\"userId\":\"1\"}]"))
+                .andExpect(status().isAccepted())
+                .andExpect(content().json("[false,false]", true));
+
+        Assertions.assertThat(malformedJsonTokens()).isEqualTo(malformed + 2);
+    }
+
+    @Test
+    public void oversizedBatchIsRejected() throws Exception {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i <= UserService.MAX_BATCH_SIZE; i++) {
+            batch.append(i == 0 ? "" : ",").append(check("1", "not-a-token"));
+        }
+        batch.append(']');
+
+        mockMvc.perform(post("/tokens/validate-batch").contentType(MediaType.APPLICATION_JSON).content(batch.toString()))
+                .andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    public void unreadableBatchIsRejected() throws Exception {
+        mockMvc.perform(post("/tokens/validate-batch").contentType(MediaType.APPLICATION_JSON).content("[{\"userId\":"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private double malformedJsonTokens() {
+        return registry.get("token.validations").tag("format", "json").tag("outcome", "malformed").functionCounter().count();
+    }
+
+    private String newUser(String userName) {
+        User user = new User();
+        user.setUserName(userName);
+        user.setPassword("Passw0rd!");
+        return userService.saveUser(user).getId();
+    }
+
+    private static String check(String userId, String token) {
+        return "{\"userId\":\"" + userId + "\",\"token\":\"" + token + "\"}";
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.SignedToken;
+import com.test.testassessment.replication.TokenReplicator;
+import com.test.testassessment.security.ClusterAuthenticator;
+import com.test.testassessment.store.ConcurrentTokenStore;
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class TokenReplicationTests {
+
+    private static final long EXPIRES_AT = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+    private static final String SECRET = "c2hhcmVkLWJ5LWV2ZXJ5LWluc3RhbmNlLW9mLXRoZS1jbHVzdGVy";
+    private static final String OTHER_SECRET = "bm90LXRoZS1zZWNyZXQtb2YtdGhpcy1wYXJ0aWN1bGFyLWNsdXN0ZXI=";
+    private final List<Node> nodes = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (Node node : nodes) {
+            node.replicator.destroy();
+        }
+    }
+
+    @Test
+    public void eventsReachEveryPeer() {
+        Node a = node();
+        Node b = node();
+        Node c = node();
+        connect(a, b, c);
+
+        a.issue(1, "user1");
+        a.issue(2, "user1");
+        b.issue(3, "user2");
+        c.issue(4, "user3");
+        awaitTrue(() -> allHold(1, "user1") && allHold(2, "user1") && allHold(3, "user2") && allHold(4, "user3"));
+
+        b.revoke(1, "user1");
+        c.revokeAll("user3");
+        a.revokeSigned(5);
+        awaitTrue(() -> noneHold(1, "user1") && noneHold(4, "user3")
+                && nodes.stream().allMatch(node -> node.revocationList.isRevoked(new SignedToken(5, "user4", TimeUnit.MILLISECONDS.toSeconds(EXPIRES_AT)))));
+        Assertions.assertThat(b.store.getExpiresAt(2, "user1")).isEqualTo(EXPIRES_AT);
+        awaitTrue(() -> a.registry.get("token.replication.lag.events").gauge().value() == 0);
+        Assertions.assertThat(a.registry.get("token.replication.subscribers").gauge().value()).isEqualTo(2);
+        Assertions.assertThat(b.registry.get("token.replication.events.applied").functionCounter().count()).isEqualTo(5);
+    }
+
+    @Test
+    public void revokingEveryTokenSparesSessionsIssuedSince() {
+        Node a = node();
+        Node b = node();
+        connect(a, b);
+        a.issue(1, "user1");
+        awaitTrue(() -> allHold(1, "user1"));
+
+        // a login on b that the revocation on a had not seen yet
+        long later = EXPIRES_AT + TimeUnit.SECONDS.toMillis(1);
+        b.store.put(2, "user1", later);
+        a.revokeAll("user1");
+
+        awaitTrue(() -> noneHold(1, "user1"));
+        Assertions.assertThat(b.store.getExpiresAt(2, "user1")).isEqualTo(later);
+    }
+
+    @Test
+    public void rejoiningNodesCatchUp() {
+        Node a = node();
+        Node b = node();
+        connect(a, b);
+        b.issue(1, "user1");
+        awaitTrue(() -> allHold(1, "user1"));
+
+        // b restarts empty while a keeps issuing, c joins late
+        b.replicator.destroy();
+        nodes.remove(b);
+        a.issue(2, "user2");
+        a.revoke(2, "user2");
+        a.issue(3, "user3");
+        Node restarted = node();
+        Node c = node();
+        connect(a, restarted, c);
+
+        awaitTrue(() -> allHold(1, "user1") && allHold(3, "user3"));
+        Assertions.assertThat(noneHold(2, "user2")).isTrue();
+    }
+
+    @Test
+    public void revocationsOvertakingTheirIssueAreKept() {
+        Node a = node();
+        Node b = node();
+        Node c = node();
+        // b revokes a token whose issue has not reached c yet
+        c.replicator.addPeer("localhost:" + b.replicator.getPort());
+        a.issue(1, "user1");
+        a.issue(2, "user2");
+        b.revoke(1, "user1");
+        b.revokeAll("user2");
+        awaitTrue(() -> c.registry.get("token.replication.events.applied").functionCounter().count() == 2);
+
+        c.replicator.addPeer("localhost:" + a.replicator.getPort());
+        awaitTrue(() -> c.registry.get("token.replication.events.applied").functionCounter().count() == 4);
+        Assertions.assertThat(c.store.getExpiresAt(1, "user1")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(c.store.getExpiresAt(2, "user2")).isEqualTo(TokenStore.NO_SESSION);
+    }
+
+    @Test
+    public void subscribersWithoutTheSecretReceiveNothing() throws Exception {
+        Node a = node();
+        a.issue(1, "user1");
+        a.issue(2, "user2");
+        Node intruder = node(OTHER_SECRET);
+        intruder.replicator.addPeer("localhost:" + a.replicator.getPort());
+
+        // a subscriber speaking the protocol without authenticating is sent a challenge and nothing else
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try (Socket socket = new Socket("localhost", a.replicator.getPort())) {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(0x544B5250);
+            out.writeLong(42);
+            out.writeInt(0);
+            out.flush();
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            for (int read = in.read(); read >= 0; read = in.read()) {
+                received.write(read);
+            }
+        }
+        Assertions.assertThat(received.size()).isEqualTo(16);
+
+        Thread.sleep(500);
+        Assertions.assertThat(intruder.store.getExpiresAt(1, "user1")).isEqualTo(TokenStore.NO_SESSION);
+        Assertions.assertThat(intruder.registry.get("token.replication.peers.connected").gauge().value()).isZero();
+        Assertions.assertThat(a.registry.get("token.replication.events.sent").functionCounter().count()).isZero();
+    }
+
+    @Test
+    public void framesNotSignedWithTheKeyOfTheConnectionAreRefused() throws Exception {
+        Node a = node();
+        a.issue(1, "user1");
+        ClusterAuthenticator authenticator = new ClusterAuthenticator(SECRET, "secret");
+
+        try (Socket socket = new Socket("localhost", a.replicator.getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(0x544B5250);
+            ClusterAuthenticator.Session session = authenticator.connect(0x544B5250, in, out);
+            session.out().writeLong(42);
+            session.out().writeInt(0);
+            session.endFrame();
+            session.out().flush();
+
+            Assertions.assertThat(session.in().readInt()).isEqualTo(0x544B5250);
+            session.in().readLong();
+            session.checkFrame();
+        }
+
+        try (Socket socket = new Socket("localhost", a.replicator.getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(0x544B5250);
+            ClusterAuthenticator.Session session = authenticator.connect(0x544B5250, in, out);
+            session.out().writeLong(43);
+            session.out().writeInt(0);
+            out.write(new byte[32]);
+            out.flush();
+
+            Assertions.assertThat(in.read()).isEqualTo(-1);
+        }
+        awaitTrue(() -> a.registry.get("token.replication.subscribers").gauge().value() == 0);
+    }
+
+    @Test
+    public void replicationNeedsASecret() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Assertions.assertThatThrownBy(() -> new TokenReplicator(new ConcurrentTokenStore(10), new RevocationList(16), Clock.systemUTC(), registry,
+                        0, "localhost", "", "", 64, 1024, 50))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("test.assessment.token.replication.secret");
+    }
+
+    private Node node() {
+        return node(SECRET);
+    }
+
+    private Node node(String secret) {
+        Node node = new Node(secret);
+        nodes.add(node);
+        return node;
+    }
+
+    private static void connect(Node... peers) {
+        for (Node node : peers) {
+            for (Node peer : peers) {
+                if (node != peer) {
+                    node.replicator.addPeer("localhost:" + peer.replicator.getPort());
+                }
+            }
+        }
+    }
+
+    private boolean allHold(long tokenId, String userId) {
+        return nodes.stream().allMatch(node -> node.store.getExpiresAt(tokenId, userId) == EXPIRES_AT);
+    }
+
+    private boolean noneHold(long tokenId, String userId) {
+        return nodes.stream().allMatch(node -> node.store.getExpiresAt(tokenId, userId) == TokenStore.NO_SESSION);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertThat(System.nanoTime()).as("replicated within 10 seconds").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class Node {
+
+        final TokenStore store = new ConcurrentTokenStore(1000);
+        final RevocationList revocationList = new RevocationList(1024);
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        final TokenReplicator replicator;
+
+        Node(String secret) {
+            replicator = new TokenReplicator(store, revocationList, Clock.systemUTC(), registry, 0, "localhost", "", secret, 64, 1024, 50);
+        }
+
+        void issue(long tokenId, String userId) {
+            store.put(tokenId, userId, EXPIRES_AT);
+            replicator.issued(tokenId, userId, EXPIRES_AT);
+        }
+
+        void revoke(long tokenId, String userId) {
+            store.remove(tokenId, userId);
+            replicator.revoked(tokenId, userId, EXPIRES_AT);
+        }
+
+        void revokeSigned(long tokenId) {
+            revocationList.revoke(tokenId, TimeUnit.MILLISECONDS.toSeconds(EXPIRES_AT));
+            replicator.revokedSigned(tokenId, EXPIRES_AT);
+        }
+
+        void revokeAll(String userId) {
+            store.removeAll(userId);
+            replicator.revokedAll(userId, EXPIRES_AT);
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.User;
+import com.test.testassessment.server.TokenServer;
+import com.test.testassessment.service.UserService;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(properties = "test.assessment.token.server.port=0")
+public class TokenServerTests {
+
+    @Autowired
+    private TokenServer tokenServer;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        User user = new User();
+        user.setUserName("tokenserveruser");
+        user.setPassword("Passw0rd!");
+        String userId = userService.saveUser(user).getId();
+        String token = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+
+        try (Socket socket = new Socket("localhost", tokenServer.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write((request("/users/" + userId + "/validate-token", token)
+                    + request("/users/" + userId + "/revoke-token", token)
+                    + request("/users/" + userId + "/validate-token", token)).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 202 ").endsWith("{\"data\":\"true\"}");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 202 ");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 401 ");
+        }
+    }
+
+    @Test
+    public void userIdsArePercentDecoded() throws IOException {
+        User user = new User();
+        user.setUserName("tokenserverencodeduser");
+        user.setPassword("Passw0rd!");
+        String userId = userService.saveUser(user).getId();
+        String token = userService.authenticateUserByIdAndPassword(userId, "Passw0rd!");
+
+        try (Socket socket = new Socket("localhost", tokenServer.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write((request("/users/" + userId.replace("-", "%2D") + "/validate-token", token)
+                    + request("/users/" + userId + "%zz/validate-token", token)).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 202 ").endsWith("{\"data\":\"true\"}");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 400 ");
+        }
+    }
+
+    @Test
+    public void partitionedStoreIsRefused() {
+        Assertions.assertThatThrownBy(() -> new TokenServer(userService, "localhost", 0, 1, 60000, 16, "partitioned"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("partitioned");
+    }
+
+    @Test
+    public void requestsOutsideTheTokenRoutesAreRefused() throws IOException {
+        try (Socket socket = new Socket("localhost", tokenServer.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write(("GET /users/1/validate-token HTTP/1.1\r\nAuthorization: token\r\n\r\n"
+                    + "POST /users HTTP/1.1\r\nAuthorization: token\r\nContent-Length: 2\r\n\r\n{}"
+                    + "POST /users/1/validate-token HTTP/1.1\r\n\r\n"
+                    + request("/users/1/validate-token", "not-a-token")).getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 405 ");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 404 ");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 400 ");
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 401 ");
+        }
+    }
+
+    @Test
+    public void connectionIsClosedWhenAsked() throws IOException {
+        try (Socket socket = new Socket("localhost", tokenServer.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write("POST /users/1/validate-token HTTP/1.1\r\nAuthorization: token\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            Assertions.assertThat(readResponse(in)).startsWith("HTTP/1.1 401 ").contains("Connection: close");
+            Assertions.assertThat(in.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void idleConnectionsAreClosed() throws IOException {
+        TokenServer server = new TokenServer(userService, "localhost", 0, 1, 200, 16, "heap");
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            long start = System.nanoTime();
+
+            Assertions.assertThat(socket.getInputStream().read()).isEqualTo(-1);
+            Assertions.assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(150));
+        } finally {
+            server.destroy();
+        }
+    }
+
+    @Test
+    public void connectionsOverTheLimitAreClosed() throws IOException {
+        TokenServer server = new TokenServer(userService, "localhost", 0, 1, 60000, 1, "heap");
+        try (Socket first = new Socket("localhost", server.getPort());
+             Socket second = new Socket("localhost", server.getPort())) {
+            second.setSoTimeout(5000);
+            Assertions.assertThat(second.getInputStream().read()).isEqualTo(-1);
+
+            OutputStream out = first.getOutputStream();
+            out.write(request("/users/1/validate-token", "not-a-token").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Assertions.assertThat(readResponse(new BufferedInputStream(first.getInputStream()))).startsWith("HTTP/1.1 401 ");
+        } finally {
+            server.destroy();
+        }
+    }
+
+    private static String request(String path, String authorization) {
+        return "POST " + path + " HTTP/1.1\r\nHost: localhost\r\nAuthorization: " + authorization + "\r\nContent-Length: 0\r\n\r\n";
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            response.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        response.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < contentLength; i++) {
+            response.write(in.read());
+        }
+        return response.toString("US-ASCII");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.test.testassessment;
+
+import com.test.testassessment.audit.TokenAuditLog;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.model.Token;
+import com.test.testassessment.model.User;
+import com.test.testassessment.replication.NoTokenReplication;
+import com.test.testassessment.service.impl.TokenServiceImpl;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.TokenSigner;
+import com.test.testassessment.store.ConcurrentTokenStore;
+import com.test.testassessment.store.RevocationList;
+import com.test.testassessment.store.TokenStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest
+public class TokenServiceConcurrencyTests {
+
+    private static final int THREADS = 64;
+
+    private static final int USERS_PER_THREAD = 500;
+
+    private static final int RENEWALS_PER_THREAD = 200;
+
+    private TokenStore tokenCache;
+
+    private TokenServiceImpl tokenService;
+
+    @BeforeEach
+    public void setUp() {
+        tokenCache = new ConcurrentTokenStore(Integer.MAX_VALUE);
+        tokenService = new TokenServiceImpl(tokenCache, new RevocationList(1024), new TokenSigner(""), new SecureRandomPool(0), new TokenValidationMetrics(new SimpleMeterRegistry(), 64), new TokenAuditLog(Clock.systemUTC(), 1, 100), new NoTokenReplication(), Clock.systemUTC());
+        ReflectionTestUtils.setField(tokenService, "tokenDuration", "5");
+    }
+
+    @Test
+    public void concurrentLoginsForDistinctUsersLoseNoTokens() throws Exception {
+        Map<String, Token> issuedTokens = new ConcurrentHashMap<>();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                User user = getTestUser(thread + "-" + i);
+                Token token = tokenService.generateToken(user);
+                issuedTokens.put(user.getId(), token);
+                Assertions.assertThat(tokenService.isTokenValid(user.getId(), token)).isTrue();
+            }
+        });
+
+        Assertions.assertThat(issuedTokens).hasSize(THREADS * USERS_PER_THREAD);
+        Assertions.assertThat(tokenCache.size()).isEqualTo(THREADS * USERS_PER_THREAD);
+        issuedTokens.forEach((userId, token) -> {
+            Assertions.assertThat(tokenCache.getExpiresAt(token.getId(), userId)).isEqualTo(token.getExpiresAt());
+            Assertions.assertThat(tokenService.isTokenValid(userId, token)).isTrue();
+        });
+    }
+
+    @Test
+    public void concurrentLoginsForOneUserKeepEverySession() throws Exception {
+        User user = getTestUser("shared");
+        List<Token> issuedTokens = new ArrayList<>();
+
+        runConcurrently(thread -> {
+            List<Token> tokens = new ArrayList<>();
+            for (int i = 0; i < RENEWALS_PER_THREAD; i++) {
+                tokens.add(tokenService.generateToken(user));
+            }
+            synchronized (issuedTokens) {
+                issuedTokens.addAll(tokens);
+            }
+        });
+
+        Assertions.assertThat(tokenCache.size()).isEqualTo(THREADS * RENEWALS_PER_THREAD);
+        Assertions.assertThat(issuedTokens).hasSize(THREADS * RENEWALS_PER_THREAD);
+        Assertions.assertThat(issuedTokens.stream().allMatch(token -> tokenService.isTokenValid(user.getId(), token))).isTrue();
+    }
+
+    @Test
+    public void revokingAllTokensDuringLoginsLeavesOnlyLaterSessions() throws Exception {
+        User user = getTestUser("shared");
+        List<Token> issuedTokens = new ArrayList<>();
+        for (int i = 0; i < RENEWALS_PER_THREAD; i++) {
+            issuedTokens.add(tokenService.generateToken(user));
+        }
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < RENEWALS_PER_THREAD; i++) {
+                if (thread == 0) {
+                    tokenService.revokeAllTokens(user.getId());
+                } else {
+                    tokenService.generateToken(user);
+                }
+            }
+        });
+        tokenService.revokeAllTokens(user.getId());
+        Token lastToken = tokenService.generateToken(user);
+
+        Assertions.assertThat(issuedTokens.stream().noneMatch(token -> tokenService.isTokenValid(user.getId(), token))).isTrue();
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), lastToken)).isTrue();
+        // closed sessions are reclaimed along with the open ones once they all expired, without counting as expired
+        Assertions.assertThat(tokenCache.evictExpired(lastToken.getExpiresAt() + TimeUnit.MINUTES.toMillis(1))).isEqualTo(1);
+        Assertions.assertThat(tokenCache.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void concurrentLoginsAndRevocationsLeaveNoRevokedTokens() throws Exception {
+        runConcurrently(thread -> {
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                User user = getTestUser(thread + "-" + i);
+                Token token = tokenService.generateToken(user);
+                if (i % 2 == 0) {
+                    Assertions.assertThat(tokenService.revokeToken(user.getId(), token)).isTrue();
+                    Assertions.assertThat(tokenService.isTokenValid(user.getId(), token)).isFalse();
+                }
+            }
+        });
+
+        Assertions.assertThat(tokenCache.size()).isEqualTo(THREADS * USERS_PER_THREAD / 2);
+    }
+
+    private static void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadNumber = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(threadNumber);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static User getTestUser(String id) {
+        User user = new User();
+        user.setId(id);
+        user.setUserName("user" + id.replace("-", ""));
+        return user;
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int threadNumber) throws Exception;
+    }
+
+}
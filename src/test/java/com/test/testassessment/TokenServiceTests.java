@@ -1,18 +1,21 @@
 package com.test.testassessment;
 
+import com.test.testassessment.model.SignedToken;
 import com.test.testassessment.model.Token;
 import com.test.testassessment.model.User;
+import com.test.testassessment.security.TokenSigner;
 import com.test.testassessment.service.impl.TokenServiceImpl;
+import com.test.testassessment.store.TokenStore;
 import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.util.ReflectionTestUtils;
 
-import java.time.ZonedDateTime;
 import java.util.Base64;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootTest
 public class TokenServiceTests {
@@ -20,7 +23,10 @@ public class TokenServiceTests {
     @Autowired
     private TokenServiceImpl tokenService;
 
-    private static Map<String, Token> tokenCache;
+    @Autowired
+    private TokenSigner tokenSigner;
+
+    private static TokenStore tokenCache;
 
     private static final String TOKEN_CACHE = "tokenCache";
 
@@ -32,7 +38,14 @@ public class TokenServiceTests {
 
     @BeforeEach
     public void setTokenCache() {
-        tokenCache = (Map<String, Token>) ReflectionTestUtils.getField(tokenService, TOKEN_CACHE);
+        tokenCache = (TokenStore) ReflectionTestUtils.getField(tokenService, TOKEN_CACHE);
+    }
+
+    @AfterEach
+    public void closeSessions() {
+        // the token store is shared with the other tests running in this context
+        tokenCache.removeAll("1");
+        tokenCache.evictExpired(System.currentTimeMillis());
     }
 
     @Test
@@ -52,8 +65,8 @@ public class TokenServiceTests {
 
         Token token = tokenService.generateToken(user);
         Assertions.assertThat(token.getContent()).isEqualTo(expectedTokenContent);
-        Assertions.assertThat(token.getExpiryDate()).isAfter(ZonedDateTime.now());
-        Assertions.assertThat(tokenCache.get(user.getId())).isEqualTo(token);
+        Assertions.assertThat(token.getExpiresAt()).isGreaterThan(System.currentTimeMillis());
+        Assertions.assertThat(tokenCache.getExpiresAt(token.getId(), user.getId())).isEqualTo(token.getExpiresAt());
     }
 
     @Test
@@ -65,12 +78,12 @@ public class TokenServiceTests {
         Token token1 = tokenService.generateToken(user);
         Token token2 = tokenService.generateToken(user);
         Assertions.assertThat(token1.getContent()).isEqualTo(expectedTokenContent);
-        Assertions.assertThat(token1.getExpiryDate()).isAfter(ZonedDateTime.now());
+        Assertions.assertThat(token1.getExpiresAt()).isGreaterThan(System.currentTimeMillis());
         Assertions.assertThat(token2.getContent()).isEqualTo(expectedTokenContent);
-        Assertions.assertThat(token2.getExpiryDate()).isAfter(ZonedDateTime.now());
-        Assertions.assertThat(tokenCache.get(user.getId())).isEqualTo(token2);
-        Assertions.assertThat(tokenCache.size()).isEqualTo(1);
-        Assertions.assertThat(tokenCache.get(user.getId())).isNotEqualTo(token1);
+        Assertions.assertThat(token2.getExpiresAt()).isGreaterThan(System.currentTimeMillis());
+        Assertions.assertThat(token2.getId()).isNotEqualTo(token1.getId());
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token1)).isTrue();
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token2)).isTrue();
 
     }
 
@@ -80,26 +93,26 @@ public class TokenServiceTests {
 
         String expectedTokenContent = Base64.getEncoder().encodeToString((user.getId() + DELIMITER + user.getUserName()).getBytes());
 
-        Token token = tokenService.generateToken(user);
-        Assertions.assertThat(tokenCache.get(user.getId())).isNotNull();
-
-        token.setExpiryDate(ZonedDateTime.now().minusYears(1));
-        tokenCache.put(user.getId(), token);
+        Token token = new Token(1L, expectedTokenContent, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365));
+        tokenCache.put(token.getId(), user.getId(), token.getExpiresAt());
         ReflectionTestUtils.setField(tokenService, TOKEN_CACHE, tokenCache);
 
         Token token2 = tokenService.generateToken(user);
-        Assertions.assertThat(tokenCache.get(user.getId()).getExpiryDate()).isAfter(ZonedDateTime.now());
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token)).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token2)).isTrue();
+        Assertions.assertThat(tokenCache.getExpiresAt(token2.getId(), user.getId())).isGreaterThan(System.currentTimeMillis());
     }
 
     @Test
     public void isTokenValidSuccess() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_TOKEN.getBytes());
-        Token token = new Token(tokenContent, ZonedDateTime.now().plusMinutes(5));
+        Token token = new Token(1L, tokenContent, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
 
-        tokenCache.put("1", token);
+        tokenCache.put(token.getId(), "1", token.getExpiresAt());
         ReflectionTestUtils.setField(tokenService, TOKEN_CACHE, tokenCache);
 
         Assertions.assertThat(tokenService.isTokenValid("1", token)).isTrue();
+        Assertions.assertThat(tokenService.isTokenValid("1", new Token(2L, tokenContent, token.getExpiresAt()))).isFalse();
     }
 
     @Test
@@ -110,21 +123,31 @@ public class TokenServiceTests {
     @Test
     public void isTokenValidNullUser() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_STRING.getBytes());
-        Assertions.assertThat(tokenService.isTokenValid(null, new Token(tokenContent, ZonedDateTime.now()))).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid(null, new Token(tokenContent, System.currentTimeMillis()))).isFalse();
 
     }
 
     @Test
     public void isTokenValidNullUserNullUserInToken() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_STRING.getBytes());
-        Assertions.assertThat(tokenService.isTokenValid("1", new Token(tokenContent, ZonedDateTime.now()))).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid("1", new Token(tokenContent, System.currentTimeMillis()))).isFalse();
 
     }
 
+    @Test
+    public void isTokenValidMalformedContent() {
+        Token token = new Token(1L, TEST_STRING + "!", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        Token tokenWithoutUserName = new Token(1L, Base64.getEncoder().encodeToString("1.".getBytes()), System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+
+        tokenCache.put(token.getId(), "1", token.getExpiresAt());
+        Assertions.assertThat(tokenService.isTokenValid("1", token)).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid("1", tokenWithoutUserName)).isFalse();
+    }
+
     @Test
     public void isTokenValidNullUserTokenNotInCache() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_TOKEN.getBytes());
-        Token token = new Token(tokenContent, ZonedDateTime.now().plusMinutes(5));
+        Token token = new Token(tokenContent, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
 
         Assertions.assertThat(tokenService.isTokenValid(null, token)).isFalse();
 
@@ -133,13 +156,36 @@ public class TokenServiceTests {
     @Test
     public void revokeTokenSuccess() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_TOKEN.getBytes());
-        Token token = new Token(tokenContent, ZonedDateTime.now().plusMinutes(5));
+        Token token = new Token(1L, tokenContent, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        Token otherDeviceToken = new Token(2L, tokenContent, token.getExpiresAt());
 
-        tokenCache.put("1", token);
+        tokenCache.put(token.getId(), "1", token.getExpiresAt());
+        tokenCache.put(otherDeviceToken.getId(), "1", otherDeviceToken.getExpiresAt());
         ReflectionTestUtils.setField(tokenService, TOKEN_CACHE, tokenCache);
 
         Assertions.assertThat(tokenService.revokeToken("1", token)).isTrue();
-        Assertions.assertThat(tokenCache.size()).isEqualTo(0);
+        Assertions.assertThat(tokenService.isTokenValid("1", token)).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid("1", otherDeviceToken)).isTrue();
+        Assertions.assertThat(tokenService.revokeToken("1", token)).isFalse();
+    }
+
+    @Test
+    public void revokeAllTokensClosesEverySession() {
+        User user = getTestUser();
+        // keep the revocation apart from the other tests
+        user.setId("revoke-all");
+        Token token1 = tokenService.generateToken(user);
+        Token token2 = tokenService.generateToken(user);
+        String signedToken = tokenService.generateSignedToken(user);
+
+        tokenService.revokeAllTokens(user.getId());
+
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token1)).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), token2)).isFalse();
+        Assertions.assertThat(tokenService.isSignedTokenValid(user.getId(), signedToken)).isFalse();
+        Assertions.assertThat(tokenService.isTokenValid(user.getId(), tokenService.generateToken(user))).isTrue();
+        // issued within the second of the revocation, yet after it
+        Assertions.assertThat(tokenService.isSignedTokenValid(user.getId(), tokenService.generateSignedToken(user))).isTrue();
     }
 
     @Test
@@ -150,11 +196,69 @@ public class TokenServiceTests {
     @Test
     public void revokeTokenDifferentUserIds() {
         String tokenContent = Base64.getEncoder().encodeToString(TEST_TOKEN.getBytes());
-        Token token = new Token(tokenContent, ZonedDateTime.now().plusMinutes(5));
+        Token token = new Token(tokenContent, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
 
         Assertions.assertThat(tokenService.revokeToken("2", token)).isFalse();
     }
 
+    @Test
+    public void generateSignedTokenForValidUser() {
+        User user = getTestUser();
+
+        String token = tokenService.generateSignedToken(user);
+        Assertions.assertThat(token).startsWith(TokenSigner.PREFIX);
+        Assertions.assertThat(tokenService.isSignedTokenValid(user.getId(), token)).isTrue();
+        Assertions.assertThat(tokenService.isSignedTokenValid(null, token)).isTrue();
+    }
+
+    @Test
+    public void generateSignedTokenWithNoUser() {
+        Assertions.assertThat(tokenService.generateSignedToken(null)).isNull();
+    }
+
+    @Test
+    public void isSignedTokenValidDifferentUserIds() {
+        String token = tokenService.generateSignedToken(getTestUser());
+
+        Assertions.assertThat(tokenService.isSignedTokenValid("2", token)).isFalse();
+    }
+
+    @Test
+    public void isSignedTokenValidTamperedToken() {
+        String token = tokenService.generateSignedToken(getTestUser());
+        int position = TokenSigner.PREFIX.length() + 10; // inside the expiry
+        char character = token.charAt(position);
+        String tamperedToken = token.substring(0, position) + (character == 'A' ? 'B' : 'A') + token.substring(position + 1);
+
+        Assertions.assertThat(tokenService.isSignedTokenValid("1", tamperedToken)).isFalse();
+        Assertions.assertThat(tokenService.isSignedTokenValid("1", TokenSigner.PREFIX + TEST_STRING)).isFalse();
+    }
+
+    @Test
+    public void isSignedTokenValidExpiredToken() {
+        long expiredAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+        String token = tokenSigner.sign(new SignedToken(1L, "1", expiredAt));
+
+        Assertions.assertThat(tokenService.isSignedTokenValid("1", token)).isFalse();
+    }
+
+    @Test
+    public void revokeSignedTokenSuccess() {
+        String token = tokenService.generateSignedToken(getTestUser());
+
+        Assertions.assertThat(tokenService.revokeSignedToken("1", token)).isTrue();
+        Assertions.assertThat(tokenService.isSignedTokenValid("1", token)).isFalse();
+        Assertions.assertThat(tokenService.revokeSignedToken("1", token)).isFalse();
+    }
+
+    @Test
+    public void revokeSignedTokenDifferentUserIds() {
+        String token = tokenService.generateSignedToken(getTestUser());
+
+        Assertions.assertThat(tokenService.revokeSignedToken("2", token)).isFalse();
+        Assertions.assertThat(tokenService.isSignedTokenValid("1", token)).isTrue();
+    }
+
     private static User getTestUser() {
         User user = new User();
         user.setId("1");
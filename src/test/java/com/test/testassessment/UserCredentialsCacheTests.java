@@ -0,0 +1,96 @@
+package com.test.testassessment;
+
+import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserCredentials;
+import com.test.testassessment.repository.UserRepository;
+import com.test.testassessment.service.UserService;
+import com.test.testassessment.store.TokenStore;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SpringBootTest
+public class UserCredentialsCacheTests {
+
+    private static final String PASSWORD = "Passw0rd!";
+
+    private static final String NEW_PASSWORD = "N3wPassw0rd!";
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    private Cache credentialsCache;
+
+    private final List<String> savedUserIds = new ArrayList<>();
+
+    @BeforeEach
+    public void setCredentialsCache() {
+        credentialsCache = cacheManager.getCache(UserRepository.CREDENTIALS_CACHE);
+    }
+
+    @AfterEach
+    public void removeTokens() {
+        // the token store is shared with the other tests running in this context
+        savedUserIds.forEach(tokenStore::removeAll);
+    }
+
+    @Test
+    public void authenticateCachesCredentials() {
+        User user = saveUser("cacheduser");
+
+        Assertions.assertThat(credentialsCache.get(user.getId())).isNull();
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword(user.getId(), PASSWORD)).isNotNull();
+
+        UserCredentials cachedCredentials = (UserCredentials) credentialsCache.get(user.getId()).get();
+        Assertions.assertThat(cachedCredentials.getUserName()).isEqualTo("cacheduser");
+        Assertions.assertThat(cachedCredentials.getPassword()).isEqualTo(user.getPassword());
+    }
+
+    @Test
+    public void updateUserEvictsCredentials() {
+        User user = saveUser("updateduser");
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword(user.getId(), PASSWORD)).isNotNull();
+
+        User update = new User();
+        update.setPassword(NEW_PASSWORD);
+        userService.updateUser(user.getId(), update);
+
+        Assertions.assertThat(credentialsCache.get(user.getId())).isNull();
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword(user.getId(), PASSWORD)).isNull();
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword(user.getId(), NEW_PASSWORD)).isNotNull();
+    }
+
+    @Test
+    public void unknownUsersAreNotCached() {
+        Assertions.assertThat(userRepository.findCredentialsById("unknown")).isEmpty();
+        Assertions.assertThat(credentialsCache.get("unknown")).isNull();
+    }
+
+    private User saveUser(String userName) {
+        User user = new User();
+        user.setUserName(userName);
+        user.setFullName(userName);
+        user.setPassword(PASSWORD);
+        User savedUser = userService.saveUser(user);
+        savedUserIds.add(savedUser.getId());
+        return savedUser;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.test.testassessment;
+
+import com.test.testassessment.repository.UserRepository;
+import com.test.testassessment.service.UserService;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class UserImportTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    public void importJsonArray() throws Exception {
+        long usersBefore = userRepository.count();
+
+        mockMvc.perform(post("/users/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"userName\":\"arrayuser1\",\"fullName\":\"Array User\",\"password\":\"Passw0rd!\"},"
+                                + "{\"fullName\":\"No User Name\",\"password\":\"Passw0rd!\"},"
+                                + "{\"userName\":\"arrayuser2\",\"password\":\"Passw0rd!\"}]"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[0].id").isNotEmpty())
+                .andExpect(jsonPath("$[1].success").value(false))
+                .andExpect(jsonPath("$[1].error").value("userName and password are required"))
+                .andExpect(jsonPath("$[2].success").value(true));
+
+        Assertions.assertThat(userRepository.count()).isEqualTo(usersBefore + 2);
+    }
+
+    @Test
+    public void importNdjsonWithTakenUserName() throws Exception {
+        long usersBefore = userRepository.count();
+
+        mockMvc.perform(post("/users/batch")
+                        .contentType("application/x-ndjson")
+                        .content("{\"userName\":\"ndjsonuser1\",\"password\":\"Passw0rd!\"}\n"
+                                + "{\"userName\":\"jsmith\",\"password\":\"Passw0rd!\"}\n"
+                                + "{\"userName\":\"ndjsonuser1\",\"password\":\"Passw0rd!\"}\n"
+                                + "{\"userName\":\"ndjsonuser2\",\"password\":\"Passw0rd!\"}\n"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[1].error").value("userName is already taken"))
+                .andExpect(jsonPath("$[2].error").value("userName is already taken"))
+                .andExpect(jsonPath("$[3].success").value(true));
+
+        Assertions.assertThat(userRepository.count()).isEqualTo(usersBefore + 2);
+    }
+
+    @Test
+    public void importStopsAtMalformedRecord() throws Exception {
+        mockMvc.perform(post("/users/batch")
+                        .contentType("application/x-ndjson")
+                        .content("{\"userName\":\"malformeduser\",\"password\":\"Passw0rd!\"}\n{\"userName\":"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[1].error").value("Record could not be read"));
+    }
+
+    @Test
+    public void batchesOverTheLimitAreRefused() throws Exception {
+        long usersBefore = userRepository.count();
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i <= UserService.MAX_BATCH_SIZE; i++) {
+            records.append("{\"userName\":\"oversizeduser").append(i).append("\",\"password\":\"Passw0rd!\"}\n");
+        }
+
+        mockMvc.perform(post("/users/batch")
+                        .contentType("application/x-ndjson")
+                        .content(records.toString()))
+                .andExpect(status().isPayloadTooLarge());
+
+        Assertions.assertThat(userRepository.count()).isEqualTo(usersBefore);
+    }
+
+}
@@ -3,26 +3,59 @@ package com.test.testassessment;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.test.testassessment.metrics.TokenValidationCounts;
+import com.test.testassessment.metrics.TokenValidationMetrics;
+import com.test.testassessment.metrics.TokenValidationOutcome;
 import com.test.testassessment.model.Token;
+import com.test.testassessment.model.TokenCheck;
 import com.test.testassessment.model.User;
+import com.test.testassessment.model.UserCredentials;
+import com.test.testassessment.model.UserImportResult;
 import com.test.testassessment.repository.UserRepository;
+import com.test.testassessment.security.PasswordHashing;
+import com.test.testassessment.security.Pbkdf2PasswordHasher;
+import com.test.testassessment.security.SecureRandomPool;
+import com.test.testassessment.security.Sha256PasswordHasher;
+import com.test.testassessment.service.BatchTooLargeException;
+import com.test.testassessment.service.UserService;
+import com.test.testassessment.service.impl.AuthorizationHeaderCache;
 import com.test.testassessment.service.impl.TokenService;
 import com.test.testassessment.service.impl.UserServiceImpl;
+import com.test.testassessment.util.DataResponseBodies;
+import com.test.testassessment.util.IdGenerator;
+import com.test.testassessment.util.RandomIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
-
-import java.time.ZonedDateTime;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -32,6 +65,13 @@ public class UserServiceTests {
     private UserRepository userRepository;
     @Mock
     private TokenService tokenService;
+    @Spy
+    private PasswordHashing passwordHashing = new PasswordHashing(
+            Arrays.asList(new Sha256PasswordHasher(), new Pbkdf2PasswordHasher(1000)), new SecureRandomPool(1), new SimpleMeterRegistry(), Pbkdf2PasswordHasher.ALGORITHM, 2, 16);
+    @Spy
+    private IdGenerator idGenerator = new RandomIdGenerator(new SecureRandomPool(1));
+    @Spy
+    private AuthorizationHeaderCache authorizationHeaders = new AuthorizationHeaderCache(new SimpleMeterRegistry(), 16);
     @InjectMocks
     private UserServiceImpl userService;
 
@@ -41,6 +81,8 @@ public class UserServiceTests {
 
     private static final String RAND_STRING = "RAND_STRING";
 
+    private static final String SIGNED_TOKEN = "s1.SIGNED_TOKEN";
+
     private static final String DATA = "data";
 
 
@@ -72,12 +114,95 @@ public class UserServiceTests {
         Assertions.assertThat(actualUser).isNull();
     }
 
+    @Test
+    public void saveUsersReportsEveryRecord() {
+        User first = getUser(null, "James Ditter", "jditter", null, "J@me$5");
+        User invalid = getUser(null, "No Name", null, null, "J@me$5");
+        User second = getUser(null, "Jane Doe", "jdoe", null, "QUjAskXl33$!");
+        String firstPassword = first.getPassword();
+        String secondPassword = second.getPassword();
+
+        List<UserImportResult> results = userService.saveUsers(Arrays.asList(first, invalid, second).iterator());
+
+        verify(userRepository).insertAll(Arrays.asList(first, second));
+        Assertions.assertThat(results).containsExactly(
+                UserImportResult.success(0, first.getId()),
+                UserImportResult.failure(1, "userName and password are required"),
+                UserImportResult.success(2, second.getId()));
+        Assertions.assertThat(passwordHashing.matches(first.getSalt(), firstPassword, first.getPassword())).isTrue();
+        Assertions.assertThat(passwordHashing.matches(second.getSalt(), secondPassword, second.getPassword())).isTrue();
+    }
+
+    @Test
+    public void saveUsersInsertsInChunks() {
+        ReflectionTestUtils.setField(userService, "importChunkSize", 2);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(getUser(null, "User " + i, "user" + i, null, "J@me$5"));
+        }
+
+        List<UserImportResult> results = userService.saveUsers(users.iterator());
+
+        verify(userRepository).insertAll(users.subList(0, 2));
+        verify(userRepository).insertAll(users.subList(2, 4));
+        verify(userRepository).insertAll(users.subList(4, 5));
+        Assertions.assertThat(results).extracting(UserImportResult::isSuccess).containsOnly(true);
+    }
+
+    @Test
+    public void saveUsersRetriesFailedChunkOneAtATime() {
+        User first = getUser(null, "James Ditter", "jditter", null, "J@me$5");
+        User taken = getUser(null, "Jane Doe", "taken", null, "QUjAskXl33$!");
+        doAnswer(invocation -> {
+            List<User> chunk = invocation.getArgument(0);
+            if (chunk.contains(taken)) {
+                throw new DataIntegrityViolationException("username");
+            }
+            return null;
+        }).when(userRepository).insertAll(any());
+
+        List<UserImportResult> results = userService.saveUsers(Arrays.asList(first, taken).iterator());
+
+        verify(userRepository).insertAll(Collections.singletonList(first));
+        Assertions.assertThat(results).containsExactly(
+                UserImportResult.success(0, first.getId()),
+                UserImportResult.failure(1, "userName is already taken"));
+    }
+
+    @Test
+    public void saveUsersStopsAtUnreadableRecord() {
+        User first = getUser(null, "James Ditter", "jditter", null, "J@me$5");
+        Iterator<User> users = new Iterator<User>() {
+            private boolean read;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public User next() {
+                if (read) {
+                    throw new IllegalStateException("Malformed record");
+                }
+                read = true;
+                return first;
+            }
+        };
+
+        List<UserImportResult> results = userService.saveUsers(users);
+
+        Assertions.assertThat(results).containsExactly(
+                UserImportResult.success(0, first.getId()),
+                UserImportResult.failure(1, "Record could not be read"));
+    }
+
     @Test
     public void generateTokenSuccess() {
         User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
-        Token mockToken = new Token(SOME_TOKEN, ZonedDateTime.now().plusMinutes(5));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
 
-        when(userRepository.findById(any())).thenReturn(Optional.of(userToReturn));
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
         when(tokenService.generateToken(any())).thenReturn(mockToken);
 
         String token = userService.authenticateUserByIdAndPassword("1", "J@me$5");
@@ -86,11 +211,61 @@ public class UserServiceTests {
 
     }
 
+    @Test
+    public void generateTokenRehashesLegacyPassword() {
+        User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
+        when(tokenService.generateToken(any())).thenReturn(mockToken);
+
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword("1", "J@me$5")).isNotNull();
+
+        ArgumentCaptor<String> newHash = ArgumentCaptor.forClass(String.class);
+        verify(userRepository).updatePassword(eq("1"), newHash.capture());
+        Assertions.assertThat(newHash.getValue()).startsWith("$" + Pbkdf2PasswordHasher.ALGORITHM + "$i=1000$");
+        Assertions.assertThat(passwordHashing.matches("ABC", "J@me$5", newHash.getValue())).isTrue();
+    }
+
+    @Test
+    public void generateTokenKeepsCurrentHash() {
+        User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
+        userToReturn.setPassword(passwordHashing.hash("ABC", "J@me$5"));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
+        when(tokenService.generateToken(any())).thenReturn(mockToken);
+
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword("1", "J@me$5")).isNotNull();
+        verify(userRepository, never()).updatePassword(any(), any());
+    }
+
+    @Test
+    public void generateTokenWrongPassword() {
+        User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
+
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
+
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword("1", "Wr0ng")).isNull();
+        verify(userRepository, never()).updatePassword(any(), any());
+    }
+
+    @Test
+    public void generateSignedTokenSuccess() {
+        User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
+
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
+        when(tokenService.isSignedTokenFormat()).thenReturn(true);
+        when(tokenService.generateSignedToken(any())).thenReturn(SIGNED_TOKEN);
+
+        Assertions.assertThat(userService.authenticateUserByIdAndPassword("1", "J@me$5")).isEqualTo(SIGNED_TOKEN);
+    }
+
     @Test
     public void generateTokenFailure() {
         User userToReturn = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
 
-        when(userRepository.findById(any())).thenReturn(Optional.of(userToReturn));
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.of(getCredentials(userToReturn)));
         when(tokenService.generateToken(any())).thenReturn(null);
 
         String token = userService.authenticateUserByIdAndPassword("1", "J@me$5");
@@ -99,7 +274,7 @@ public class UserServiceTests {
 
     @Test
     public void generateTokenWithoutUser() {
-        when(userRepository.findById(any())).thenReturn(Optional.empty());
+        when(userRepository.findCredentialsById(any())).thenReturn(Optional.empty());
 
         String token = userService.authenticateUserByIdAndPassword(null, null);
         Assertions.assertThat(token).isNull();
@@ -119,6 +294,34 @@ public class UserServiceTests {
         Assertions.assertThat(userService.getAllUsers()).isNull();
     }
 
+    @Test
+    public void getUsersFirstPage() {
+        List<User> page = Arrays.asList(new User(), new User());
+        when(userRepository.findByIdGreaterThanOrderByIdAsc(eq(""), eq(PageRequest.of(0, 2)))).thenReturn(page);
+
+        Assertions.assertThat(userService.getUsers(null, 2)).isEqualTo(page);
+    }
+
+    @Test
+    public void getUsersAfterId() {
+        List<User> page = Collections.singletonList(new User());
+        when(userRepository.findByIdGreaterThanOrderByIdAsc(eq("1"), eq(PageRequest.of(0, 10)))).thenReturn(page);
+
+        Assertions.assertThat(userService.getUsers("1", 10)).isEqualTo(page);
+    }
+
+    @Test
+    public void forEachUserVisitsEveryUserInOrder() {
+        User user1 = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
+        User user2 = getUser("2", "Jane Doe", "jdoe", "ABC", "J@me$5");
+        when(userRepository.streamAllOrderedById()).thenReturn(Stream.of(user1, user2));
+
+        List<User> visitedUsers = new ArrayList<>();
+        userService.forEachUser(visitedUsers::add);
+
+        Assertions.assertThat(visitedUsers).containsExactly(user1, user2);
+    }
+
     @Test
     public void updateUserSuccess() {
         User user = getUser("1", "James Ditter", "jditter", "ABC", "J@me$5");
@@ -163,7 +366,7 @@ public class UserServiceTests {
 
     @Test
     public void validateTokenSuccess() throws JsonProcessingException {
-        Token mockToken = new Token(SOME_TOKEN, ZonedDateTime.now().plusMinutes(5));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
         String base64EncodedToken = Base64.getEncoder().encodeToString(objectMapper.writeValueAsString(mockToken).getBytes());
 
         when(tokenService.isTokenValid(eq("1"), any())).thenReturn(true);
@@ -173,7 +376,7 @@ public class UserServiceTests {
 
     @Test
     public void validateTokenFailture() throws JsonProcessingException {
-        Token mockToken = new Token(SOME_TOKEN, ZonedDateTime.now().plusMinutes(5));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
         String base64EncodedToken = Base64.getEncoder().encodeToString(objectMapper.writeValueAsString(mockToken).getBytes());
 
         when(tokenService.isTokenValid(eq("1"), any())).thenReturn(false);
@@ -181,6 +384,21 @@ public class UserServiceTests {
         Assertions.assertThat(userService.validateToken("1", base64EncodedToken)).isEqualTo(false);
     }
 
+    @Test
+    public void validateTokenReadsLegacyExpiry() {
+        ArgumentCaptor<Token> decodedTokens = ArgumentCaptor.forClass(Token.class);
+        when(tokenService.isTokenValid(eq("1"), decodedTokens.capture())).thenReturn(true);
+
+        for (String legacyToken : Arrays.asList("{\"content\":\"SOME_TOKEN\",\"expiryDate\":1700000000.123456789}",
+                "{\"content\":\"SOME_TOKEN\",\"expiryDate\":\"2023-11-14T22:13:20.123Z\"}",
+                "{\"content\":\"SOME_TOKEN\",\"expiresAt\":1700000000123}")) {
+            Assertions.assertThat(userService.validateToken("1", Base64.getEncoder().encodeToString(legacyToken.getBytes()))).isTrue();
+        }
+
+        Assertions.assertThat(decodedTokens.getAllValues()).extracting(Token::getExpiresAt).containsOnly(1700000000123L);
+        Assertions.assertThat(decodedTokens.getAllValues()).extracting(Token::getContent).containsOnly(SOME_TOKEN);
+    }
+
     @Test
     public void validateTokenInvalidToken() {
         when(tokenService.isTokenValid(any(), any())).thenReturn(false);
@@ -188,9 +406,57 @@ public class UserServiceTests {
         Assertions.assertThat(userService.validateToken("1", RAND_STRING)).isEqualTo(false);
     }
 
+    @Test
+    public void validateTokensRecordsTheBatchOnce() throws JsonProcessingException {
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
+        String base64EncodedToken = Base64.getEncoder().encodeToString(objectMapper.writeValueAsString(mockToken).getBytes());
+        when(tokenService.checkToken(eq("1"), any())).thenReturn(TokenValidationOutcome.VALID);
+        when(tokenService.checkToken(eq("2"), any())).thenReturn(TokenValidationOutcome.USER_MISMATCH);
+        when(tokenService.checkSignedToken("1", SIGNED_TOKEN)).thenReturn(TokenValidationOutcome.REVOKED);
+        ArgumentCaptor<TokenValidationCounts> counts = ArgumentCaptor.forClass(TokenValidationCounts.class);
+
+        List<Boolean> results = userService.validateTokens(Arrays.asList(new TokenCheck("1", base64EncodedToken),
+                new TokenCheck("2", base64EncodedToken), new TokenCheck("1", SIGNED_TOKEN), new TokenCheck("1", null)).iterator());
+
+        Assertions.assertThat(results).containsExactly(true, false, false, false);
+        verify(tokenService).recordChecks(counts.capture());
+        verify(tokenService, never()).isTokenValid(any(), any());
+        verify(tokenService, never()).isSignedTokenValid(any(), any());
+        Assertions.assertThat(counts.getValue().getTotal()).isEqualTo(4);
+        Assertions.assertThat(counts.getValue().getRejected()).isEqualTo(3);
+        Assertions.assertThat(counts.getValue().get(TokenValidationMetrics.Format.SIGNED, TokenValidationOutcome.REVOKED)).isEqualTo(1);
+        Assertions.assertThat(counts.getValue().get(TokenValidationMetrics.Format.JSON, TokenValidationOutcome.MALFORMED)).isEqualTo(1);
+    }
+
+    @Test
+    public void validateTokensRefusesOversizedBatches() {
+        when(tokenService.checkSignedToken("1", SIGNED_TOKEN)).thenReturn(TokenValidationOutcome.VALID);
+        TokenCheck check = new TokenCheck("1", SIGNED_TOKEN);
+
+        Assertions.assertThat(userService.validateTokens(Collections.nCopies(UserService.MAX_BATCH_SIZE, check).iterator()))
+                .hasSize(UserService.MAX_BATCH_SIZE);
+        Assertions.assertThatThrownBy(() -> userService.validateTokens(Collections.nCopies(UserService.MAX_BATCH_SIZE + 1, check).iterator()))
+                .isInstanceOf(BatchTooLargeException.class);
+        verify(tokenService, times(1)).recordChecks(any());
+    }
+
+    @Test
+    public void validateSignedTokenSuccess() {
+        when(tokenService.isSignedTokenValid("1", SIGNED_TOKEN)).thenReturn(true);
+
+        Assertions.assertThat(userService.validateToken("1", SIGNED_TOKEN)).isEqualTo(true);
+    }
+
+    @Test
+    public void revokeSignedTokenSuccess() {
+        when(tokenService.revokeSignedToken("1", SIGNED_TOKEN)).thenReturn(true);
+
+        Assertions.assertThat(userService.revokeToken("1", SIGNED_TOKEN)).isEqualTo(true);
+    }
+
     @Test
     public void revokeTokenSuccess() throws JsonProcessingException {
-        Token mockToken = new Token(SOME_TOKEN, ZonedDateTime.now().plusMinutes(5));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
         String base64EncodedToken = Base64.getEncoder().encodeToString(objectMapper.writeValueAsString(mockToken).getBytes());
 
         when(tokenService.revokeToken(eq("1"), any())).thenReturn(true);
@@ -200,7 +466,7 @@ public class UserServiceTests {
 
     @Test
     public void revokeTokenFailure() throws JsonProcessingException {
-        Token mockToken = new Token(SOME_TOKEN, ZonedDateTime.now().plusMinutes(5));
+        Token mockToken = new Token(SOME_TOKEN, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5));
         String base64EncodedToken = Base64.getEncoder().encodeToString(objectMapper.writeValueAsString(mockToken).getBytes());
 
         when(tokenService.revokeToken(eq("1"), any())).thenReturn(false);
@@ -217,8 +483,15 @@ public class UserServiceTests {
     }
 
     @Test
-    public void buildResponseSuccess() throws JsonProcessingException {
-        String data = userService.buildResponse(RAND_STRING);
+    public void revokeAllTokensSuccess() {
+        userService.revokeAllTokens("1");
+
+        verify(tokenService).revokeAllTokens("1");
+    }
+
+    @Test
+    public void buildResponseSuccess() throws IOException {
+        byte[] data = userService.buildResponse(RAND_STRING);
         ObjectNode parsedData = (ObjectNode) objectMapper.readTree(data);
 
         Assertions.assertThat(parsedData != null).isTrue();
@@ -226,6 +499,19 @@ public class UserServiceTests {
         Assertions.assertThat(parsedData.get(DATA).asText()).isEqualTo(RAND_STRING);
     }
 
+    @Test
+    public void buildResponseEscapesData() throws IOException {
+        byte[] data = userService.buildResponse("\"quoted\" \\ é");
+
+        Assertions.assertThat(objectMapper.readTree(data).get(DATA).asText()).isEqualTo("\"quoted\" \\ é");
+        Assertions.assertThat(new String(userService.buildResponse(String.valueOf(true)), StandardCharsets.UTF_8)).isEqualTo("{\"data\":\"true\"}");
+        Assertions.assertThat(userService.buildResponse(String.valueOf(true))).isSameAs(DataResponseBodies.ofTrue());
+    }
+
+    private static UserCredentials getCredentials(User user) {
+        return new UserCredentials(user.getId(), user.getUserName(), user.getSalt(), user.getPassword());
+    }
+
     private static User getUser(String id, String fullName, String userName, String salt, String password) {
         User userToReturn = new User();
         userToReturn.setId(id);